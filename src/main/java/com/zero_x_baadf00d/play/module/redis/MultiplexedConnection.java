@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * A connection of the multiplexer. Commands are written by one
+ * thread and their replies are read by another, so sending the
+ * commands and reading the replies are separate steps: the replies
+ * of a batch can be read while the next batches are sent.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class MultiplexedConnection extends Client {
+
+    /**
+     * The error which made the connection unusable, or {@code null}.
+     * Once set, the replies still expected are never read.
+     *
+     * @since 26.10.16
+     */
+    private volatile RuntimeException failure;
+
+    /**
+     * Open a new connection. The database is selected once for all.
+     *
+     * @param server   The Redis server
+     * @param timeout  Connection and read timeout in milliseconds
+     * @param password The Redis server password, or {@code null}
+     * @param db       The database to select
+     * @since 26.10.16
+     */
+    MultiplexedConnection(final HostAndPort server, final int timeout, final String password, final int db) {
+        super(server.getHost(), server.getPort());
+        this.setConnectionTimeout(timeout);
+        this.setSoTimeout(timeout);
+        if (password != null) {
+            this.setPassword(password);
+        }
+        this.setDb(db);
+        try {
+            this.connect();
+        } catch (final RuntimeException ex) {
+            this.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends the commands written so far, without waiting for their
+     * replies.
+     *
+     * @since 26.10.16
+     */
+    void send() {
+        this.flush();
+    }
+
+    /**
+     * Reads the next reply. An error reply is returned, not thrown.
+     *
+     * @return The reply
+     * @since 26.10.16
+     */
+    Object readReply() {
+        try {
+            return this.readProtocolWithCheckingBroken();
+        } catch (final JedisDataException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Get the error which made the connection unusable.
+     *
+     * @return The error, or {@code null}
+     * @since 26.10.16
+     */
+    RuntimeException getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Marks the connection as unusable.
+     *
+     * @param failure The error
+     * @since 26.10.16
+     */
+    void setFailure(final RuntimeException failure) {
+        this.failure = failure;
+    }
+}
@@ -0,0 +1,596 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import play.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache holding deserialized objects in front of
+ * Redis. Only keys matching one of the configured regions
+ * (by key prefix) are cached. Each region is bounded in size
+ * and entries expire after a fixed TTL. Modified keys are
+ * published on a Redis pub/sub channel so other nodes can
+ * evict their own copy.
+ * <p>
+ * Cached objects are shared between callers and must not be
+ * modified.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class NearCache {
+
+    /**
+     * Name of the counter incremented on each near cache hit.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_HIT = "near-cache.hit";
+
+    /**
+     * Name of the counter incremented on each near cache miss.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_MISS = "near-cache.miss";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(NearCache.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String NEAR_CACHE_ENABLED = "redis.near-cache.enabled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String NEAR_CACHE_CHANNEL = "redis.near-cache.channel";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String NEAR_CACHE_REGIONS = "redis.near-cache.regions";
+
+    /**
+     * Separator used between fields of invalidation messages.
+     *
+     * @since 26.10.16
+     */
+    private static final String MESSAGE_SEPARATOR = "\n";
+
+    /**
+     * Number of generations of each region. Must be a power of 2.
+     *
+     * @since 26.10.16
+     */
+    private static final int GENERATION_SLOTS = 256;
+
+    /**
+     * Regions, sorted from the longest prefix to the shortest.
+     *
+     * @since 26.10.16
+     */
+    private final List<Region> regions;
+
+    /**
+     * The pub/sub channel used to exchange invalidations.
+     *
+     * @since 26.10.16
+     */
+    private final String channel;
+
+    /**
+     * Identifier of this node, used to ignore our own invalidations.
+     *
+     * @since 26.10.16
+     */
+    private final String nodeId;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Subscriber receiving invalidations from other nodes.
+     *
+     * @since 26.10.16
+     */
+    private final JedisPubSub subscriber;
+
+    /**
+     * Thread running the subscriber.
+     *
+     * @since 26.10.16
+     */
+    private Thread subscriberThread;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    NearCache(final Config configuration, final RedisMetrics metrics) {
+        this.metrics = metrics;
+        this.nodeId = UUID.randomUUID().toString();
+        this.channel = configuration.getString(NearCache.NEAR_CACHE_CHANNEL);
+        this.regions = new ArrayList<>();
+        if (configuration.getBoolean(NearCache.NEAR_CACHE_ENABLED)) {
+            for (final Config regionConfiguration : configuration.getConfigList(NearCache.NEAR_CACHE_REGIONS)) {
+                final Region region = new Region(
+                    regionConfiguration.getString("prefix"),
+                    regionConfiguration.getInt("maxsize"),
+                    regionConfiguration.getLong("ttl")
+                );
+                if (region.maxSize < 1 || region.ttl < 1) {
+                    throw new ConfigException.BadValue(
+                        regionConfiguration.origin(),
+                        NearCache.NEAR_CACHE_REGIONS,
+                        "Region '" + region.prefix + "': maxsize and ttl must be equal or greater than 1"
+                    );
+                }
+                this.regions.add(region);
+            }
+            this.regions.sort(Comparator.comparingInt((Region r) -> r.prefix.length()).reversed());
+        }
+        this.subscriber = new JedisPubSub() {
+
+            @Override
+            public void onMessage(final String channelName, final String message) {
+                NearCache.this.onInvalidationMessage(message);
+            }
+        };
+    }
+
+    /**
+     * Check if the near cache is enabled.
+     *
+     * @return {@code true} if at least one region is configured
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return !this.regions.isEmpty();
+    }
+
+    /**
+     * Find the region in charge of the given key.
+     *
+     * @param key The key
+     * @return The region, or {@code null} if the key is not cached
+     * @since 26.10.16
+     */
+    private Region findRegion(final String key) {
+        for (final Region region : this.regions) {
+            if (key.startsWith(region.prefix)) {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the given key is handled by the near cache.
+     *
+     * @param key The key
+     * @return {@code true} if the key belongs to a region
+     * @since 26.10.16
+     */
+    boolean isCached(final String key) {
+        return this.findRegion(key) != null;
+    }
+
+    /**
+     * Retrieves an object from the near cache.
+     *
+     * @param key      The key
+     * @param javaType The expected object type
+     * @param <T>      Generic type of something
+     * @return The object, or {@code null} if not cached
+     * @since 26.10.16
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(final String key, final JavaType javaType) {
+        final Region region = this.findRegion(key);
+        if (region == null) {
+            return null;
+        }
+        final CachedObject entry = region.entries.get(key);
+        if (entry != null && entry.javaType.equals(javaType)) {
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                this.metrics.increment(NearCache.METRIC_HIT);
+                return (T) entry.value;
+            }
+            region.entries.remove(key, entry);
+        }
+        this.metrics.increment(NearCache.METRIC_MISS);
+        return null;
+    }
+
+    /**
+     * Get the current generation of the given key. Must be read
+     * before fetching a value from Redis and given back to {@link #put}.
+     *
+     * @param key The key
+     * @return The current generation of the key
+     * @since 26.10.16
+     */
+    long getGeneration(final String key) {
+        final Region region = this.findRegion(key);
+        return region == null ? 0 : region.generations.get(Region.slot(key));
+    }
+
+    /**
+     * Adds an object in the near cache. Nothing is done if the
+     * key was invalidated since the given generation.
+     *
+     * @param key                The key
+     * @param javaType           The object type
+     * @param value              The object
+     * @param expectedGeneration The key generation read before fetching the object
+     * @since 26.10.16
+     */
+    void put(final String key, final JavaType javaType, final Object value, final long expectedGeneration) {
+        final Region region = this.findRegion(key);
+        if (region != null && value != null) {
+            synchronized (region.entries) {
+                if (region.generations.get(Region.slot(key)) == expectedGeneration) {
+                    region.entries.put(
+                        key,
+                        new CachedObject(javaType, value, System.currentTimeMillis() + region.ttl)
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts keys from the local near cache only.
+     *
+     * @param keys The keys to evict
+     * @since 26.10.16
+     */
+    void evict(final Collection<String> keys) {
+        for (final String key : keys) {
+            final Region region = this.findRegion(key);
+            if (region != null) {
+                region.generations.incrementAndGet(Region.slot(key));
+                region.entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Evicts all entries from the local near cache.
+     *
+     * @since 26.10.16
+     */
+    private void evictAll() {
+        for (final Region region : this.regions) {
+            for (int slot = 0; slot < NearCache.GENERATION_SLOTS; ++slot) {
+                region.generations.incrementAndGet(slot);
+            }
+            region.entries.clear();
+        }
+    }
+
+    /**
+     * Get the keys, among the given ones, handled by the near cache.
+     *
+     * @param keys The keys
+     * @return The keys handled by the near cache
+     * @since 26.10.16
+     */
+    private List<String> filterCachedKeys(final Collection<String> keys) {
+        final List<String> cachedKeys = new ArrayList<>();
+        if (this.isEnabled()) {
+            for (final String key : keys) {
+                if (this.isCached(key)) {
+                    cachedKeys.add(key);
+                }
+            }
+        }
+        return cachedKeys;
+    }
+
+    /**
+     * Builds the message telling the other nodes to evict the given keys.
+     *
+     * @param cachedKeys The keys to evict
+     * @return The message to publish
+     * @since 26.10.16
+     */
+    private String buildMessage(final List<String> cachedKeys) {
+        return this.nodeId + NearCache.MESSAGE_SEPARATOR + String.join(NearCache.MESSAGE_SEPARATOR, cachedKeys);
+    }
+
+    /**
+     * Evicts keys from the near cache of all nodes. Keys are
+     * evicted locally, then published to the other nodes.
+     *
+     * @param jedis The Redis connection to use to publish
+     * @param keys  The modified keys
+     * @since 26.10.16
+     */
+    void invalidate(final Jedis jedis, final Collection<String> keys) {
+        final List<String> cachedKeys = this.filterCachedKeys(keys);
+        if (!cachedKeys.isEmpty()) {
+            this.evict(cachedKeys);
+            jedis.publish(this.channel, this.buildMessage(cachedKeys));
+        }
+    }
+
+    /**
+     * Adds the message telling the other nodes to evict the given
+     * keys to a pipeline. Keys must then be evicted locally with
+     * {@link #evict(Collection)}, once the pipeline is synchronized.
+     *
+     * @param pipeline The pipeline to use to publish
+     * @param keys     The modified keys
+     * @since 26.10.16
+     */
+    void publishInvalidation(final Pipeline pipeline, final Collection<String> keys) {
+        final List<String> cachedKeys = this.filterCachedKeys(keys);
+        if (!cachedKeys.isEmpty()) {
+            pipeline.publish(this.channel, this.buildMessage(cachedKeys));
+        }
+    }
+
+    /**
+     * Evicts a key from the near cache of all nodes.
+     *
+     * @param jedis The Redis connection to use to publish
+     * @param key   The modified key
+     * @since 26.10.16
+     */
+    void invalidate(final Jedis jedis, final String key) {
+        this.invalidate(jedis, Collections.singletonList(key));
+    }
+
+    /**
+     * Handles an invalidation message received from the channel.
+     *
+     * @param message The received message
+     * @since 26.10.16
+     */
+    private void onInvalidationMessage(final String message) {
+        final String[] fields = message.split(NearCache.MESSAGE_SEPARATOR);
+        if (fields.length > 1 && !this.nodeId.equals(fields[0])) {
+            final List<String> keys = new ArrayList<>(fields.length - 1);
+            Collections.addAll(keys, fields);
+            keys.remove(0);
+            this.evict(keys);
+        }
+    }
+
+    /**
+     * Start listening for invalidations sent by other nodes. The
+     * connection is opened again if lost. As invalidations could
+     * have been missed, the near cache is cleared on each connection.
+     *
+     * @param connectionFactory Supplier of dedicated Redis connections
+     * @param retryDelay        Delay in milliseconds before reconnecting
+     * @since 26.10.16
+     */
+    void start(final Supplier<Jedis> connectionFactory, final long retryDelay) {
+        if (!this.isEnabled() || this.subscriberThread != null) {
+            return;
+        }
+        this.subscriberThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (final Jedis jedis = connectionFactory.get()) {
+                    this.evictAll();
+                    jedis.subscribe(this.subscriber, this.channel);
+                } catch (final JedisException ex) {
+                    NearCache.LOG.warn("Near cache invalidations channel lost: {}", ex.getMessage());
+                    this.evictAll();
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (final InterruptedException ignore) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "play-redis-near-cache");
+        this.subscriberThread.setDaemon(true);
+        this.subscriberThread.start();
+    }
+
+    /**
+     * Listen for invalidations on a new connection (eg: after a
+     * master switch). The near cache is cleared.
+     *
+     * @since 26.10.16
+     */
+    void reconnect() {
+        if (this.subscriber.isSubscribed()) {
+            this.subscriber.unsubscribe();
+        }
+    }
+
+    /**
+     * Stop listening for invalidations.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        if (this.subscriberThread != null) {
+            this.subscriberThread.interrupt();
+            this.subscriberThread = null;
+            if (this.subscriber.isSubscribed()) {
+                this.subscriber.unsubscribe();
+            }
+        }
+        this.evictAll();
+    }
+
+    /**
+     * A near cache region.
+     *
+     * @since 26.10.16
+     */
+    private static final class Region {
+
+        /**
+         * Keys prefix handled by this region.
+         *
+         * @since 26.10.16
+         */
+        private final String prefix;
+
+        /**
+         * Maximum number of entries.
+         *
+         * @since 26.10.16
+         */
+        private final int maxSize;
+
+        /**
+         * Entries TTL in milliseconds.
+         *
+         * @since 26.10.16
+         */
+        private final long ttl;
+
+        /**
+         * Entries, from the least recently used to the most recently used.
+         *
+         * @since 26.10.16
+         */
+        private final Map<String, CachedObject> entries;
+
+        /**
+         * Generations, incremented when one of their keys is invalidated.
+         * Used to not cache a value read from Redis while its key was
+         * invalidated. Keys are spread over the generations by hash.
+         *
+         * @since 26.10.16
+         */
+        private final AtomicLongArray generations;
+
+        /**
+         * Build a new instance.
+         *
+         * @param prefix  Keys prefix handled by this region
+         * @param maxSize Maximum number of entries
+         * @param ttl     Entries TTL in milliseconds
+         * @since 26.10.16
+         */
+        Region(final String prefix, final int maxSize, final long ttl) {
+            this.prefix = prefix;
+            this.maxSize = maxSize;
+            this.ttl = ttl;
+            this.generations = new AtomicLongArray(NearCache.GENERATION_SLOTS);
+            this.entries = Collections.synchronizedMap(new LinkedHashMap<String, CachedObject>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, CachedObject> eldest) {
+                    return this.size() > Region.this.maxSize;
+                }
+            });
+        }
+
+        /**
+         * Get the generation in charge of the given key.
+         *
+         * @param key The key
+         * @return The generation index
+         * @since 26.10.16
+         */
+        private static int slot(final String key) {
+            final int hash = key.hashCode();
+            return (hash ^ (hash >>> 16)) & (NearCache.GENERATION_SLOTS - 1);
+        }
+    }
+
+    /**
+     * A near cache entry.
+     *
+     * @since 26.10.16
+     */
+    private static final class CachedObject {
+
+        /**
+         * The object type.
+         *
+         * @since 26.10.16
+         */
+        private final JavaType javaType;
+
+        /**
+         * The object.
+         *
+         * @since 26.10.16
+         */
+        private final Object value;
+
+        /**
+         * Timestamp (in milliseconds) when the entry expires.
+         *
+         * @since 26.10.16
+         */
+        private final long expiresAt;
+
+        /**
+         * Build a new instance.
+         *
+         * @param javaType  The object type
+         * @param value     The object
+         * @param expiresAt Timestamp (in milliseconds) when the entry expires
+         * @since 26.10.16
+         */
+        CachedObject(final JavaType javaType, final Object value, final long expiresAt) {
+            this.javaType = javaType;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
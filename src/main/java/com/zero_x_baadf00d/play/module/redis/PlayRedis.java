@@ -27,8 +27,12 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import redis.clients.jedis.Jedis;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * Redis module give access to methods to easily use
@@ -36,11 +40,25 @@ import java.util.concurrent.Callable;
  *
  * @author Thibault Meyer
  * @author Pierre Adam
- * @version 17.11.17
+ * @version 26.10.16
  * @since 16.03.09
  */
 public interface PlayRedis {
 
+    /**
+     * Prefix a key with a hash tag. In cluster mode, keys sharing
+     * the same hash tag are stored on the same hash slot, so they
+     * can be used together by multi-key commands and scripts.
+     *
+     * @param tag The hash tag (eg: an user id)
+     * @param key The key
+     * @return The key prefixed by the hash tag (eg: {@code {42}profile})
+     * @since 26.10.16
+     */
+    static String hashTag(final String tag, final String key) {
+        return "{" + tag + "}" + key;
+    }
+
     /**
      * Reset the connections pool. If the pool is already
      * initialized, it will be closed and initialized again.
@@ -51,7 +69,9 @@ public interface PlayRedis {
     void resetConnectionsPool();
 
     /**
-     * Get a Redis connection from the pool.
+     * Get a Redis connection from the pool. In cluster mode, the
+     * connection is bound to a random master: use it for keys
+     * stored on this master only, or for commands without key.
      *
      * @return A Redis connection
      * @see Jedis
@@ -63,6 +83,9 @@ public interface PlayRedis {
      * Get a Redis connection from the pool pre-configured
      * with the right database. If the database number is
      * under zero, the database "zero" will be selected.
+     * In cluster mode, only the database "zero" is available.
+     * Each database has its own pool, created on first use,
+     * whose connections select the database once when opened.
      *
      * @param db The database number to use
      * @return A Redis connection
@@ -71,6 +94,82 @@ public interface PlayRedis {
      */
     Jedis getConnection(final int db);
 
+    /**
+     * Get the module metrics (eg: near cache hits and misses).
+     *
+     * @return The module metrics
+     * @see RedisMetrics
+     * @since 26.10.16
+     */
+    RedisMetrics getMetrics();
+
+    /**
+     * Get the bounded executor dedicated to blocking Redis calls
+     * made on behalf of asynchronous code (eg: the async cache).
+     *
+     * @return The executor
+     * @since 26.10.16
+     */
+    Executor getExecutor();
+
+    /**
+     * Get the non-blocking flavour of this API. Calls made through
+     * it share a few multiplexed connections instead of the pool.
+     *
+     * @return The asynchronous API
+     * @see PlayRedisAsync
+     * @since 26.10.16
+     */
+    PlayRedisAsync async();
+
+    /**
+     * Get a handle to values of the given type. The type is
+     * resolved once, then reused on each call made through
+     * the handle.
+     *
+     * @param clazz The object class
+     * @param <T>   Generic type of something
+     * @return A reusable and thread-safe handle
+     * @since 26.10.16
+     */
+    <T> TypedRedis<T> typed(final Class<T> clazz);
+
+    /**
+     * Get a handle to values of the given type. The type is
+     * resolved once, then reused on each call made through
+     * the handle.
+     *
+     * @param typeReference The object type reference
+     * @param <T>           Generic type of something
+     * @return A reusable and thread-safe handle
+     * @since 26.10.16
+     */
+    <T> TypedRedis<T> typed(final TypeReference<T> typeReference);
+
+    /**
+     * Get a handle to values of the given type, stored at
+     * keys starting with the given prefix.
+     *
+     * @param clazz     The object class
+     * @param keyPrefix Prefix added to all keys given to the handle
+     * @param <T>       Generic type of something
+     * @return A reusable and thread-safe handle
+     * @since 26.10.16
+     */
+    <T> TypedRedis<T> typed(final Class<T> clazz, final String keyPrefix);
+
+    /**
+     * Get a handle to values of the given type, stored at
+     * keys starting with the given prefix.
+     *
+     * @param typeReference The object type reference
+     * @param keyPrefix     Prefix added to all keys given to the handle
+     * @param <T>           Generic type of something
+     * @return A reusable and thread-safe handle
+     * @since 26.10.16
+     */
+    <T> TypedRedis<T> typed(final TypeReference<T> typeReference, final String keyPrefix);
+
     /**
      * Retrieves an object by key.
      *
@@ -104,6 +203,48 @@ public interface PlayRedis {
      */
     <T> T get(final String key, final JavaType javaType);
 
+    /**
+     * Retrieves many objects in a single round trip. Keys are
+     * fetched with MGET, split in chunks if needed. Keys that
+     * do not exist or can't be read are not present in the
+     * returned map.
+     *
+     * @param keys          Items keys
+     * @param typeReference The object type reference
+     * @param <T>           Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> Map<String, T> getMany(final Collection<String> keys, final TypeReference<T> typeReference);
+
+    /**
+     * Retrieves many objects in a single round trip. Keys are
+     * fetched with MGET, split in chunks if needed. Keys that
+     * do not exist or can't be read are not present in the
+     * returned map.
+     *
+     * @param keys  Items keys
+     * @param clazz The object class
+     * @param <T>   Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> Map<String, T> getMany(final Collection<String> keys, final Class<T> clazz);
+
+    /**
+     * Retrieves many objects in a single round trip. Keys are
+     * fetched with MGET, split in chunks if needed. Keys that
+     * do not exist or can't be read are not present in the
+     * returned map.
+     *
+     * @param keys     Items keys
+     * @param javaType The object java type
+     * @param <T>      Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> Map<String, T> getMany(final Collection<String> keys, final JavaType javaType);
+
     /**
      * Sets a value without expiration.
      *
@@ -171,6 +312,79 @@ public interface PlayRedis {
      */
     void set(final String key, final JavaType javaType, final Object value, final int expiration);
 
+    /**
+     * Sets many values without expiration. All values are serialized
+     * first, then sent to Redis in a single pipeline.
+     *
+     * @param values        The values to set, indexed by key
+     * @param typeReference The object type reference
+     * @param <T>           Generic type of something
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    <T> Set<String> setMany(final Map<String, T> values, final TypeReference<T> typeReference);
+
+    /**
+     * Sets many values with expiration. All values are serialized
+     * first, then sent to Redis in a single pipeline.
+     *
+     * @param values        The values to set, indexed by key
+     * @param typeReference The object type reference
+     * @param expiration    expiration in seconds
+     * @param <T>           Generic type of something
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    <T> Set<String> setMany(final Map<String, T> values, final TypeReference<T> typeReference, final int expiration);
+
+    /**
+     * Sets many values without expiration. All values are serialized
+     * first, then sent to Redis in a single pipeline.
+     *
+     * @param values The values to set, indexed by key
+     * @param clazz  The object class
+     * @param <T>    Generic type of something
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    <T> Set<String> setMany(final Map<String, T> values, final Class<T> clazz);
+
+    /**
+     * Sets many values with expiration. All values are serialized
+     * first, then sent to Redis in a single pipeline.
+     *
+     * @param values     The values to set, indexed by key
+     * @param clazz      The object class
+     * @param expiration expiration in seconds
+     * @param <T>        Generic type of something
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    <T> Set<String> setMany(final Map<String, T> values, final Class<T> clazz, final int expiration);
+
+    /**
+     * Sets many values without expiration. All values are serialized
+     * first, then sent to Redis in a single pipeline.
+     *
+     * @param values   The values to set, indexed by key
+     * @param javaType The object java type
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    Set<String> setMany(final Map<String, ?> values, final JavaType javaType);
+
+    /**
+     * Sets many values with expiration. All values are serialized
+     * first, then sent to Redis in a single pipeline.
+     *
+     * @param values     The values to set, indexed by key
+     * @param javaType   The object java type
+     * @param expiration expiration in seconds
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    Set<String> setMany(final Map<String, ?> values, final JavaType javaType, final int expiration);
+
     /**
      * Retrieve a value from the cache, or set it from a default
      * Callable function. The value has no expiration.
@@ -252,6 +466,19 @@ public interface PlayRedis {
      */
     <T> T getOrElse(final String key, final JavaType javaType, final Callable<T> block, final int expiration);
 
+    /**
+     * Run a block whose reads are all sent to the master, whatever
+     * the read preference is. Use it when the block must see the
+     * writes made just before, which may not have reached the
+     * replicas yet.
+     *
+     * @param block The block to run
+     * @param <T>   Generic type of something
+     * @return The block result
+     * @since 26.10.16
+     */
+    <T> T readYourWrites(final Callable<T> block);
+
     /**
      * Removes a value from the cache.
      *
@@ -264,9 +491,55 @@ public interface PlayRedis {
      * Removes a value from the cache.
      *
      * @param keys Keys to remove from redis
+     * @return The number of removed keys
      * @since 16.03.09
      */
-    void remove(final String... keys);
+    long remove(final String... keys);
+
+    /**
+     * Removes values from the cache. Keys are sent by chunks in a
+     * single round trip.
+     *
+     * @param keys Keys to remove from redis
+     * @return The number of removed keys
+     * @since 26.10.16
+     */
+    long remove(final Collection<String> keys);
+
+    /**
+     * Removes all values whose key starts with the given prefix.
+     * Keys are found with a cursor based SCAN, and removed batch
+     * per batch with UNLINK, so Redis is never blocked for long.
+     * In cluster mode, the keys of each master are scanned.
+     *
+     * @param keyPrefix The key prefix
+     * @return The number of removed keys
+     * @since 26.10.16
+     */
+    long removeByPrefix(final String keyPrefix);
+
+    /**
+     * Get the physical key of a key stored in a namespace. The
+     * physical key contains the current generation of the namespace,
+     * so it changes each time the namespace is invalidated.
+     *
+     * @param namespace The namespace (ie: "play.cache.")
+     * @param key       The key
+     * @return The physical key
+     * @since 26.10.16
+     */
+    String namespacedKey(final String namespace, final String key);
+
+    /**
+     * Invalidates all values stored in a namespace by moving it to
+     * a new generation, with a single INCR. Values of the previous
+     * generation age out with their expiration.
+     *
+     * @param namespace The namespace (ie: "play.cache.")
+     * @return The new generation
+     * @since 26.10.16
+     */
+    long invalidateNamespace(final String namespace);
 
     /**
      * Check if key is present on Redis database.
@@ -418,11 +691,14 @@ public interface PlayRedis {
 
     /**
      * Try to acquire a lock. This method will return {@code false} if
-     * can't acquire lock or can't connect to Redis server.
+     * can't acquire lock or can't connect to Redis server. The lock
+     * and its TTL are set at once, so a dead owner can't leave a lock
+     * without expiration behind.
      *
      * @param key        The lock key
-     * @param expiration The lock TTL
+     * @param expiration The lock TTL in seconds, {@code 0} for a lock without expiration
      * @return {@code true} in case of success, otherwise, {@code false}
+     * @throws IllegalArgumentException If the expiration is negative
      * @since 16.08.09
      */
     boolean tryLock(final String key, final int expiration);
@@ -447,4 +723,28 @@ public interface PlayRedis {
      * @since 17.02.02
      */
     Long increment(final String key, final int expiration);
+
+    /**
+     * Train a compression dictionary from the values stored under the
+     * given key prefix. The dictionary is stored on Redis and is then
+     * used to compress the values of this prefix. Other instances use
+     * it once restarted.
+     *
+     * @param keyPrefix   The key prefix
+     * @param sampleCount The maximum number of values to sample
+     * @return The dictionary id, or {@code null} if the dictionary can't be trained
+     * @since 26.10.16
+     */
+    Integer trainDictionary(final String keyPrefix, final int sampleCount);
+
+    /**
+     * Install a compression dictionary trained offline (ie: with
+     * {@code zstd --train}) for the given key prefix.
+     *
+     * @param keyPrefix  The key prefix
+     * @param dictionary The Zstd dictionary
+     * @return The dictionary id
+     * @since 26.10.16
+     */
+    int installDictionary(final String keyPrefix, final byte[] dictionary);
 }
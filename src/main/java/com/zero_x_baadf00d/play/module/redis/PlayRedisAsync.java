@@ -0,0 +1,472 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import akka.Done;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking flavour of {@link PlayRedis}. Commands of all
+ * callers are sent in pipelined batches over a few shared
+ * connections, so pending calls hold neither a thread nor a
+ * pooled connection. Returned stages are completed on the module
+ * executor, never on the connection threads, and fail if Redis
+ * can't be reached or the executor is saturated.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @see PlayRedis
+ * @since 26.10.16
+ */
+public interface PlayRedisAsync {
+
+    /**
+     * Retrieves an object by key.
+     *
+     * @param key           Item key
+     * @param typeReference The object type reference
+     * @param <T>           Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    <T> CompletionStage<T> get(final String key, final TypeReference<T> typeReference);
+
+    /**
+     * Retrieves an object by key.
+     *
+     * @param key   Item key
+     * @param clazz The object class
+     * @param <T>   Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    <T> CompletionStage<T> get(final String key, final Class<T> clazz);
+
+    /**
+     * Retrieves an object by key.
+     *
+     * @param key      Item key
+     * @param javaType The object java type
+     * @param <T>      Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    <T> CompletionStage<T> get(final String key, final JavaType javaType);
+
+    /**
+     * Retrieves many objects. Keys that do not exist or can't
+     * be read are not present in the returned map.
+     *
+     * @param keys          Items keys
+     * @param typeReference The object type reference
+     * @param <T>           Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Map<String, T>> getMany(final Collection<String> keys, final TypeReference<T> typeReference);
+
+    /**
+     * Retrieves many objects. Keys that do not exist or can't
+     * be read are not present in the returned map.
+     *
+     * @param keys  Items keys
+     * @param clazz The object class
+     * @param <T>   Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Map<String, T>> getMany(final Collection<String> keys, final Class<T> clazz);
+
+    /**
+     * Retrieves many objects. Keys that do not exist or can't
+     * be read are not present in the returned map.
+     *
+     * @param keys     Items keys
+     * @param javaType The object java type
+     * @param <T>      Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Map<String, T>> getMany(final Collection<String> keys, final JavaType javaType);
+
+    /**
+     * Sets a value without expiration.
+     *
+     * @param key           Item key
+     * @param typeReference The object type reference
+     * @param value         The value to set
+     * @param <T>           Generic type of something
+     * @return A stage completed once the value is stored
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> set(final String key, final TypeReference<T> typeReference, final T value);
+
+    /**
+     * Sets a value with expiration.
+     *
+     * @param key           Item key
+     * @param typeReference The object type reference
+     * @param value         The value to set
+     * @param expiration    expiration in seconds
+     * @param <T>           Generic type of something
+     * @return A stage completed once the value is stored
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> set(final String key, final TypeReference<T> typeReference, final T value, final int expiration);
+
+    /**
+     * Sets a value without expiration.
+     *
+     * @param key   Item key
+     * @param clazz The object class
+     * @param value The value to set
+     * @param <T>   Generic type of something
+     * @return A stage completed once the value is stored
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> set(final String key, final Class<T> clazz, final T value);
+
+    /**
+     * Sets a value with expiration.
+     *
+     * @param key        Item key
+     * @param clazz      The object class
+     * @param value      The value to set
+     * @param expiration expiration in seconds
+     * @param <T>        Generic type of something
+     * @return A stage completed once the value is stored
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> set(final String key, final Class<T> clazz, final T value, final int expiration);
+
+    /**
+     * Sets a value without expiration.
+     *
+     * @param key      Item key
+     * @param javaType The object java type
+     * @param value    The value to set
+     * @return A stage completed once the value is stored
+     * @since 26.10.16
+     */
+    CompletionStage<Done> set(final String key, final JavaType javaType, final Object value);
+
+    /**
+     * Sets a value with expiration.
+     *
+     * @param key        Item key
+     * @param javaType   The object java type
+     * @param value      The value to set
+     * @param expiration expiration in seconds
+     * @return A stage completed once the value is stored
+     * @since 26.10.16
+     */
+    CompletionStage<Done> set(final String key, final JavaType javaType, final Object value, final int expiration);
+
+    /**
+     * Sets many values. All values are sent at once.
+     *
+     * @param values        The values to set, indexed by key
+     * @param typeReference The object type reference
+     * @param expiration    expiration in seconds, or {@code 0} to not expire
+     * @param <T>           Generic type of something
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Set<String>> setMany(final Map<String, T> values, final TypeReference<T> typeReference, final int expiration);
+
+    /**
+     * Sets many values. All values are sent at once.
+     *
+     * @param values     The values to set, indexed by key
+     * @param clazz      The object class
+     * @param expiration expiration in seconds, or {@code 0} to not expire
+     * @param <T>        Generic type of something
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Set<String>> setMany(final Map<String, T> values, final Class<T> clazz, final int expiration);
+
+    /**
+     * Sets many values. All values are sent at once.
+     *
+     * @param values     The values to set, indexed by key
+     * @param javaType   The object java type
+     * @param expiration expiration in seconds, or {@code 0} to not expire
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    CompletionStage<Set<String>> setMany(final Map<String, ?> values, final JavaType javaType, final int expiration);
+
+    /**
+     * Retrieves a value from the cache, or set it from a default
+     * {@code CompletionStage} if the value is not present.
+     *
+     * @param key           Item key
+     * @param typeReference The object type reference
+     * @param block         Block returning value to set if key does not exist
+     * @param expiration    expiration period in seconds, or {@code 0} to not expire
+     * @param <T>           Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    <T> CompletionStage<T> getOrElse(final String key, final TypeReference<T> typeReference,
+                                     final Callable<CompletionStage<T>> block, final int expiration);
+
+    /**
+     * Retrieves a value from the cache, or set it from a default
+     * {@code CompletionStage} if the value is not present.
+     *
+     * @param key        Item key
+     * @param clazz      The object class
+     * @param block      Block returning value to set if key does not exist
+     * @param expiration expiration period in seconds, or {@code 0} to not expire
+     * @param <T>        Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    <T> CompletionStage<T> getOrElse(final String key, final Class<T> clazz,
+                                     final Callable<CompletionStage<T>> block, final int expiration);
+
+    /**
+     * Retrieves a value from the cache, or set it from a default
+     * {@code CompletionStage} if the value is not present.
+     *
+     * @param key        Item key
+     * @param javaType   The object java type
+     * @param block      Block returning value to set if key does not exist
+     * @param expiration expiration period in seconds, or {@code 0} to not expire
+     * @param <T>        Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    <T> CompletionStage<T> getOrElse(final String key, final JavaType javaType,
+                                     final Callable<CompletionStage<T>> block, final int expiration);
+
+    /**
+     * Removes values from the cache.
+     *
+     * @param keys The keys to remove
+     * @return The number of removed keys
+     * @since 26.10.16
+     */
+    CompletionStage<Long> remove(final String... keys);
+
+    /**
+     * Removes values from the cache. Keys are sent by chunks in a
+     * single round trip.
+     *
+     * @param keys The keys to remove
+     * @return The number of removed keys
+     * @since 26.10.16
+     */
+    CompletionStage<Long> remove(final Collection<String> keys);
+
+    /**
+     * Removes all values whose key starts with the given prefix.
+     * Keys are found with a cursor based SCAN, and removed batch
+     * per batch with UNLINK, so Redis is never blocked for long.
+     * In cluster mode, the keys of each master are scanned.
+     *
+     * @param keyPrefix The key prefix
+     * @return The number of removed keys
+     * @since 26.10.16
+     */
+    CompletionStage<Long> removeByPrefix(final String keyPrefix);
+
+    /**
+     * Get the physical key of a key stored in a namespace. The
+     * physical key contains the current generation of the namespace,
+     * so it changes each time the namespace is invalidated.
+     *
+     * @param namespace The namespace (ie: "play.cache.")
+     * @param key       The key
+     * @return The physical key
+     * @since 26.10.16
+     */
+    CompletionStage<String> namespacedKey(final String namespace, final String key);
+
+    /**
+     * Invalidates all values stored in a namespace by moving it to
+     * a new generation, with a single INCR. Values of the previous
+     * generation age out with their expiration.
+     *
+     * @param namespace The namespace (ie: "play.cache.")
+     * @return The new generation
+     * @since 26.10.16
+     */
+    CompletionStage<Long> invalidateNamespace(final String namespace);
+
+    /**
+     * Check if key is present on Redis database.
+     *
+     * @param key The key to test
+     * @return {@code true} if the key is present on Redis database
+     * @since 26.10.16
+     */
+    CompletionStage<Boolean> exists(final String key);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key           The list key
+     * @param typeReference The object type reference
+     * @param value         The value to add in the list
+     * @param <T>           Generic type of something
+     * @return A stage completed once the value is added
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> addInList(final String key, final TypeReference<T> typeReference, final Object value);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key           The list key
+     * @param typeReference The object type reference
+     * @param value         The value to add in the list
+     * @param maxItem       The number of entries to keep in list
+     * @param <T>           Generic type of something
+     * @return A stage completed once the value is added
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> addInList(final String key, final TypeReference<T> typeReference, final Object value, final int maxItem);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key   The list key
+     * @param clazz The object class
+     * @param value The value to add in the list
+     * @param <T>   Generic type of something
+     * @return A stage completed once the value is added
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> addInList(final String key, final Class<T> clazz, final T value);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key     The list key
+     * @param clazz   The object class
+     * @param value   The value to add in the list
+     * @param maxItem The number of entries to keep in list
+     * @param <T>     Generic type of something
+     * @return A stage completed once the value is added
+     * @since 26.10.16
+     */
+    <T> CompletionStage<Done> addInList(final String key, final Class<T> clazz, final T value, final int maxItem);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key      The list key
+     * @param javaType The object java type
+     * @param value    The value to add in the list
+     * @return A stage completed once the value is added
+     * @since 26.10.16
+     */
+    CompletionStage<Done> addInList(final String key, final JavaType javaType, final Object value);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key      The list key
+     * @param javaType The object java type
+     * @param value    The value to add in the list
+     * @param maxItem  The number of entries to keep in list
+     * @return A stage completed once the value is added
+     * @since 26.10.16
+     */
+    CompletionStage<Done> addInList(final String key, final JavaType javaType, final Object value, final int maxItem);
+
+    /**
+     * Retrieves values from a list.
+     *
+     * @param key           The list key
+     * @param typeReference The object type reference
+     * @param offset        From where
+     * @param count         The number of items to retrieve, or {@code -1} for all
+     * @param <T>           Generic type of something
+     * @return The values list
+     * @since 26.10.16
+     */
+    <T> CompletionStage<List<T>> getFromList(final String key, final TypeReference<T> typeReference, final int offset, final int count);
+
+    /**
+     * Retrieves values from a list.
+     *
+     * @param key    The list key
+     * @param clazz  The object class
+     * @param offset From where
+     * @param count  The number of items to retrieve, or {@code -1} for all
+     * @param <T>    Generic type of something
+     * @return The values list
+     * @since 26.10.16
+     */
+    <T> CompletionStage<List<T>> getFromList(final String key, final Class<T> clazz, final int offset, final int count);
+
+    /**
+     * Retrieves values from a list.
+     *
+     * @param key      The list key
+     * @param javaType The object java type
+     * @param offset   From where
+     * @param count    The number of items to retrieve, or {@code -1} for all
+     * @param <T>      Generic type of something
+     * @return The values list
+     * @since 26.10.16
+     */
+    <T> CompletionStage<List<T>> getFromList(final String key, final JavaType javaType, final int offset, final int count);
+
+    /**
+     * Try to acquire a lock. The lock and its TTL are set at once, so
+     * a dead owner can't leave a lock without expiration behind. The
+     * returned stage fails with an {@code IllegalArgumentException}
+     * if the expiration is negative.
+     *
+     * @param key        The lock key
+     * @param expiration The lock TTL in seconds, {@code 0} for a lock without expiration
+     * @return {@code true} in case of success, otherwise, {@code false}
+     * @since 26.10.16
+     */
+    CompletionStage<Boolean> tryLock(final String key, final int expiration);
+
+    /**
+     * Increment an integer value. It key does not exists, it will be
+     * created automatically.
+     *
+     * @param key        The value key
+     * @param expiration The value TTL, or {@code 0} to not expire
+     * @return The incremented value
+     * @since 26.10.16
+     */
+    CompletionStage<Long> increment(final String key, final int expiration);
+}
@@ -0,0 +1,971 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import akka.Done;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import play.Logger;
+import play.libs.Json;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Implementation of {@code PlayRedisAsync}. Commands are sent
+ * through the multiplexer. Values are decoded, and returned stages
+ * completed, on the executor: the callbacks chained by callers never
+ * run on, nor block, the connection threads.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @see PlayRedisAsync
+ * @since 26.10.16
+ */
+final class PlayRedisAsyncImpl implements PlayRedisAsync {
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(PlayRedisAsync.class);
+
+    /**
+     * The multiplexed connections.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMultiplexer multiplexer;
+
+    /**
+     * Topology of the Redis Cluster, if the cluster mode is enabled.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCluster cluster;
+
+    /**
+     * Registry of the available codecs.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCodecs codecs;
+
+    /**
+     * In-process cache in front of Redis.
+     *
+     * @since 26.10.16
+     */
+    private final NearCache nearCache;
+
+    /**
+     * Executor used to decode values.
+     *
+     * @since 26.10.16
+     */
+    private final Executor executor;
+
+    /**
+     * Concurrent reads of the same key waiting for a single round trip.
+     *
+     * @since 26.10.16
+     */
+    private final SingleFlight getFlights;
+
+    /**
+     * Concurrent loads of the same key waiting for a single computation.
+     *
+     * @since 26.10.16
+     */
+    private final SingleFlight loadFlights;
+
+    /**
+     * Leases coalescing the loads of the same key across all nodes.
+     *
+     * @since 26.10.16
+     */
+    private final RedisLease lease;
+
+    /**
+     * Stale-while-revalidate mode of getOrElse.
+     *
+     * @since 26.10.16
+     */
+    private final StaleWhileRevalidate staleWhileRevalidate;
+
+    /**
+     * Refresh-ahead mode of getOrElse.
+     *
+     * @since 26.10.16
+     */
+    private final RefreshAhead refreshAhead;
+
+    /**
+     * Generations of the key namespaces.
+     *
+     * @since 26.10.16
+     */
+    private final RedisNamespaces namespaces;
+
+    /**
+     * Maximum number of keys sent in a single bulk command.
+     *
+     * @since 26.10.16
+     */
+    private final int bulkChunkSize;
+
+    /**
+     * Are keys removed with UNLINK instead of DEL?
+     *
+     * @since 26.10.16
+     */
+    private final boolean removeUnlink;
+
+    /**
+     * Build a new instance.
+     *
+     * @param multiplexer   The multiplexed connections
+     * @param cluster       Topology of the Redis Cluster
+     * @param codecs        Registry of the available codecs
+     * @param nearCache     In-process cache in front of Redis
+     * @param executor      Executor used to decode values
+     * @param getFlights    Concurrent reads, shared with the blocking API
+     * @param loadFlights   Concurrent loads, shared with the blocking API
+     * @param lease         Leases coalescing the loads across all nodes
+     * @param swr           Stale-while-revalidate mode of getOrElse
+     * @param refreshAhead  Refresh-ahead mode of getOrElse
+     * @param namespaces    Generations of the key namespaces
+     * @param bulkChunkSize Maximum number of keys sent in a single bulk command
+     * @param removeUnlink  Are keys removed with UNLINK instead of DEL?
+     * @since 26.10.16
+     */
+    PlayRedisAsyncImpl(final RedisMultiplexer multiplexer, final RedisCluster cluster, final RedisCodecs codecs,
+                       final NearCache nearCache, final Executor executor, final SingleFlight getFlights, final SingleFlight loadFlights,
+                       final RedisLease lease, final StaleWhileRevalidate swr, final RefreshAhead refreshAhead,
+                       final RedisNamespaces namespaces, final int bulkChunkSize, final boolean removeUnlink) {
+        this.multiplexer = multiplexer;
+        this.cluster = cluster;
+        this.codecs = codecs;
+        this.nearCache = nearCache;
+        this.executor = executor;
+        this.getFlights = getFlights;
+        this.loadFlights = loadFlights;
+        this.lease = lease;
+        this.staleWhileRevalidate = swr;
+        this.refreshAhead = refreshAhead;
+        this.namespaces = namespaces;
+        this.bulkChunkSize = bulkChunkSize;
+        this.removeUnlink = removeUnlink;
+    }
+
+    /**
+     * Build a stage failed with the given exception.
+     *
+     * @param ex  The exception
+     * @param <T> Generic type of something
+     * @return A failed stage
+     * @since 26.10.16
+     */
+    private static <T> CompletableFuture<T> failedStage(final Throwable ex) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+
+    /**
+     * Get the Jackson type of the given type reference.
+     *
+     * @param typeReference The type reference
+     * @return The Jackson type
+     * @since 26.10.16
+     */
+    private JavaType javaTypeOf(final TypeReference<?> typeReference) {
+        return Json.mapper().getTypeFactory().constructType(typeReference);
+    }
+
+    /**
+     * Get the Jackson type of the given class.
+     *
+     * @param clazz The class
+     * @return The Jackson type
+     * @since 26.10.16
+     */
+    private JavaType javaTypeOf(final Class<?> clazz) {
+        return Json.mapper().getTypeFactory().constructType(clazz);
+    }
+
+    /**
+     * Decodes a value. Values which can't be read are logged and
+     * reported as missing, as the blocking API does.
+     *
+     * @param typedCodec The object typed codec
+     * @param key        The value key
+     * @param rawData    The value bytes, or {@code null}
+     * @param <T>        Generic type of something
+     * @return The value, or {@code null}
+     * @since 26.10.16
+     */
+    private <T> T decode(final TypedCodec typedCodec, final String key, final byte[] rawData) {
+        if (rawData == null) {
+            return null;
+        }
+        try {
+            return typedCodec.decode(rawData);
+        } catch (final IOException ex) {
+            PlayRedisAsyncImpl.LOG.error("Can't get object '{}'", key, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a value, keeping its soft expiration. Values which
+     * can't be read are logged and reported as missing.
+     *
+     * @param typedCodec The object typed codec
+     * @param key        The value key
+     * @param rawData    The value bytes, or {@code null}
+     * @param <T>        Generic type of something
+     * @return The value and its soft expiration, or {@code null}
+     * @since 26.10.16
+     */
+    private <T> RedisEnvelope<T> decodeEnvelope(final TypedCodec typedCodec, final String key, final byte[] rawData) {
+        if (rawData == null) {
+            return null;
+        }
+        try {
+            return typedCodec.decodeEnvelope(rawData);
+        } catch (final IOException ex) {
+            PlayRedisAsyncImpl.LOG.error("Can't get object '{}'", key, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public <T> CompletionStage<T> get(final String key, final TypeReference<T> typeReference) {
+        return this.get(key, this.javaTypeOf(typeReference));
+    }
+
+    @Override
+    public <T> CompletionStage<T> get(final String key, final Class<T> clazz) {
+        return this.get(key, this.javaTypeOf(clazz));
+    }
+
+    @Override
+    public <T> CompletionStage<T> get(final String key, final JavaType javaType) {
+        return this.<T>getEnvelope(key, javaType).thenApply(envelope -> envelope == null ? null : envelope.getValue());
+    }
+
+    /**
+     * Retrieves an object by key, with its envelope information.
+     * Concurrent calls for the same key and type share a single
+     * round trip. If the refresh-ahead mode is enabled, the key
+     * TTL is read in the same round trip. Objects coming from
+     * the near cache have no envelope information.
+     *
+     * @param key      Item key
+     * @param javaType The object type
+     * @param <T>      Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    private <T> CompletionStage<RedisEnvelope<T>> getEnvelope(final String key, final JavaType javaType) {
+        final TypedCodec typedCodec = this.codecs.forType(javaType);
+        final boolean isNearCached = this.nearCache.isCached(key);
+        if (isNearCached) {
+            final T object = this.nearCache.get(key, javaType);
+            if (object != null) {
+                return CompletableFuture.completedFuture(new RedisEnvelope<>(object));
+            }
+        }
+        return this.getFlights.executeAsync(new SingleFlight.Key(key, typedCodec, false), this.executor, () -> {
+            final long nearCacheGeneration = this.nearCache.getGeneration(key);
+            final byte[] rawKey = SafeEncoder.encode(key);
+            final BiFunction<byte[], Long, RedisEnvelope<T>> toEnvelope = (rawData, ttl) -> {
+                final RedisEnvelope<T> envelope = this.decodeEnvelope(typedCodec, key, rawData);
+                if (envelope == null) {
+                    return null;
+                }
+                if (isNearCached) {
+                    this.nearCache.put(key, javaType, envelope.getValue(), nearCacheGeneration);
+                }
+                return envelope.withTtl(ttl);
+            };
+            if (!this.refreshAhead.isEnabled()) {
+                return this.multiplexer.submit(key, pipeline -> pipeline.get(rawKey))
+                    .thenApplyAsync(rawData -> toEnvelope.apply(rawData, 0L), this.executor);
+            }
+
+            // The TTL is queued right after the value, so both replies are available once the TTL one is received
+            final AtomicReference<Response<byte[]>> rawDataResponse = new AtomicReference<>();
+            return this.multiplexer.submit(key, pipeline -> {
+                rawDataResponse.set(pipeline.get(rawKey));
+                return pipeline.pttl(rawKey);
+            }).thenApplyAsync(ttl -> toEnvelope.apply(rawDataResponse.get().get(), ttl), this.executor);
+        });
+    }
+
+    @Override
+    public <T> CompletionStage<Map<String, T>> getMany(final Collection<String> keys, final TypeReference<T> typeReference) {
+        return this.getMany(keys, this.javaTypeOf(typeReference));
+    }
+
+    @Override
+    public <T> CompletionStage<Map<String, T>> getMany(final Collection<String> keys, final Class<T> clazz) {
+        return this.getMany(keys, this.javaTypeOf(clazz));
+    }
+
+    @Override
+    public <T> CompletionStage<Map<String, T>> getMany(final Collection<String> keys, final JavaType javaType) {
+        final TypedCodec typedCodec = this.codecs.forType(javaType);
+        final Map<String, T> objects = new LinkedHashMap<>();
+        if (keys == null || keys.isEmpty()) {
+            return CompletableFuture.completedFuture(objects);
+        }
+        final List<String> uniqueKeys = new ArrayList<>();
+        final Map<String, Long> nearCacheGenerations = new HashMap<>();
+        for (final String key : new LinkedHashSet<>(keys)) {
+            final boolean isNearCached = this.nearCache.isCached(key);
+            final T object = isNearCached ? this.nearCache.get(key, javaType) : null;
+            if (object != null) {
+                objects.put(key, object);
+            } else {
+                if (isNearCached) {
+                    nearCacheGenerations.put(key, this.nearCache.getGeneration(key));
+                }
+                uniqueKeys.add(key);
+            }
+        }
+        if (uniqueKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(objects);
+        }
+        final List<List<String>> chunks = this.cluster.chunks(uniqueKeys, this.bulkChunkSize);
+        final List<CompletableFuture<List<byte[]>>> chunksData = new ArrayList<>();
+        for (final List<String> chunk : chunks) {
+            final byte[][] chunkKeys = PlayRedisAsyncImpl.encodeKeys(chunk);
+            chunksData.add(this.multiplexer.submit(chunk.get(0), pipeline -> pipeline.mget(chunkKeys)));
+        }
+        return CompletableFuture.allOf(chunksData.toArray(new CompletableFuture<?>[0]))
+            .thenApplyAsync(ignore -> {
+                for (int chunkIdx = 0; chunkIdx < chunks.size(); ++chunkIdx) {
+                    final List<String> chunk = chunks.get(chunkIdx);
+                    final List<byte[]> chunkData = chunksData.get(chunkIdx).join();
+                    for (int keyIdx = 0; keyIdx < chunk.size(); ++keyIdx) {
+                        final String key = chunk.get(keyIdx);
+                        final T object = this.decode(typedCodec, key, chunkData.get(keyIdx));
+                        if (object != null) {
+                            objects.put(key, object);
+                            final Long nearCacheGeneration = nearCacheGenerations.get(key);
+                            if (nearCacheGeneration != null) {
+                                this.nearCache.put(key, javaType, object, nearCacheGeneration);
+                            }
+                        }
+                    }
+                }
+                return objects;
+            }, this.executor);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> set(final String key, final TypeReference<T> typeReference, final T value) {
+        return this.set(key, typeReference, value, 0);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> set(final String key, final TypeReference<T> typeReference, final T value,
+                                         final int expiration) {
+        return this.set(key, this.javaTypeOf(typeReference), value, expiration);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> set(final String key, final Class<T> clazz, final T value) {
+        return this.set(key, clazz, value, 0);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> set(final String key, final Class<T> clazz, final T value, final int expiration) {
+        return this.set(key, this.javaTypeOf(clazz), value, expiration);
+    }
+
+    @Override
+    public CompletionStage<Done> set(final String key, final JavaType javaType, final Object value) {
+        return this.set(key, javaType, value, 0);
+    }
+
+    @Override
+    public CompletionStage<Done> set(final String key, final JavaType javaType, final Object value, final int expiration) {
+        return this.set(key, javaType, value, expiration, 0, 0);
+    }
+
+    /**
+     * Sets a value, with its envelope information.
+     *
+     * @param key           Item key
+     * @param javaType      The object type
+     * @param value         The value to set
+     * @param expiration    The expiration in seconds
+     * @param softExpiresAt Timestamp (in milliseconds) after which the value is stale, or {@code 0}
+     * @param computeTime   Time in milliseconds it took to compute the value, or {@code 0}
+     * @return Completed when the value is set
+     * @since 26.10.16
+     */
+    private CompletionStage<Done> set(final String key, final JavaType javaType, final Object value, final int expiration,
+                                      final long softExpiresAt, final int computeTime) {
+        final byte[] data;
+        try {
+            data = this.codecs.forType(javaType).encode(key, value, softExpiresAt, computeTime);
+        } catch (final IOException ex) {
+            return PlayRedisAsyncImpl.failedStage(ex);
+        }
+        final List<String> keys = Collections.singletonList(key);
+        return this.multiplexer.submit(key, pipeline -> {
+            final Response<String> response = expiration > 0
+                ? pipeline.set(SafeEncoder.encode(key), data, SetParams.setParams().ex(expiration))
+                : pipeline.set(SafeEncoder.encode(key), data);
+            this.nearCache.publishInvalidation(pipeline, keys);
+            return response;
+        }).thenApplyAsync(reply -> {
+            this.nearCache.evict(keys);
+            return Done.done();
+        }, this.executor);
+    }
+
+    @Override
+    public <T> CompletionStage<Set<String>> setMany(final Map<String, T> values, final TypeReference<T> typeReference,
+                                                    final int expiration) {
+        return this.setMany(values, this.javaTypeOf(typeReference), expiration);
+    }
+
+    @Override
+    public <T> CompletionStage<Set<String>> setMany(final Map<String, T> values, final Class<T> clazz, final int expiration) {
+        return this.setMany(values, this.javaTypeOf(clazz), expiration);
+    }
+
+    @Override
+    public CompletionStage<Set<String>> setMany(final Map<String, ?> values, final JavaType javaType, final int expiration) {
+        final Set<String> failedKeys = Collections.synchronizedSet(new HashSet<>());
+        if (values == null || values.isEmpty()) {
+            return CompletableFuture.completedFuture(failedKeys);
+        }
+
+        // Each value is sent as its own command, the multiplexer pipelines them anyway
+        final List<CompletableFuture<Done>> futures = new ArrayList<>();
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            futures.add(
+                this.set(entry.getKey(), javaType, entry.getValue(), expiration)
+                    .toCompletableFuture()
+                    .whenComplete((done, ex) -> {
+                        if (ex != null) {
+                            PlayRedisAsyncImpl.LOG.error("Can't set object '{}'", entry.getKey(), ex);
+                            failedKeys.add(entry.getKey());
+                        }
+                    })
+            );
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+            .handle((ignore, ex) -> failedKeys);
+    }
+
+    @Override
+    public <T> CompletionStage<T> getOrElse(final String key, final TypeReference<T> typeReference,
+                                            final Callable<CompletionStage<T>> block, final int expiration) {
+        return this.getOrElse(key, this.javaTypeOf(typeReference), block, expiration);
+    }
+
+    @Override
+    public <T> CompletionStage<T> getOrElse(final String key, final Class<T> clazz,
+                                            final Callable<CompletionStage<T>> block, final int expiration) {
+        return this.getOrElse(key, this.javaTypeOf(clazz), block, expiration);
+    }
+
+    @Override
+    public <T> CompletionStage<T> getOrElse(final String key, final JavaType javaType,
+                                            final Callable<CompletionStage<T>> block, final int expiration) {
+        final SingleFlight.Key flightKey = new SingleFlight.Key(key, this.codecs.forType(javaType), false);
+        return this.<T>getEnvelope(key, javaType).thenCompose(cached -> {
+            if (cached != null && cached.getValue() != null) {
+                if (this.staleWhileRevalidate.isStale(cached) || this.refreshAhead.shouldRefresh(cached)) {
+                    this.staleWhileRevalidate.refreshInBackground(key, () -> this.refresh(key, javaType, block, expiration));
+                }
+                return CompletableFuture.completedFuture(cached.getValue());
+            }
+            return this.loadFlights.executeAsync(flightKey, this.executor, () -> this.<T>get(key, javaType).thenCompose(object -> {
+                // Another flight may have just loaded the value
+                if (object != null) {
+                    return CompletableFuture.completedFuture(object);
+                }
+                return this.lease.isEnabled()
+                    ? this.loadWithLease(key, javaType, block, expiration, this.lease.newToken(), this.lease.getDeadline())
+                    : this.load(key, javaType, block, expiration);
+            }));
+        });
+    }
+
+    /**
+     * Compute a value and store it.
+     *
+     * @param key        Item key
+     * @param javaType   The object type
+     * @param block      Block returning value to set
+     * @param expiration The expiration in seconds
+     * @param <T>        Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    private <T> CompletionStage<T> load(final String key, final JavaType javaType,
+                                        final Callable<CompletionStage<T>> block, final int expiration) {
+        final long startedAt = System.nanoTime();
+        final CompletionStage<T> blockStage;
+        try {
+            blockStage = block.call();
+        } catch (final Exception ex) {
+            return PlayRedisAsyncImpl.failedStage(ex);
+        }
+        return blockStage.thenCompose(value -> value == null
+            ? CompletableFuture.completedFuture(null)
+            : this.set(
+                key,
+                javaType,
+                value,
+                this.staleWhileRevalidate.hardExpiration(expiration),
+                this.staleWhileRevalidate.softExpiresAt(expiration),
+                expiration > 0 ? this.refreshAhead.computeTime(startedAt) : 0
+            ).thenApply(done -> value));
+    }
+
+    /**
+     * Compute a value again before it expires and store it. If leases are
+     * enabled, nothing is done when another node holds the lease.
+     *
+     * @param key        Item key
+     * @param javaType   The object type
+     * @param block      Block returning value to set
+     * @param expiration The expiration in seconds
+     * @param <T>        Generic type of something
+     * @return Completed when the value is stored
+     * @since 26.10.16
+     */
+    private <T> CompletionStage<T> refresh(final String key, final JavaType javaType,
+                                           final Callable<CompletionStage<T>> block, final int expiration) {
+        if (!this.lease.isEnabled()) {
+            return this.load(key, javaType, block, expiration);
+        }
+        final String token = this.lease.newToken();
+        return this.lease.tryAcquire(this.multiplexer, key, token).thenComposeAsync(acquired -> acquired
+            ? this.load(key, javaType, block, expiration).whenComplete((value, ex) -> this.lease.release(this.multiplexer, key, token))
+            : CompletableFuture.completedFuture(null), this.executor);
+    }
+
+    /**
+     * Compute a value and store it, once across all nodes. The node
+     * taking the lease computes the value, the other ones wait for
+     * the lease release, then read the value. If the lease is not
+     * released in time, the value is computed without lease.
+     *
+     * @param key        Item key
+     * @param javaType   The object type
+     * @param block      Block returning value to set
+     * @param expiration The expiration in seconds
+     * @param token      The token identifying this caller as lease holder
+     * @param deadline   Timestamp (in milliseconds) after which the value is computed without lease
+     * @param <T>        Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    private <T> CompletionStage<T> loadWithLease(final String key, final JavaType javaType,
+                                                 final Callable<CompletionStage<T>> block, final int expiration,
+                                                 final String token, final long deadline) {
+        final CompletableFuture<Void> released = this.lease.released(key);
+        return this.lease.tryAcquire(this.multiplexer, key, token).thenComposeAsync(acquired -> {
+            if (acquired) {
+                return this.load(key, javaType, block, expiration)
+                    .whenComplete((value, ex) -> this.lease.release(this.multiplexer, key, token));
+            }
+            return this.<T>get(key, javaType).thenCompose(object -> {
+                if (object != null) {
+                    return CompletableFuture.completedFuture(object);
+                }
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this.lease.timedOut(key);
+                    return this.load(key, javaType, block, expiration);
+                }
+                return this.lease.awaitAsync(key, released, remaining)
+                    .thenCompose(ignore -> this.loadWithLease(key, javaType, block, expiration, token, deadline));
+            });
+        }, this.executor);
+    }
+
+    @Override
+    public CompletionStage<Long> remove(final String... keys) {
+        return this.remove(Arrays.asList(keys));
+    }
+
+    @Override
+    public CompletionStage<Long> remove(final Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        final List<String> uniqueKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+        final List<CompletableFuture<Long>> chunks = new ArrayList<>();
+        for (final List<String> chunk : this.cluster.chunks(uniqueKeys, this.bulkChunkSize)) {
+            final byte[][] chunkKeys = PlayRedisAsyncImpl.encodeKeys(chunk);
+            chunks.add(this.multiplexer.submit(chunk.get(0), pipeline -> {
+                final Response<Long> response = this.removeUnlink ? pipeline.unlink(chunkKeys) : pipeline.del(chunkKeys);
+                this.nearCache.publishInvalidation(pipeline, chunk);
+                return response;
+            }));
+        }
+        return PlayRedisAsyncImpl.sum(chunks).thenApplyAsync(removed -> {
+            this.nearCache.evict(uniqueKeys);
+            return removed;
+        }, this.executor);
+    }
+
+    @Override
+    public CompletionStage<Long> removeByPrefix(final String keyPrefix) {
+        return this.removeByPrefix(keyPrefix, key -> true);
+    }
+
+    /**
+     * Removes the keys starting with the given prefix and matching
+     * the given filter.
+     *
+     * @param keyPrefix The key prefix
+     * @param filter    Tells if a scanned key must be removed
+     * @return The number of removed keys
+     * @since 26.10.16
+     */
+    CompletionStage<Long> removeByPrefix(final String keyPrefix, final Predicate<String> filter) {
+        final ScanParams scanParams = new ScanParams()
+            .match(PlayRedisImpl.escapeGlob(keyPrefix) + "*")
+            .count(this.bulkChunkSize);
+        final List<CompletableFuture<Long>> results = new ArrayList<>();
+        if (this.cluster.isEnabled()) {
+            // Each master only scans its own keys
+            for (final HostAndPort master : this.cluster.getMasters()) {
+                final CompletableFuture<Long> result = new CompletableFuture<>();
+                final Function<byte[], CompletableFuture<Object>> scanner = cursor -> this.multiplexer.submitTo(
+                    master,
+                    pipeline -> PlayRedisAsyncImpl.scan(pipeline, cursor, scanParams)
+                );
+                this.removeScanned(keyPrefix, filter, scanner, scanner.apply(ScanParams.SCAN_POINTER_START_BINARY), 0, result);
+                results.add(result);
+            }
+        } else {
+            final CompletableFuture<Long> result = new CompletableFuture<>();
+            final Function<byte[], CompletableFuture<Object>> scanner = cursor -> this.multiplexer.submit(
+                pipeline -> PlayRedisAsyncImpl.scan(pipeline, cursor, scanParams)
+            );
+            this.removeScanned(keyPrefix, filter, scanner, scanner.apply(ScanParams.SCAN_POINTER_START_BINARY), 0, result);
+            results.add(result);
+        }
+        return PlayRedisAsyncImpl.sum(results).thenApplyAsync(removed -> {
+            PlayRedisAsyncImpl.LOG.info("{} keys removed with prefix '{}'", removed, keyPrefix);
+            return removed;
+        }, this.executor);
+    }
+
+    /**
+     * Adds a SCAN command to a pipeline. Pipelines don't expose SCAN,
+     * so the raw command is sent.
+     *
+     * @param pipeline   The pipeline
+     * @param cursor     The cursor
+     * @param scanParams The SCAN parameters
+     * @return The raw SCAN reply
+     * @since 26.10.16
+     */
+    private static Response<Object> scan(final Pipeline pipeline, final byte[] cursor, final ScanParams scanParams) {
+        final List<byte[]> args = new ArrayList<>();
+        args.add(cursor);
+        args.addAll(scanParams.getParams());
+        return pipeline.sendCommand(Protocol.Command.SCAN, args.toArray(new byte[0][]));
+    }
+
+    /**
+     * Sum the counts of many futures.
+     *
+     * @param counts The futures
+     * @return A future completed with the sum of the counts
+     * @since 26.10.16
+     */
+    private static CompletableFuture<Long> sum(final List<CompletableFuture<Long>> counts) {
+        return CompletableFuture.allOf(counts.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignore -> {
+                long total = 0;
+                for (final CompletableFuture<Long> count : counts) {
+                    total += count.join();
+                }
+                return total;
+            });
+    }
+
+    /**
+     * Encode keys.
+     *
+     * @param keys The keys
+     * @return The encoded keys
+     * @since 26.10.16
+     */
+    private static byte[][] encodeKeys(final List<String> keys) {
+        final byte[][] rawKeys = new byte[keys.size()][];
+        for (int idx = 0; idx < rawKeys.length; ++idx) {
+            rawKeys[idx] = SafeEncoder.encode(keys.get(idx));
+        }
+        return rawKeys;
+    }
+
+    /**
+     * Removes the keys of a SCAN reply, and goes on with the next
+     * cursor. The next SCAN is sent along with the UNLINK of the
+     * current keys, and the result is completed once the whole
+     * key space has been scanned.
+     *
+     * @param keyPrefix The key prefix
+     * @param filter    Tells if a scanned key must be removed
+     * @param scanner   Sends the SCAN of a cursor
+     * @param scan      The pending SCAN
+     * @param removed   The number of keys removed so far
+     * @param result    The future to complete with the number of removed keys
+     * @since 26.10.16
+     */
+    @SuppressWarnings("unchecked")
+    private void removeScanned(final String keyPrefix, final Predicate<String> filter,
+                               final Function<byte[], CompletableFuture<Object>> scanner,
+                               final CompletableFuture<Object> scan, final long removed,
+                               final CompletableFuture<Long> result) {
+        scan.whenComplete((reply, scanEx) -> {
+            if (scanEx != null) {
+                result.completeExceptionally(scanEx);
+                return;
+            }
+            final List<Object> scanReply = (List<Object>) reply;
+            final byte[] cursor = (byte[]) scanReply.get(0);
+            final List<byte[]> rawKeys = (List<byte[]>) scanReply.get(1);
+            final List<String> keys = new ArrayList<>(rawKeys.size());
+            for (final byte[] rawKey : rawKeys) {
+                final String key = SafeEncoder.encode(rawKey);
+                if (filter.test(key)) {
+                    keys.add(key);
+                }
+            }
+            final CompletableFuture<Long> unlinked;
+            if (keys.isEmpty()) {
+                unlinked = CompletableFuture.completedFuture(0L);
+            } else {
+                final List<CompletableFuture<Long>> chunks = new ArrayList<>();
+                for (final List<String> chunk : this.cluster.chunks(keys, this.bulkChunkSize)) {
+                    final byte[][] chunkKeys = PlayRedisAsyncImpl.encodeKeys(chunk);
+                    chunks.add(this.multiplexer.submit(chunk.get(0), pipeline -> {
+                        final Response<Long> response = pipeline.unlink(chunkKeys);
+                        this.nearCache.publishInvalidation(pipeline, chunk);
+                        return response;
+                    }));
+                }
+                unlinked = PlayRedisAsyncImpl.sum(chunks).thenApply(count -> {
+                    this.nearCache.evict(keys);
+                    return count;
+                });
+            }
+            final boolean done = ScanParams.SCAN_POINTER_START.equals(SafeEncoder.encode(cursor));
+            final CompletableFuture<Object> nextScan = done ? null : scanner.apply(cursor);
+            unlinked.whenComplete((count, unlinkEx) -> {
+                if (unlinkEx != null) {
+                    result.completeExceptionally(unlinkEx);
+                } else if (done) {
+                    result.complete(removed + count);
+                } else {
+                    PlayRedisAsyncImpl.LOG.debug("{} keys removed so far with prefix '{}'", removed + count, keyPrefix);
+                    this.removeScanned(keyPrefix, filter, scanner, nextScan, removed + count, result);
+                }
+            });
+        });
+    }
+
+    @Override
+    public CompletionStage<String> namespacedKey(final String namespace, final String key) {
+        final Long generation = this.namespaces.cached(namespace);
+        if (generation != null) {
+            return CompletableFuture.completedFuture(this.namespaces.prefix(namespace, generation) + key);
+        }
+        final String counterKey = this.namespaces.counterKey(namespace);
+        return this.multiplexer.submit(counterKey, pipeline -> pipeline.get(counterKey))
+            .thenApplyAsync(rawValue -> this.namespaces.prefix(namespace, this.namespaces.update(namespace, rawValue)) + key, this.executor);
+    }
+
+    @Override
+    public CompletionStage<Long> invalidateNamespace(final String namespace) {
+        final String counterKey = this.namespaces.counterKey(namespace);
+        return this.multiplexer.submit(counterKey, pipeline -> pipeline.incr(counterKey))
+            .thenApplyAsync(generation -> {
+                this.namespaces.invalidated(namespace, generation, this::removeByPrefix);
+                return generation;
+            }, this.executor);
+    }
+
+    @Override
+    public CompletionStage<Boolean> exists(final String key) {
+        return this.multiplexer.submit(key, pipeline -> pipeline.exists(key)).thenApplyAsync(exists -> exists, this.executor);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> addInList(final String key, final TypeReference<T> typeReference, final Object value) {
+        return this.addInList(key, this.javaTypeOf(typeReference), value);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> addInList(final String key, final TypeReference<T> typeReference, final Object value,
+                                               final int maxItem) {
+        return this.addInList(key, this.javaTypeOf(typeReference), value, maxItem);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> addInList(final String key, final Class<T> clazz, final T value) {
+        return this.addInList(key, this.javaTypeOf(clazz), value);
+    }
+
+    @Override
+    public <T> CompletionStage<Done> addInList(final String key, final Class<T> clazz, final T value, final int maxItem) {
+        return this.addInList(key, this.javaTypeOf(clazz), value, maxItem);
+    }
+
+    @Override
+    public CompletionStage<Done> addInList(final String key, final JavaType javaType, final Object value) {
+        final byte[] data;
+        try {
+            data = this.codecs.forType(javaType).encode(key, value);
+        } catch (final IOException ex) {
+            return PlayRedisAsyncImpl.failedStage(ex);
+        }
+        return this.multiplexer.submit(key, pipeline -> pipeline.lpush(SafeEncoder.encode(key), data))
+            .thenApplyAsync(reply -> Done.done(), this.executor);
+    }
+
+    @Override
+    public CompletionStage<Done> addInList(final String key, final JavaType javaType, final Object value, final int maxItem) {
+        final byte[] data;
+        try {
+            data = this.codecs.forType(javaType).encode(key, value);
+        } catch (final IOException ex) {
+            return PlayRedisAsyncImpl.failedStage(ex);
+        }
+        return this.multiplexer.submit(key, pipeline -> PlayRedisImpl.SCRIPT_LPUSH_LTRIM.evalBinary(
+            pipeline,
+            Collections.singletonList(SafeEncoder.encode(key)),
+            Arrays.asList(data, SafeEncoder.encode(String.valueOf(maxItem > 0 ? maxItem - 1 : maxItem)))
+        )).thenApplyAsync(reply -> Done.done(), this.executor);
+    }
+
+    @Override
+    public <T> CompletionStage<List<T>> getFromList(final String key, final TypeReference<T> typeReference,
+                                                    final int offset, final int count) {
+        return this.getFromList(key, this.javaTypeOf(typeReference), offset, count);
+    }
+
+    @Override
+    public <T> CompletionStage<List<T>> getFromList(final String key, final Class<T> clazz, final int offset, final int count) {
+        return this.getFromList(key, this.javaTypeOf(clazz), offset, count);
+    }
+
+    @Override
+    public <T> CompletionStage<List<T>> getFromList(final String key, final JavaType javaType, final int offset, final int count) {
+        final TypedCodec typedCodec = this.codecs.forType(javaType);
+        return this.multiplexer.submit(key, pipeline -> pipeline.lrange(SafeEncoder.encode(key), offset, count > 0 ? count - 1 : count))
+            .thenApplyAsync(rawData -> {
+                final List<T> objects = new ArrayList<>();
+                if (rawData != null) {
+                    for (final byte[] data : rawData) {
+                        final T object = this.decode(typedCodec, key, data);
+                        if (object != null) {
+                            objects.add(object);
+                        }
+                    }
+                }
+                return objects;
+            }, this.executor);
+    }
+
+    @Override
+    public CompletionStage<Boolean> tryLock(final String key, final int expiration) {
+        if (expiration < 0) {
+            return PlayRedisAsyncImpl.failedStage(new IllegalArgumentException("The lock expiration can't be negative"));
+        }
+        final SetParams params = expiration > 0 ? SetParams.setParams().nx().ex(expiration) : SetParams.setParams().nx();
+        return this.multiplexer.submit(key, pipeline -> pipeline.set(key, "1", params))
+            .thenApplyAsync("OK"::equals, this.executor);
+    }
+
+    @Override
+    public CompletionStage<Long> increment(final String key, final int expiration) {
+        final List<String> keys = Collections.singletonList(key);
+        final CompletableFuture<Long> future;
+        if (expiration > 0) {
+            future = this.multiplexer.submit(key, pipeline -> {
+                final Response<Object> response = PlayRedisImpl.SCRIPT_INCR_EXPIRE.eval(
+                    pipeline,
+                    keys,
+                    Collections.singletonList(String.valueOf(expiration))
+                );
+                this.nearCache.publishInvalidation(pipeline, keys);
+                return response;
+            }).thenApply(reply -> (Long) reply);
+        } else {
+            future = this.multiplexer.submit(key, pipeline -> {
+                final Response<Long> response = pipeline.incr(key);
+                this.nearCache.publishInvalidation(pipeline, keys);
+                return response;
+            });
+        }
+        return future.thenApplyAsync(value -> {
+            this.nearCache.evict(keys);
+            return value;
+        }, this.executor);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Provides the asynchronous API of the injected {@link PlayRedis}
+ * instance, so both share the same codecs, near cache and metrics.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @see PlayRedisAsync
+ * @since 26.10.16
+ */
+@Singleton
+public class PlayRedisAsyncProvider implements Provider<PlayRedisAsync> {
+
+    /**
+     * The {@link PlayRedis} injected implementation.
+     *
+     * @since 26.10.16
+     */
+    private final PlayRedis playRedis;
+
+    /**
+     * Build a new instance.
+     *
+     * @param playRedis The {@link PlayRedis} injected implementation
+     * @since 26.10.16
+     */
+    @Inject
+    public PlayRedisAsyncProvider(final PlayRedis playRedis) {
+        this.playRedis = playRedis;
+    }
+
+    @Override
+    public PlayRedisAsync get() {
+        return this.playRedis.async();
+    }
+}
@@ -25,40 +25,86 @@ package com.zero_x_baadf00d.play.module.redis;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
 import play.Logger;
 import play.inject.ApplicationLifecycle;
 import play.libs.Json;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Implementation of {@code PlayRedis}.
  *
  * @author Thibault Meyer
  * @author Pierre Adam
- * @version 20.06.09
+ * @version 26.10.16
  * @see PlayRedis
  * @since 16.03.09
  */
 @Singleton
 public class PlayRedisImpl implements PlayRedis {
 
+    /**
+     * Increments a counter and sets its expiration when
+     * the counter has just been created.
+     *
+     * @since 26.10.16
+     */
+    static final RedisScript SCRIPT_INCR_EXPIRE = new RedisScript(
+        "local value = redis.call('INCR', KEYS[1]) "
+            + "if value == 1 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end "
+            + "return value"
+    );
+
+    /**
+     * Adds a value at the head of a list, then trims
+     * the list to the given number of entries.
+     *
+     * @since 26.10.16
+     */
+    static final RedisScript SCRIPT_LPUSH_LTRIM = new RedisScript(
+        "redis.call('LPUSH', KEYS[1], ARGV[1]) "
+            + "return redis.call('LTRIM', KEYS[1], 0, ARGV[2])"
+    );
+
     /**
      * Logger instance.
      *
@@ -116,6 +162,26 @@ public class PlayRedisImpl implements PlayRedis {
      */
     private static final String REDISPOOL_SERVER_CONN_MINIDLE = "redis.conn.minidle";
 
+    /**
+     * @since 26.10.16
+     */
+    private static final String REDISPOOL_SERVER_CONN_STRIPES = "redis.conn.stripes";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REDISPOOL_SERVER_BULK_CHUNK_SIZE = "redis.bulk-chunk-size";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REDISPOOL_SERVER_REMOVE_MODE = "redis.remove-mode";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REDISPOOL_SERVER_CODEC_WARMUP = "redis.codec.warmup";
+
     /**
      * The database number to use by default.
      *
@@ -173,6 +239,13 @@ public class PlayRedisImpl implements PlayRedis {
      */
     private final Integer redisConnMinIdle;
 
+    /**
+     * Number of stripes each connections pool is split in.
+     *
+     * @since 26.10.16
+     */
+    private final int redisConnStripes;
+
     /**
      * Redis server authentication password.
      *
@@ -181,11 +254,151 @@ public class PlayRedisImpl implements PlayRedis {
     private final String redisPassword;
 
     /**
-     * The Redis connections pool.
+     * Maximum number of keys sent in a single bulk command.
+     *
+     * @since 26.10.16
+     */
+    private final Integer redisBulkChunkSize;
+
+    /**
+     * Are keys removed with UNLINK instead of DEL?
+     *
+     * @since 26.10.16
+     */
+    private final boolean redisRemoveUnlink;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * In-process cache in front of Redis.
+     *
+     * @since 26.10.16
+     */
+    private final NearCache nearCache;
+
+    /**
+     * Executor dedicated to blocking calls made on behalf of asynchronous code.
+     *
+     * @since 26.10.16
+     */
+    private final RedisExecutor executor;
+
+    /**
+     * Concurrent reads of the same key waiting for a single round trip.
+     *
+     * @since 26.10.16
+     */
+    private final SingleFlight getFlights;
+
+    /**
+     * Concurrent loads of the same key waiting for a single computation.
+     *
+     * @since 26.10.16
+     */
+    private final SingleFlight loadFlights;
+
+    /**
+     * Leases coalescing the loads of the same key across all nodes.
+     *
+     * @since 26.10.16
+     */
+    private final RedisLease lease;
+
+    /**
+     * Stale-while-revalidate mode of getOrElse.
+     *
+     * @since 26.10.16
+     */
+    private final StaleWhileRevalidate staleWhileRevalidate;
+
+    /**
+     * Refresh-ahead mode of getOrElse.
+     *
+     * @since 26.10.16
+     */
+    private final RefreshAhead refreshAhead;
+
+    /**
+     * Generations of the key namespaces.
+     *
+     * @since 26.10.16
+     */
+    private final RedisNamespaces namespaces;
+
+    /**
+     * Codecs used to convert values to bytes.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCodecs codecs;
+
+    /**
+     * Topology of the Redis Cluster, if the cluster mode is enabled.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCluster cluster;
+
+    /**
+     * Master followed through the sentinels, if the sentinel mode is enabled.
+     *
+     * @since 26.10.16
+     */
+    private final RedisSentinel sentinel;
+
+    /**
+     * Read replicas serving the read-only operations.
+     *
+     * @since 26.10.16
+     */
+    private final RedisReplicas replicas;
+
+    /**
+     * Hedging of the reads sent to replicas.
+     *
+     * @since 26.10.16
+     */
+    private final RedisHedging hedging;
+
+    /**
+     * Are the reads of the current thread sent to the master only?
+     *
+     * @since 26.10.16
+     */
+    private final ThreadLocal<Boolean> masterReads;
+
+    /**
+     * Connections shared by the asynchronous API.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMultiplexer multiplexer;
+
+    /**
+     * The asynchronous API.
+     *
+     * @since 26.10.16
+     */
+    private final PlayRedisAsyncImpl playRedisAsync;
+
+    /**
+     * The Redis connections pools, one per database.
      *
      * @since 16.03.09
      */
-    private JedisPool redisPool;
+    private final RedisPools redisPools;
+
+    /**
+     * Guards the pools reset and the master switches.
+     *
+     * @since 26.10.16
+     */
+    private final Object connectLock;
 
     /**
      * Timestamp (in milliseconds) when the connections pool when the
@@ -227,8 +440,107 @@ public class PlayRedisImpl implements PlayRedis {
         this.redisConnTotal = configuration.getInt(PlayRedisImpl.REDISPOOL_SERVER_CONN_TOTAL);
         this.redisConnMaxIdle = configuration.getInt(PlayRedisImpl.REDISPOOL_SERVER_CONN_MAXIDLE);
         this.redisConnMinIdle = configuration.getInt(PlayRedisImpl.REDISPOOL_SERVER_CONN_MINIDLE);
+        this.redisConnStripes = configuration.getInt(PlayRedisImpl.REDISPOOL_SERVER_CONN_STRIPES);
+        this.redisBulkChunkSize = configuration.getInt(PlayRedisImpl.REDISPOOL_SERVER_BULK_CHUNK_SIZE);
+        this.redisRemoveUnlink = "unlink".equals(configuration.getString(PlayRedisImpl.REDISPOOL_SERVER_REMOVE_MODE));
+
+        this.checkConfiguration(configuration);
+        this.connectLock = new Object();
+        this.redisPools = new RedisPools(
+            this.redisDefaultDb,
+            this.redisConnTimeout,
+            this.redisPassword,
+            this.redisConnTotal,
+            this.redisConnMaxIdle,
+            this.redisConnMinIdle,
+            this.redisConnStripes
+        );
+
+        // Initialize codecs and the near cache
+        this.metrics = new RedisMetrics();
+        this.cluster = new RedisCluster(configuration, this.metrics);
+        if (this.cluster.isEnabled() && this.redisDefaultDb != 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                PlayRedisImpl.REDISPOOL_SERVER_DB_DEFAULT,
+                "Must be 0 in cluster mode"
+            );
+        }
+        this.sentinel = new RedisSentinel(configuration, this.redisConnTimeout, this.metrics);
+        if (this.cluster.isEnabled() && this.sentinel.isEnabled()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisSentinel.SENTINEL_MASTER,
+                "Cannot be used in cluster mode"
+            );
+        }
+        this.replicas = new RedisReplicas(configuration, this.metrics);
+        this.masterReads = new ThreadLocal<>();
+        if (this.cluster.isEnabled() && this.replicas.isEnabled()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisReplicas.REPLICAS_READ_PREFERENCE,
+                "Must be \"master\" in cluster mode"
+            );
+        }
+        this.codecs = new RedisCodecs(configuration, this.metrics);
+        this.warmUpCodecs(configuration);
+        this.nearCache = new NearCache(configuration, this.metrics);
+        this.executor = new RedisExecutor(configuration, this.metrics);
+        this.hedging = new RedisHedging(configuration, this.executor, this.metrics);
+        this.getFlights = new SingleFlight(configuration, this.metrics);
+        this.loadFlights = new SingleFlight(configuration, this.metrics);
+        this.lease = new RedisLease(configuration, this.metrics);
+        this.staleWhileRevalidate = new StaleWhileRevalidate(configuration, this.executor, this.metrics);
+        this.refreshAhead = new RefreshAhead(configuration, this.metrics);
+        this.namespaces = new RedisNamespaces(configuration, this.metrics);
+
+        // Initialize the asynchronous API
+        this.multiplexer = new RedisMultiplexer(
+            configuration,
+            this::createMultiplexedConnection,
+            node -> this.redisPools.openMultiplexedConnection(node, 0),
+            this.cluster,
+            this.metrics
+        );
+        this.playRedisAsync = new PlayRedisAsyncImpl(
+            this.multiplexer,
+            this.cluster,
+            this.codecs,
+            this.nearCache,
+            this.executor,
+            this.getFlights,
+            this.loadFlights,
+            this.lease,
+            this.staleWhileRevalidate,
+            this.refreshAhead,
+            this.namespaces,
+            this.redisBulkChunkSize,
+            this.redisRemoveUnlink
+        );
+
+        // Initialize the connections pool
+        this.resetConnectionsPool();
+        this.cluster.start();
+        this.sentinel.start(master -> this.switchMaster(), this.redisReinitPoolCooldown);
+        this.replicas.start(node -> this.redisPools.createPool(node, this.redisDefaultDb), this::getConnection);
+        this.codecs.getCompression().start(this::getDictionaryConnection);
+        this.nearCache.start(() -> this.createDedicatedConnection(0), this.redisReinitPoolCooldown);
+        this.lease.start(() -> this.createDedicatedConnection(0), this.redisReinitPoolCooldown);
+
+        // Add stop hook
+        if (lifecycle != null) {
+            lifecycle.addStopHook(this::stopHook);
+        }
+    }
 
-        // Check configuration
+    /**
+     * Check the configuration values read by the constructor.
+     *
+     * @param configuration The current application configuration
+     * @since 26.10.16
+     */
+    private void checkConfiguration(final Config configuration) {
         if (this.redisHost.isEmpty()) {
             throw new ConfigException.BadValue(
                 configuration.origin(),
@@ -292,13 +604,49 @@ public class PlayRedisImpl implements PlayRedis {
                 "Cannot be greater than " + this.redisConnTotal
             );
         }
+        if (this.redisConnStripes < 1 || this.redisConnStripes > this.redisConnTotal) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                PlayRedisImpl.REDISPOOL_SERVER_CONN_STRIPES,
+                "Must be between 1 and " + this.redisConnTotal
+            );
+        }
+        if (this.redisBulkChunkSize < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                PlayRedisImpl.REDISPOOL_SERVER_BULK_CHUNK_SIZE,
+                "Must be equal or greater than 1"
+            );
+        }
+        final String removeMode = configuration.getString(PlayRedisImpl.REDISPOOL_SERVER_REMOVE_MODE);
+        if (!"del".equals(removeMode) && !"unlink".equals(removeMode)) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                PlayRedisImpl.REDISPOOL_SERVER_REMOVE_MODE,
+                "Must be \"del\" or \"unlink\""
+            );
+        }
+    }
 
-        // Initialize the connections pool
-        this.resetConnectionsPool();
-
-        // Add stop hook
-        if (lifecycle != null) {
-            lifecycle.addStopHook(this::stopHook);
+    /**
+     * Warm up the codecs of the classes listed in the configuration.
+     *
+     * @param configuration The current application configuration
+     * @since 26.10.16
+     */
+    private void warmUpCodecs(final Config configuration) {
+        for (final String className : configuration.getStringList(PlayRedisImpl.REDISPOOL_SERVER_CODEC_WARMUP)) {
+            try {
+                final Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+                this.codecs.forType(this.javaTypeOf(clazz)).warmUp();
+            } catch (final ClassNotFoundException ex) {
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    PlayRedisImpl.REDISPOOL_SERVER_CODEC_WARMUP,
+                    "Unknown class '" + className + "'",
+                    ex
+                );
+            }
         }
     }
 
@@ -326,39 +674,93 @@ public class PlayRedisImpl implements PlayRedis {
      */
     @Override
     public void resetConnectionsPool() {
-        synchronized (PlayRedisImpl.class) {
+        synchronized (this.connectLock) {
             if (this.canResetConnectionsPool()) {
-                if (this.redisPool != null && !this.redisPool.isClosed()) {
-                    this.redisPool.close();
+                if (this.cluster.isEnabled()) {
+                    this.cluster.reset(node -> this.redisPools.createPool(node, 0));
+                    PlayRedisImpl.LOG.info("Redis cluster connected at {}", this.cluster.getMasters());
+                    return;
                 }
-                final JedisPoolConfig poolConfig = new JedisPoolConfig();
-                poolConfig.setMinIdle(this.redisConnMinIdle);
-                poolConfig.setMaxIdle(this.redisConnMaxIdle);
-                poolConfig.setMaxTotal(this.redisConnTotal);
-                if (this.redisPassword != null && !this.redisPassword.isEmpty()) {
-                    this.redisPool = new JedisPool(
-                        poolConfig,
-                        this.redisHost,
-                        this.redisPort,
-                        this.redisConnTimeout,
-                        this.redisPassword
-                    );
-                } else {
-                    this.redisPool = new JedisPool(
-                        poolConfig,
-                        this.redisHost,
-                        this.redisPort,
-                        this.redisConnTimeout
-                    );
+                if (this.sentinel.isEnabled()) {
+                    try {
+                        this.sentinel.discover();
+                    } catch (final JedisConnectionException ex) {
+                        // The pool is swapped as soon as a sentinel gives the master
+                        PlayRedisImpl.LOG.error("Can't discover Redis master, using {}: {}", this.currentNode(), ex.getMessage());
+                    }
                 }
-                PlayRedisImpl.LOG.info(
-                    "Redis connected at {}",
-                    String.format("redis://%s:%d", this.redisHost, this.redisPort)
-                );
+                // The master may have changed: the asynchronous connections must follow it too
+                this.connectMaster(this.currentNode());
             }
         }
     }
 
+    /**
+     * Use the new master announced by the sentinels. Switches may be
+     * applied concurrently, so the latest master known to the
+     * sentinels is used, whatever the announced one.
+     *
+     * @since 26.10.16
+     */
+    private void switchMaster() {
+        synchronized (this.connectLock) {
+            this.connectMaster(this.currentNode());
+        }
+    }
+
+    /**
+     * Connect to a master. The pools are swapped at once, readers
+     * never wait for them. The multiplexed connections and the
+     * subscribers are opened again on the master.
+     *
+     * @param master The master
+     * @since 26.10.16
+     */
+    private void connectMaster(final HostAndPort master) {
+        this.redisPools.connect(master);
+        this.multiplexer.reconnect();
+        this.nearCache.reconnect();
+        this.lease.reconnect();
+        PlayRedisImpl.LOG.info(
+            "Redis connected at {}",
+            String.format("redis://%s:%d", master.getHost(), master.getPort())
+        );
+    }
+
+    /**
+     * Get the Redis server to use, outside of the cluster mode.
+     *
+     * @return The configured server, or the master followed through the sentinels
+     * @since 26.10.16
+     */
+    private HostAndPort currentNode() {
+        final HostAndPort master = this.sentinel.getMaster();
+        return master != null ? master : new HostAndPort(this.redisHost, this.redisPort);
+    }
+
+    /**
+     * Open a new connection outside of the pool. Used without read
+     * timeout by long-running operations like pub/sub subscriptions.
+     *
+     * @param readTimeout The read timeout in milliseconds, {@code 0} to wait forever
+     * @return A Redis connection
+     * @since 26.10.16
+     */
+    private Jedis createDedicatedConnection(final int readTimeout) {
+        return this.redisPools.openConnection(this.cluster.isEnabled() ? this.cluster.anyMaster() : this.currentNode(), readTimeout);
+    }
+
+    /**
+     * Open a connection for the multiplexer, selecting the default
+     * database once for all.
+     *
+     * @return A dedicated Redis connection
+     * @since 26.10.16
+     */
+    private MultiplexedConnection createMultiplexedConnection() {
+        return this.redisPools.openMultiplexedConnection(this.currentNode(), this.redisDefaultDb);
+    }
+
     /**
      * Instructions to run when the module is destroyed.
      *
@@ -367,65 +769,582 @@ public class PlayRedisImpl implements PlayRedis {
      */
     public CompletionStage<?> stopHook() {
         PlayRedisImpl.LOG.info("Shutting down Redis");
-        this.redisPool.close();
+        this.nearCache.stop();
+        this.lease.stop();
+        this.multiplexer.stop();
+        this.executor.shutdown();
+        this.cluster.stop();
+        this.sentinel.stop();
+        this.replicas.stop();
+        this.namespaces.stop();
+        this.redisPools.close();
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Jedis getConnection() {
-        if (this.redisDefaultDb == 0) {
-            return this.redisPool.getResource();
+        if (this.cluster.isEnabled()) {
+            return this.cluster.getConnection(this.cluster.anyMaster());
         }
-        final Jedis conn = this.redisPool.getResource();
-        conn.select(this.redisDefaultDb);
-        return conn;
+        return this.redisPools.getResource(this.redisDefaultDb);
     }
 
     @Override
     public Jedis getConnection(final int db) {
-        final Jedis conn = this.redisPool.getResource();
-        conn.select(db >= 0 ? db : this.redisDefaultDb);
-        return conn;
+        if (this.cluster.isEnabled()) {
+            if (db > 0) {
+                throw new UnsupportedOperationException("Only the database 0 is available in cluster mode");
+            }
+            return this.getConnection();
+        }
+        return this.redisPools.getResource(db >= 0 ? db : this.redisDefaultDb);
+    }
+
+    /**
+     * Get a connection to the master holding the compression
+     * dictionaries. In cluster mode, all the dictionary keys must
+     * share the same hash slot, their prefix must be a hash tag.
+     *
+     * @return A pooled connection
+     * @since 26.10.16
+     */
+    private Jedis getDictionaryConnection() {
+        if (this.cluster.isEnabled()) {
+            final String dictionaryKey = this.codecs.getCompression().getDictionaryKey();
+            return this.cluster.getConnection(this.cluster.masterOf(RedisCluster.slot(dictionaryKey)));
+        }
+        return this.getConnection();
+    }
+
+    /**
+     * Run a command using a single key. In cluster mode, the command
+     * is run on the master owning the slot of the key, and run again
+     * elsewhere if Redis redirects it.
+     *
+     * @param key     The key used by the command
+     * @param command The command to run
+     * @param <T>     Generic type of something
+     * @return The command result
+     * @since 26.10.16
+     */
+    private <T> T execute(final String key, final Function<Jedis, T> command) {
+        if (this.cluster.isEnabled()) {
+            return this.cluster.execute(RedisCluster.slot(key), command);
+        }
+        try (final Jedis jedis = this.getConnection()) {
+            return command.apply(jedis);
+        }
+    }
+
+    /**
+     * Run a read-only command using a single key. The command is run
+     * on the replica chosen by the read preference, or on the master
+     * if the replica can't be reached or if the current thread reads
+     * its own writes.
+     *
+     * @param key     The key used by the command
+     * @param command The command to run
+     * @param <T>     Generic type of something
+     * @return The command result
+     * @since 26.10.16
+     */
+    private <T> T read(final String key, final Function<Jedis, T> command) {
+        final HostAndPort replica = this.masterReads.get() == null ? this.replicas.pick() : null;
+        if (replica != null) {
+            try {
+                return this.hedging.isEnabled()
+                    ? this.hedging.read(replica, node -> this.readFrom(key, node, command), this.replicas::pickOther)
+                    : this.readFrom(key, replica, command);
+            } catch (final JedisConnectionException ignore) {
+                // The failing replicas are not used anymore, the read is sent to the master
+            }
+        }
+        return this.execute(key, command);
+    }
+
+    /**
+     * Run a read-only command on a given node.
+     *
+     * @param key     The key used by the command
+     * @param replica The replica, or {@code null} for the master
+     * @param command The command to run
+     * @param <T>     Generic type of something
+     * @return The command result
+     * @since 26.10.16
+     */
+    private <T> T readFrom(final String key, final HostAndPort replica, final Function<Jedis, T> command) {
+        if (replica == null) {
+            return this.execute(key, command);
+        }
+        try (final Jedis jedis = this.replicas.getConnection(replica)) {
+            return command.apply(jedis);
+        } catch (final JedisConnectionException ex) {
+            this.replicas.failed(replica, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public <T> T readYourWrites(final Callable<T> block) {
+        final Boolean previous = this.masterReads.get();
+        this.masterReads.set(Boolean.TRUE);
+        try {
+            return block.call();
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (previous == null) {
+                this.masterReads.remove();
+            }
+        }
+    }
+
+    /**
+     * Run a command on each chunk of keys. The chunks are sent in a
+     * single pipeline per master, the pipelines to the different
+     * masters are sent concurrently on the executor. The caller sends
+     * the first one, and the ones no thread has started yet, so it
+     * never waits for a saturated executor. In cluster mode, the keys
+     * of a chunk must share the same hash slot, and the chunks
+     * redirected by Redis are sent again on their own.
+     *
+     * @param chunks     The chunks of keys
+     * @param command    Adds the command of a chunk to the pipeline, and returns its response
+     * @param onError    Handles the chunks failing with an error reply
+     * @param invalidate Must the keys be evicted from the near cache of all nodes?
+     * @param <T>        Generic type of something
+     * @return The result of each chunk, {@code null} for the failed ones
+     * @since 26.10.16
+     */
+    private <T> List<T> executeChunks(final List<List<String>> chunks,
+                                      final BiFunction<Pipeline, List<String>, Response<T>> command,
+                                      final BiConsumer<List<String>, JedisDataException> onError,
+                                      final boolean invalidate) {
+        final Map<HostAndPort, List<Integer>> chunksByMaster = new LinkedHashMap<>();
+        for (int idx = 0; idx < chunks.size(); ++idx) {
+            final HostAndPort master = this.cluster.isEnabled()
+                ? this.cluster.masterOf(RedisCluster.slot(chunks.get(idx).get(0)))
+                : this.currentNode();
+            chunksByMaster.computeIfAbsent(master, key -> new ArrayList<>()).add(idx);
+        }
+        final List<FutureTask<Map<Integer, Response<T>>>> pipelines = new ArrayList<>();
+        for (final Map.Entry<HostAndPort, List<Integer>> entry : chunksByMaster.entrySet()) {
+            final FutureTask<Map<Integer, Response<T>>> pipeline = new FutureTask<>(
+                () -> this.sendChunks(entry.getKey(), entry.getValue(), chunks, command, invalidate)
+            );
+            pipelines.add(pipeline);
+            if (pipelines.size() > 1) {
+                try {
+                    this.executor.execute(pipeline);
+                } catch (final RejectedExecutionException ignore) {
+                    // Sent by the caller below
+                }
+            }
+        }
+        for (final FutureTask<Map<Integer, Response<T>>> pipeline : pipelines) {
+            // Does nothing if the pipeline has already been started by the executor
+            pipeline.run();
+        }
+        final List<T> results = new ArrayList<>(Collections.nCopies(chunks.size(), null));
+        final List<String> keys = new ArrayList<>();
+        int masterIdx = 0;
+        for (final List<Integer> masterChunks : chunksByMaster.values()) {
+            final Map<Integer, Response<T>> responses = PlayRedisImpl.getPipeline(pipelines.get(masterIdx++));
+            for (final Integer idx : masterChunks) {
+                keys.addAll(chunks.get(idx));
+                try {
+                    results.set(idx, this.chunkResult(chunks.get(idx), responses.get(idx), command));
+                } catch (final JedisDataException ex) {
+                    onError.accept(chunks.get(idx), ex);
+                }
+            }
+        }
+        if (invalidate) {
+            this.nearCache.evict(keys);
+        }
+        return results;
+    }
+
+    /**
+     * Send chunks of keys in a single pipeline to a master.
+     *
+     * @param master     The master
+     * @param indices    The indices of the chunks to send
+     * @param chunks     The chunks of keys
+     * @param command    Adds the command of a chunk to the pipeline, and returns its response
+     * @param invalidate Must the keys be evicted from the near cache of all nodes?
+     * @param <T>        Generic type of something
+     * @return The response of each chunk, by index, empty if the chunks must be sent again
+     * @since 26.10.16
+     */
+    private <T> Map<Integer, Response<T>> sendChunks(final HostAndPort master,
+                                                     final List<Integer> indices,
+                                                     final List<List<String>> chunks,
+                                                     final BiFunction<Pipeline, List<String>, Response<T>> command,
+                                                     final boolean invalidate) {
+        final Map<Integer, Response<T>> responses = new LinkedHashMap<>();
+        final List<String> masterKeys = new ArrayList<>();
+        try (final Jedis jedis = this.cluster.isEnabled() ? this.cluster.getConnection(master) : this.getConnection()) {
+            final Pipeline pipeline = jedis.pipelined();
+            for (final Integer idx : indices) {
+                responses.put(idx, command.apply(pipeline, chunks.get(idx)));
+                masterKeys.addAll(chunks.get(idx));
+            }
+            if (invalidate) {
+                this.nearCache.publishInvalidation(pipeline, masterKeys);
+            }
+            pipeline.sync();
+        } catch (final JedisConnectionException ex) {
+            if (!this.cluster.isEnabled()) {
+                throw ex;
+            }
+            // The master may have failed, each chunk is sent again once the topology is known
+            PlayRedisImpl.LOG.warn("Can't send commands to {}: {}", master, ex.getMessage());
+            responses.clear();
+        }
+        return responses;
+    }
+
+    /**
+     * Wait for a pipeline sent by {@link #sendChunks}.
+     *
+     * @param pipeline The pipeline
+     * @param <T>      Generic type of something
+     * @return The response of each chunk, by index
+     * @since 26.10.16
+     */
+    private static <T> Map<Integer, Response<T>> getPipeline(final FutureTask<Map<Integer, Response<T>>> pipeline) {
+        try {
+            return pipeline.get();
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new JedisException(ex.getCause());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JedisException(ex);
+        }
+    }
+
+    /**
+     * Run a command on each chunk of keys. Error replies are thrown.
+     *
+     * @param chunks     The chunks of keys
+     * @param command    Adds the command of a chunk to the pipeline, and returns its response
+     * @param invalidate Must the keys be evicted from the near cache of all nodes?
+     * @param <T>        Generic type of something
+     * @return The result of each chunk
+     * @since 26.10.16
+     */
+    private <T> List<T> executeChunks(final List<List<String>> chunks,
+                                      final BiFunction<Pipeline, List<String>, Response<T>> command,
+                                      final boolean invalidate) {
+        return this.executeChunks(chunks, command, (chunk, ex) -> {
+            throw ex;
+        }, invalidate);
+    }
+
+    /**
+     * Get the result of a chunk. In cluster mode, the chunk is sent
+     * again if it has been redirected, or if it has not been sent.
+     *
+     * @param chunk    The chunk of keys
+     * @param response The chunk response, or {@code null} if it has not been sent
+     * @param command  Adds the command of a chunk to the pipeline, and returns its response
+     * @param <T>      Generic type of something
+     * @return The result of the chunk
+     * @since 26.10.16
+     */
+    private <T> T chunkResult(final List<String> chunk, final Response<T> response,
+                              final BiFunction<Pipeline, List<String>, Response<T>> command) {
+        if (response != null) {
+            try {
+                return response.get();
+            } catch (final JedisRedirectionException ex) {
+                if (!this.cluster.isEnabled()) {
+                    throw ex;
+                }
+                this.metrics.increment(RedisCluster.METRIC_REDIRECTIONS);
+            }
+        }
+        return this.cluster.execute(RedisCluster.slot(chunk.get(0)), jedis -> {
+            final Pipeline pipeline = jedis.pipelined();
+            final Response<T> retriedResponse = command.apply(pipeline, chunk);
+            pipeline.sync();
+            return retriedResponse.get();
+        });
+    }
+
+    /**
+     * Encode keys.
+     *
+     * @param keys The keys
+     * @return The encoded keys
+     * @since 26.10.16
+     */
+    private static byte[][] encodeKeys(final List<String> keys) {
+        final byte[][] rawKeys = new byte[keys.size()][];
+        for (int idx = 0; idx < rawKeys.length; ++idx) {
+            rawKeys[idx] = SafeEncoder.encode(keys.get(idx));
+        }
+        return rawKeys;
+    }
+
+    /**
+     * Escapes the special characters of a SCAN / KEYS pattern.
+     *
+     * @param value The value to escape
+     * @return The escaped value
+     * @since 26.10.16
+     */
+    static String escapeGlob(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (final char c : value.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resolves the Java type of the given type reference.
+     *
+     * @param typeReference The object type reference
+     * @return The object java type
+     * @since 26.10.16
+     */
+    private JavaType javaTypeOf(final TypeReference<?> typeReference) {
+        return Json.mapper().getTypeFactory().constructType(typeReference);
+    }
+
+    /**
+     * Resolves the Java type of the given class.
+     *
+     * @param clazz The object class
+     * @return The object java type
+     * @since 26.10.16
+     */
+    private JavaType javaTypeOf(final Class<?> clazz) {
+        return Json.mapper().getTypeFactory().constructType(clazz);
+    }
+
+    @Override
+    public RedisMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    @Override
+    public PlayRedisAsync async() {
+        return this.playRedisAsync;
+    }
+
+    @Override
+    public <T> TypedRedis<T> typed(final Class<T> clazz) {
+        return this.typed(clazz, null);
+    }
+
+    @Override
+    public <T> TypedRedis<T> typed(final TypeReference<T> typeReference) {
+        return this.typed(typeReference, null);
+    }
+
+    @Override
+    public <T> TypedRedis<T> typed(final Class<T> clazz, final String keyPrefix) {
+        return new TypedRedisImpl<>(this, this.codecs.forType(this.javaTypeOf(clazz)), keyPrefix);
+    }
+
+    @Override
+    public <T> TypedRedis<T> typed(final TypeReference<T> typeReference, final String keyPrefix) {
+        return new TypedRedisImpl<>(this, this.codecs.forType(this.javaTypeOf(typeReference)), keyPrefix);
     }
 
     @Override
     public <T> T get(final String key, final TypeReference<T> typeReference) {
-        return this.get(key, Json.mapper().readerFor(typeReference));
+        return this.get(key, this.javaTypeOf(typeReference));
     }
 
     @Override
     public <T> T get(final String key, final Class<T> clazz) {
-        return this.get(key, Json.mapper().readerFor(clazz));
+        return this.get(key, this.javaTypeOf(clazz));
     }
 
     @Override
     public <T> T get(final String key, final JavaType javaType) {
-        return this.get(key, Json.mapper().readerFor(javaType));
+        return this.get(key, this.codecs.forType(javaType));
     }
 
     /**
-     * Retrieves an object by key.
+     * Retrieves an object by key. Concurrent calls for the same key
+     * and type share a single round trip.
      *
-     * @param key    Item key
-     * @param reader The object reader
-     * @param <T>    Generic type of something
-     * @return The object or null.
-     * @since 17.08.20
+     * @param key        Item key
+     * @param typedCodec The object typed codec
+     * @param <T>        Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
      */
-    private <T> T get(final String key, final ObjectReader reader) {
-        T object = null;
-        try {
-            final String rawData;
-            try (final Jedis jedis = this.getConnection()) {
-                rawData = jedis.get(key);
+    <T> T get(final String key, final TypedCodec typedCodec) {
+        return this.get(key, typedCodec, true);
+    }
+
+    /**
+     * Retrieves an object by key. Concurrent calls for the same key
+     * and type share a single round trip.
+     *
+     * @param key          Item key
+     * @param typedCodec   The object typed codec
+     * @param replicaAllowed Can the object be read from a replica?
+     * @param <T>          Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    private <T> T get(final String key, final TypedCodec typedCodec, final boolean replicaAllowed) {
+        final RedisEnvelope<T> envelope = this.getEnvelope(key, typedCodec, replicaAllowed);
+        return envelope == null ? null : envelope.getValue();
+    }
+
+    /**
+     * Retrieves an object by key, with its envelope information.
+     * Concurrent calls for the same key and type share a single
+     * round trip. If the refresh-ahead mode is enabled, the key
+     * TTL is read in the same round trip. Objects coming from
+     * the near cache have no envelope information. Objects read
+     * from a replica are not stored in the near cache.
+     *
+     * @param key            Item key
+     * @param typedCodec     The object typed codec
+     * @param replicaAllowed Can the object be read from a replica?
+     * @param <T>            Generic type of something
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    private <T> RedisEnvelope<T> getEnvelope(final String key, final TypedCodec typedCodec, final boolean replicaAllowed) {
+        final boolean isNearCached = this.nearCache.isCached(key);
+        if (isNearCached) {
+            final T object = this.nearCache.get(key, typedCodec.getJavaType());
+            if (object != null) {
+                return new RedisEnvelope<>(object);
             }
-            if (rawData != null) {
-                object = reader.readValue(rawData.getBytes());
+        }
+        // Reads from the master must not wait for a read from a replica, which may be late
+        final boolean replicaRead = replicaAllowed && this.replicas.isEnabled() && this.masterReads.get() == null;
+        return this.getFlights.execute(new SingleFlight.Key(key, typedCodec, replicaRead), () -> {
+            final long nearCacheGeneration = this.nearCache.getGeneration(key);
+            RedisEnvelope<T> envelope = null;
+            try {
+                final byte[] rawKey = SafeEncoder.encode(key);
+                final Function<Jedis, Map.Entry<byte[], Long>> command = jedis -> {
+                    if (this.refreshAhead.isEnabled()) {
+                        final Pipeline pipeline = jedis.pipelined();
+                        final Response<byte[]> rawDataResponse = pipeline.get(rawKey);
+                        final Response<Long> ttlResponse = pipeline.pttl(rawKey);
+                        pipeline.sync();
+                        return new AbstractMap.SimpleImmutableEntry<>(rawDataResponse.get(), ttlResponse.get());
+                    }
+                    return new AbstractMap.SimpleImmutableEntry<>(jedis.get(rawKey), 0L);
+                };
+                final Map.Entry<byte[], Long> rawData = replicaRead ? this.read(key, command) : this.execute(key, command);
+                if (rawData.getKey() != null) {
+                    envelope = typedCodec.<T>decodeEnvelope(rawData.getKey()).withTtl(rawData.getValue());
+                }
+            } catch (final IOException ex) {
+                PlayRedisImpl.LOG.error("Can't get object", ex);
             }
-        } catch (final IOException ex) {
-            PlayRedisImpl.LOG.error("Can't get object", ex);
+            // A replica may lag behind: its value could outlive the invalidation of a newer write
+            if (isNearCached && !replicaRead && envelope != null) {
+                this.nearCache.put(key, typedCodec.getJavaType(), envelope.getValue(), nearCacheGeneration);
+            }
+            return envelope;
+        });
+    }
+
+    @Override
+    public <T> Map<String, T> getMany(final Collection<String> keys, final TypeReference<T> typeReference) {
+        return this.getMany(keys, this.javaTypeOf(typeReference));
+    }
+
+    @Override
+    public <T> Map<String, T> getMany(final Collection<String> keys, final Class<T> clazz) {
+        return this.getMany(keys, this.javaTypeOf(clazz));
+    }
+
+    @Override
+    public <T> Map<String, T> getMany(final Collection<String> keys, final JavaType javaType) {
+        return this.getMany(keys, this.codecs.forType(javaType));
+    }
+
+    /**
+     * Retrieves many objects in a single round trip. Keys are
+     * split in chunks of {@link #redisBulkChunkSize} keys, each
+     * chunk being sent as a MGET command in the same pipeline.
+     * In cluster mode, the keys of a chunk share the same hash
+     * slot and each master gets its own pipeline.
+     *
+     * @param keys       Items keys
+     * @param typedCodec The object typed codec
+     * @param <T>        Generic type of something
+     * @return A map of found objects, indexed by key
+     * @since 26.10.16
+     */
+    <T> Map<String, T> getMany(final Collection<String> keys, final TypedCodec typedCodec) {
+        final Map<String, T> objects = new LinkedHashMap<>();
+        if (keys == null || keys.isEmpty()) {
+            return objects;
+        }
+        final List<String> uniqueKeys = new ArrayList<>();
+        final Map<String, Long> nearCacheGenerations = new HashMap<>();
+        for (final String key : new LinkedHashSet<>(keys)) {
+            final boolean isNearCached = this.nearCache.isCached(key);
+            final T object = isNearCached ? this.nearCache.get(key, typedCodec.getJavaType()) : null;
+            if (object != null) {
+                objects.put(key, object);
+            } else {
+                if (isNearCached) {
+                    nearCacheGenerations.put(key, this.nearCache.getGeneration(key));
+                }
+                uniqueKeys.add(key);
+            }
+        }
+        if (uniqueKeys.isEmpty()) {
+            return objects;
         }
-        return object;
+        final List<List<String>> chunks = this.cluster.chunks(uniqueKeys, this.redisBulkChunkSize);
+        final List<List<byte[]>> chunksData = this.executeChunks(
+            chunks,
+            (pipeline, chunk) -> pipeline.mget(PlayRedisImpl.encodeKeys(chunk)),
+            false
+        );
+        for (int chunkIdx = 0; chunkIdx < chunks.size(); ++chunkIdx) {
+            final List<String> chunk = chunks.get(chunkIdx);
+            final List<byte[]> chunkData = chunksData.get(chunkIdx);
+            for (int keyIdx = 0; keyIdx < chunk.size(); ++keyIdx) {
+                final String key = chunk.get(keyIdx);
+                final byte[] rawData = chunkData.get(keyIdx);
+                if (rawData != null) {
+                    try {
+                        final T object = typedCodec.decode(rawData);
+                        objects.put(key, object);
+                        final Long nearCacheGeneration = nearCacheGenerations.get(key);
+                        if (nearCacheGeneration != null) {
+                            this.nearCache.put(key, typedCodec.getJavaType(), object, nearCacheGeneration);
+                        }
+                    } catch (final IOException ex) {
+                        PlayRedisImpl.LOG.error("Can't get object '{}'", key, ex);
+                    }
+                }
+            }
+        }
+        return objects;
     }
 
     @Override
@@ -435,7 +1354,7 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public <T> void set(final String key, final TypeReference<T> typeReference, final T value, final int expiration) {
-        this.set(key, Json.mapper().writerFor(typeReference), value, expiration);
+        this.set(key, this.javaTypeOf(typeReference), value, expiration);
     }
 
     @Override
@@ -445,7 +1364,7 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public <T> void set(final String key, final Class<T> clazz, final T value, final int expiration) {
-        this.set(key, Json.mapper().writerFor(clazz), value, expiration);
+        this.set(key, this.javaTypeOf(clazz), value, expiration);
     }
 
     @Override
@@ -455,31 +1374,127 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public void set(final String key, final JavaType javaType, final Object value, final int expiration) {
-        this.set(key, Json.mapper().writerFor(javaType), value, expiration);
+        this.set(key, this.codecs.forType(javaType), value, expiration);
     }
 
     /**
-     * Sets a value without expiration.
+     * Sets a value.
      *
-     * @param key    Item key
-     * @param writer The object writer
-     * @param value  The value to set
-     * @since 17.08.20
+     * @param key        Item key
+     * @param typedCodec The object typed codec
+     * @param value      The value to set
+     * @param expiration The expiration in seconds
+     * @since 26.10.16
      */
-    private void set(final String key, final ObjectWriter writer, final Object value, final int expiration) {
+    void set(final String key, final TypedCodec typedCodec, final Object value, final int expiration) {
+        this.set(key, typedCodec, value, expiration, 0, 0);
+    }
+
+    /**
+     * Sets a value, with its envelope information.
+     *
+     * @param key           Item key
+     * @param typedCodec    The object typed codec
+     * @param value         The value to set
+     * @param expiration    The expiration in seconds
+     * @param softExpiresAt Timestamp (in milliseconds) after which the value is stale, or {@code 0}
+     * @param computeTime   Time in milliseconds it took to compute the value, or {@code 0}
+     * @since 26.10.16
+     */
+    private void set(final String key, final TypedCodec typedCodec, final Object value, final int expiration,
+                     final long softExpiresAt, final int computeTime) {
         try {
-            final String data = writer.writeValueAsString(value);
-            try (final Jedis jedis = this.getConnection()) {
-                jedis.set(key, data);
+            final byte[] data = typedCodec.encode(key, value, softExpiresAt, computeTime);
+            this.execute(key, jedis -> {
+                // The value and its expiration are written at once with SET EX
                 if (expiration > 0) {
-                    jedis.expire(key, expiration);
+                    jedis.set(SafeEncoder.encode(key), data, SetParams.setParams().ex(expiration));
+                } else {
+                    jedis.set(SafeEncoder.encode(key), data);
                 }
-            }
+                this.nearCache.invalidate(jedis, key);
+                return null;
+            });
         } catch (final IOException ex) {
             PlayRedisImpl.LOG.error("Can't set object", ex);
         }
     }
 
+    @Override
+    public <T> Set<String> setMany(final Map<String, T> values, final TypeReference<T> typeReference) {
+        return this.setMany(values, typeReference, 0);
+    }
+
+    @Override
+    public <T> Set<String> setMany(final Map<String, T> values, final TypeReference<T> typeReference,
+                                   final int expiration) {
+        return this.setMany(values, this.javaTypeOf(typeReference), expiration);
+    }
+
+    @Override
+    public <T> Set<String> setMany(final Map<String, T> values, final Class<T> clazz) {
+        return this.setMany(values, clazz, 0);
+    }
+
+    @Override
+    public <T> Set<String> setMany(final Map<String, T> values, final Class<T> clazz, final int expiration) {
+        return this.setMany(values, this.javaTypeOf(clazz), expiration);
+    }
+
+    @Override
+    public Set<String> setMany(final Map<String, ?> values, final JavaType javaType) {
+        return this.setMany(values, javaType, 0);
+    }
+
+    @Override
+    public Set<String> setMany(final Map<String, ?> values, final JavaType javaType, final int expiration) {
+        return this.setMany(values, this.codecs.forType(javaType), expiration);
+    }
+
+    /**
+     * Sets many values. All values are serialized first, then
+     * sent in a single pipeline as SET commands carrying their
+     * own expiration (SET EX). In cluster mode, each master gets
+     * its own pipeline.
+     *
+     * @param values     The values to set, indexed by key
+     * @param typedCodec The object typed codec
+     * @param expiration The expiration in seconds
+     * @return Keys of the entries that could not be set
+     * @since 26.10.16
+     */
+    Set<String> setMany(final Map<String, ?> values, final TypedCodec typedCodec, final int expiration) {
+        final Set<String> failedKeys = new HashSet<>();
+        if (values == null || values.isEmpty()) {
+            return failedKeys;
+        }
+        final Map<String, byte[]> serializedValues = new LinkedHashMap<>();
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            try {
+                serializedValues.put(entry.getKey(), typedCodec.encode(entry.getKey(), entry.getValue()));
+            } catch (final IOException ex) {
+                PlayRedisImpl.LOG.error("Can't set object '{}'", entry.getKey(), ex);
+                failedKeys.add(entry.getKey());
+            }
+        }
+        this.executeChunks(
+            this.cluster.chunks(serializedValues.keySet(), 1),
+            (pipeline, chunk) -> {
+                final byte[] key = SafeEncoder.encode(chunk.get(0));
+                if (expiration > 0) {
+                    return pipeline.set(key, serializedValues.get(chunk.get(0)), SetParams.setParams().ex(expiration));
+                }
+                return pipeline.set(key, serializedValues.get(chunk.get(0)));
+            },
+            (chunk, ex) -> {
+                PlayRedisImpl.LOG.error("Can't set object '{}': {}", chunk.get(0), ex.getMessage());
+                failedKeys.add(chunk.get(0));
+            },
+            true
+        );
+        return failedKeys;
+    }
+
     @Override
     public <T> T getOrElse(final String key, final TypeReference<T> typeReference, final Callable<T> block) {
         return this.getOrElse(key, typeReference, block, 0);
@@ -488,7 +1503,7 @@ public class PlayRedisImpl implements PlayRedis {
     @Override
     public <T> T getOrElse(final String key, final TypeReference<T> typeReference, final Callable<T> block,
                            final int expiration) {
-        return this.getOrElse(key, Json.mapper().readerFor(typeReference), Json.mapper().writerFor(typeReference), block, expiration);
+        return this.getOrElse(key, this.javaTypeOf(typeReference), block, expiration);
     }
 
     @Override
@@ -498,7 +1513,7 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public <T> T getOrElse(final String key, final Class<T> clazz, final Callable<T> block, final int expiration) {
-        return this.getOrElse(key, Json.mapper().readerFor(clazz), Json.mapper().writerFor(clazz), block, expiration);
+        return this.getOrElse(key, this.javaTypeOf(clazz), block, expiration);
     }
 
     @Override
@@ -508,129 +1523,350 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public <T> T getOrElse(final String key, final JavaType javaType, final Callable<T> block, final int expiration) {
-        return this.getOrElse(key, Json.mapper().readerFor(javaType), Json.mapper().writerFor(javaType), block, expiration);
+        return this.getOrElse(key, this.codecs.forType(javaType), block, expiration);
     }
 
     /**
      * Retrieve a value from the cache, or set it from a default
-     * Callable function. The value has no expiration.
+     * Callable function. Concurrent calls for the same key and
+     * type share a single computation and a single SET.
      *
      * @param key        Item key
-     * @param reader     The object reader
-     * @param writer     The object writer
-     * @param expiration The expiration in seconds
+     * @param typedCodec The object typed codec
      * @param block      Block returning value to set if key does not exist
+     * @param expiration The expiration in seconds
      * @param <T>        Generic type of something
      * @return value
-     * @since 17.08.20
+     * @since 26.10.16
      */
-    private <T> T getOrElse(final String key, final ObjectReader reader, final ObjectWriter writer,
-                            final Callable<T> block, final int expiration) {
-        T data = this.get(key, reader);
-        if (data == null) {
-            try {
-                data = block.call();
-            } catch (final Exception ex) {
-                throw new RuntimeException(ex);
+    <T> T getOrElse(final String key, final TypedCodec typedCodec, final Callable<T> block, final int expiration) {
+        final RedisEnvelope<T> cached = this.getEnvelope(key, typedCodec, true);
+        if (cached != null && cached.getValue() != null) {
+            if (this.staleWhileRevalidate.isStale(cached) || this.refreshAhead.shouldRefresh(cached)) {
+                this.staleWhileRevalidate.refreshInBackground(key, () -> {
+                    this.refresh(key, typedCodec, block, expiration);
+                    return CompletableFuture.completedFuture(null);
+                });
             }
-            this.set(key, writer, data, expiration);
+            return cached.getValue();
         }
+        return this.loadFlights.execute(new SingleFlight.Key(key, typedCodec, false), () -> {
+            // Another flight may have just loaded the value
+            final T data = this.get(key, typedCodec, false);
+            if (data != null) {
+                return data;
+            }
+            return this.lease.isEnabled()
+                ? this.loadWithLease(key, typedCodec, block, expiration)
+                : this.load(key, typedCodec, block, expiration);
+        });
+    }
+
+    /**
+     * Compute a value and store it.
+     *
+     * @param key        Item key
+     * @param typedCodec The object typed codec
+     * @param block      Block returning value to set
+     * @param expiration The expiration in seconds
+     * @param <T>        Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    private <T> T load(final String key, final TypedCodec typedCodec, final Callable<T> block, final int expiration) {
+        final long startedAt = System.nanoTime();
+        final T data;
+        try {
+            data = block.call();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        this.set(
+            key,
+            typedCodec,
+            data,
+            this.staleWhileRevalidate.hardExpiration(expiration),
+            this.staleWhileRevalidate.softExpiresAt(expiration),
+            expiration > 0 ? this.refreshAhead.computeTime(startedAt) : 0
+        );
         return data;
     }
 
+    /**
+     * Compute a value again before it expires and store it. If leases are
+     * enabled, nothing is done when another node holds the lease.
+     *
+     * @param key        Item key
+     * @param typedCodec The object typed codec
+     * @param block      Block returning value to set
+     * @param expiration The expiration in seconds
+     * @param <T>        Generic type of something
+     * @since 26.10.16
+     */
+    private <T> void refresh(final String key, final TypedCodec typedCodec, final Callable<T> block, final int expiration) {
+        if (!this.lease.isEnabled()) {
+            this.load(key, typedCodec, block, expiration);
+            return;
+        }
+        final String token = this.lease.newToken();
+        final boolean acquired = this.execute(this.lease.leaseKey(key), jedis -> this.lease.tryAcquire(jedis, key, token));
+        if (acquired) {
+            try {
+                this.load(key, typedCodec, block, expiration);
+            } finally {
+                this.releaseLease(key, token);
+            }
+        }
+    }
+
+    /**
+     * Release a lease taken by this node.
+     *
+     * @param key   Item key
+     * @param token The token identifying the holder
+     * @since 26.10.16
+     */
+    private void releaseLease(final String key, final String token) {
+        try {
+            this.execute(this.lease.leaseKey(key), jedis -> {
+                this.lease.release(jedis, key, token);
+                return null;
+            });
+        } catch (final JedisException ex) {
+            PlayRedisImpl.LOG.warn("Can't release lease of '{}': {}", key, ex.getMessage());
+        }
+    }
+
+    /**
+     * Compute a value and store it, once across all nodes. The node
+     * taking the lease computes the value, the other ones wait for
+     * the lease release, then read the value. If the lease is not
+     * released in time, the value is computed without lease.
+     *
+     * @param key        Item key
+     * @param typedCodec The object typed codec
+     * @param block      Block returning value to set
+     * @param expiration The expiration in seconds
+     * @param <T>        Generic type of something
+     * @return value
+     * @since 26.10.16
+     */
+    private <T> T loadWithLease(final String key, final TypedCodec typedCodec, final Callable<T> block, final int expiration) {
+        final long deadline = this.lease.getDeadline();
+        final String token = this.lease.newToken();
+        while (true) {
+            final CompletableFuture<Void> released = this.lease.released(key);
+            final boolean acquired = this.execute(this.lease.leaseKey(key), jedis -> this.lease.tryAcquire(jedis, key, token));
+            if (acquired) {
+                try {
+                    return this.load(key, typedCodec, block, expiration);
+                } finally {
+                    this.releaseLease(key, token);
+                }
+            }
+            final T data = this.get(key, typedCodec, false);
+            if (data != null) {
+                return data;
+            }
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                this.lease.timedOut(key);
+                return this.load(key, typedCodec, block, expiration);
+            }
+            this.lease.await(key, released, remaining);
+        }
+    }
+
     @Override
     public void remove(final String key) {
-        try (final Jedis jedis = this.getConnection()) {
-            jedis.del(key);
+        this.execute(key, jedis -> {
+            if (this.redisRemoveUnlink) {
+                jedis.unlink(key);
+            } else {
+                jedis.del(key);
+            }
+            this.nearCache.invalidate(jedis, key);
+            return null;
+        });
+    }
+
+    @Override
+    public long remove(final String... keys) {
+        return this.remove(Arrays.asList(keys));
+    }
+
+    @Override
+    public long remove(final Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return 0;
+        }
+        final List<Long> chunksRemoved = this.executeChunks(
+            this.cluster.chunks(new LinkedHashSet<>(keys), this.redisBulkChunkSize),
+            (pipeline, chunk) -> this.redisRemoveUnlink
+                ? pipeline.unlink(PlayRedisImpl.encodeKeys(chunk))
+                : pipeline.del(PlayRedisImpl.encodeKeys(chunk)),
+            true
+        );
+        long removed = 0;
+        for (final Long chunkRemoved : chunksRemoved) {
+            removed += chunkRemoved;
         }
+        return removed;
     }
 
     @Override
-    public void remove(final String... keys) {
-        try (final Jedis jedis = this.getConnection()) {
-            for (final String k : keys) {
-                jedis.del(k);
+    public long removeByPrefix(final String keyPrefix) {
+        long removed = 0;
+        if (this.cluster.isEnabled()) {
+            // Each master only scans its own keys
+            for (final HostAndPort master : this.cluster.getMasters()) {
+                removed += this.removeByPrefix(() -> this.cluster.getConnection(master), keyPrefix, removed);
             }
+        } else {
+            removed = this.removeByPrefix(this::getConnection, keyPrefix, removed);
         }
+        PlayRedisImpl.LOG.info("{} keys removed with prefix '{}'", removed, keyPrefix);
+        return removed;
+    }
+
+    /**
+     * Remove the keys of a node starting with the given prefix. The
+     * scanned keys are stored on the node, so they are unlinked in a
+     * pipeline on the scanning connection. The connection is given
+     * back between two SCAN: a single connection is held at a time.
+     *
+     * @param connectionFactory Borrows a connection to the node
+     * @param keyPrefix         The key prefix
+     * @param alreadyRemoved    The number of keys already removed from other nodes
+     * @return The number of keys removed from this node
+     * @since 26.10.16
+     */
+    private long removeByPrefix(final Supplier<Jedis> connectionFactory, final String keyPrefix, final long alreadyRemoved) {
+        final ScanParams scanParams = new ScanParams()
+            .match(PlayRedisImpl.escapeGlob(keyPrefix) + "*")
+            .count(this.redisBulkChunkSize);
+        final BiFunction<Pipeline, List<String>, Response<Long>> unlink = (pipeline, chunk) -> pipeline.unlink(PlayRedisImpl.encodeKeys(chunk));
+        long removed = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            final List<List<String>> chunks;
+            final List<Response<Long>> responses = new ArrayList<>();
+            try (final Jedis jedis = connectionFactory.get()) {
+                final ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+                cursor = scanResult.getCursor();
+                chunks = this.cluster.chunks(scanResult.getResult(), this.redisBulkChunkSize);
+                if (!chunks.isEmpty()) {
+                    final Pipeline pipeline = jedis.pipelined();
+                    for (final List<String> chunk : chunks) {
+                        responses.add(unlink.apply(pipeline, chunk));
+                        this.nearCache.publishInvalidation(pipeline, chunk);
+                    }
+                    pipeline.sync();
+                }
+            }
+            // Keys moved to another node meanwhile are removed there, once the connection is given back
+            for (int idx = 0; idx < chunks.size(); ++idx) {
+                removed += this.chunkResult(chunks.get(idx), responses.get(idx), unlink);
+                this.nearCache.evict(chunks.get(idx));
+            }
+            if (!chunks.isEmpty()) {
+                PlayRedisImpl.LOG.debug("{} keys removed so far with prefix '{}'", alreadyRemoved + removed, keyPrefix);
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        return removed;
     }
 
     @Override
-    public boolean exists(final String key) {
-        final boolean exists;
-        try (final Jedis jedis = this.getConnection()) {
-            exists = jedis.exists(key);
+    public String namespacedKey(final String namespace, final String key) {
+        Long generation = this.namespaces.cached(namespace);
+        if (generation == null) {
+            final String counterKey = this.namespaces.counterKey(namespace);
+            generation = this.namespaces.update(namespace, this.execute(counterKey, jedis -> jedis.get(counterKey)));
         }
-        return exists;
+        return this.namespaces.prefix(namespace, generation) + key;
+    }
+
+    @Override
+    public long invalidateNamespace(final String namespace) {
+        final String counterKey = this.namespaces.counterKey(namespace);
+        final long generation = this.execute(counterKey, jedis -> jedis.incr(counterKey));
+        this.namespaces.invalidated(namespace, generation, this.playRedisAsync::removeByPrefix);
+        return generation;
+    }
+
+    @Override
+    public boolean exists(final String key) {
+        return this.read(key, jedis -> jedis.exists(key));
     }
 
     @Override
     public <T> void addInList(final String key, final TypeReference<T> typeReference, final Object value) {
-        this.addInList(key, Json.mapper().writerFor(typeReference), value);
+        this.addInList(key, this.javaTypeOf(typeReference), value);
     }
 
     @Override
     public <T> void addInList(final String key, final TypeReference<T> typeReference, final Object value,
                               final int maxItem) {
-        this.addInList(key, Json.mapper().writerFor(typeReference), value, maxItem);
+        this.addInList(key, this.javaTypeOf(typeReference), value, maxItem);
     }
 
     @Override
     public <T> void addInList(final String key, final Class<T> clazz, final T value) {
-        this.addInList(key, Json.mapper().writerFor(clazz), value);
+        this.addInList(key, this.javaTypeOf(clazz), value);
     }
 
     @Override
     public <T> void addInList(final String key, final Class<T> clazz, final T value,
                           final int maxItem) {
-        this.addInList(key, Json.mapper().writerFor(clazz), value, maxItem);
+        this.addInList(key, this.javaTypeOf(clazz), value, maxItem);
     }
 
     @Override
     public void addInList(final String key, final JavaType javaType, final Object value) {
-        this.addInList(key, Json.mapper().writerFor(javaType), value);
-    }
-
-    @Override
-    public void addInList(final String key, final JavaType javaType, final Object value,
-                          final int maxItem) {
-        this.addInList(key, Json.mapper().writerFor(javaType), value, maxItem);
+        this.addInList(key, this.codecs.forType(javaType), value);
     }
 
     /**
      * Add a value in a list.
      *
-     * @param key    The list key
-     * @param writer The object writer
-     * @param value  The value to add in the list
-     * @since 17.08.20
+     * @param key        The list key
+     * @param typedCodec The object typed codec
+     * @param value      The value to add in the list
+     * @since 26.10.16
      */
-    private void addInList(final String key, final ObjectWriter writer, final Object value) {
+    void addInList(final String key, final TypedCodec typedCodec, final Object value) {
         try {
-            final String data = writer.writeValueAsString(value);
-            try (final Jedis jedis = this.getConnection()) {
-                jedis.lpush(key, data);
-            }
+            final byte[] data = typedCodec.encode(key, value);
+            this.execute(key, jedis -> jedis.lpush(SafeEncoder.encode(key), data));
         } catch (final IOException ex) {
             PlayRedisImpl.LOG.error("Can't add object in list", ex);
         }
     }
 
+    @Override
+    public void addInList(final String key, final JavaType javaType, final Object value,
+                          final int maxItem) {
+        this.addInList(key, this.codecs.forType(javaType), value, maxItem);
+    }
+
     /**
      * Add a value in a list.
      *
-     * @param key     The list key
-     * @param writer  The object writer
-     * @param value   The value to add in the list
-     * @param maxItem The number of entries to keep in list
-     * @since 17.08.20
+     * @param key        The list key
+     * @param typedCodec The object typed codec
+     * @param value      The value to add in the list
+     * @param maxItem    The number of entries to keep in list
+     * @since 26.10.16
      */
-    private void addInList(final String key, final ObjectWriter writer, final Object value, final int maxItem) {
+    void addInList(final String key, final TypedCodec typedCodec, final Object value, final int maxItem) {
         try {
-            final String data = writer.writeValueAsString(value);
-            try (final Jedis jedis = this.getConnection()) {
-                jedis.lpush(key, data);
-                jedis.ltrim(key, 0, maxItem > 0 ? maxItem - 1 : maxItem);
-            }
+            final byte[] data = typedCodec.encode(key, value);
+            // The value is added and the list trimmed at once by a server-side script
+            this.execute(key, jedis -> PlayRedisImpl.SCRIPT_LPUSH_LTRIM.evalBinary(
+                jedis,
+                Collections.singletonList(SafeEncoder.encode(key)),
+                Arrays.asList(data, SafeEncoder.encode(String.valueOf(maxItem > 0 ? maxItem - 1 : maxItem)))
+            ));
         } catch (final IOException ex) {
             PlayRedisImpl.LOG.error("Can't add object in list", ex);
         }
@@ -644,7 +1880,7 @@ public class PlayRedisImpl implements PlayRedis {
     @Override
     public <T> List<T> getFromList(final String key, final TypeReference<T> typeReference, final int offset,
                                    final int count) {
-        return this.getFromList(key, Json.mapper().readerFor(typeReference), offset, count);
+        return this.getFromList(key, this.javaTypeOf(typeReference), offset, count);
     }
 
     @Override
@@ -654,7 +1890,7 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public <T> List<T> getFromList(final String key, final Class<T> clazz, final int offset, final int count) {
-        return this.getFromList(key, Json.mapper().readerFor(clazz), offset, count);
+        return this.getFromList(key, this.javaTypeOf(clazz), offset, count);
     }
 
     @Override
@@ -664,30 +1900,30 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public <T> List<T> getFromList(final String key, final JavaType type, final int offset, final int count) {
-        return this.getFromList(key, Json.mapper().readerFor(type), offset, count);
+        return this.getFromList(key, this.codecs.forType(type), offset, count);
     }
 
     /**
      * Get values from a list.
      *
-     * @param key    The list key
-     * @param reader The object reader
-     * @param offset From where
-     * @param count  The number of items to retrieve
-     * @param <T>    Generic type of something implementing {@code java.io.Serializable}
+     * @param key        The list key
+     * @param typedCodec The object typed codec
+     * @param offset     From where
+     * @param count      The number of items to retrieve
+     * @param <T>        Generic type of something
      * @return The values list
-     * @since 17.08.20
+     * @since 26.10.16
      */
-    private <T> List<T> getFromList(final String key, final ObjectReader reader, final int offset, final int count) {
+    <T> List<T> getFromList(final String key, final TypedCodec typedCodec, final int offset, final int count) {
         final List<T> objects = new ArrayList<>();
         try {
-            final List<String> rawData;
-            try (final Jedis jedis = this.getConnection()) {
-                rawData = jedis.lrange(key, offset, count > 0 ? count - 1 : count);
-            }
+            final List<byte[]> rawData = this.read(
+                key,
+                jedis -> jedis.lrange(SafeEncoder.encode(key), offset, count > 0 ? count - 1 : count)
+            );
             if (rawData != null) {
-                for (final String s : rawData) {
-                    objects.add(reader.readValue(s));
+                for (final byte[] data : rawData) {
+                    objects.add(typedCodec.decode(data));
                 }
             }
         } catch (final IOException | NullPointerException ex) {
@@ -698,18 +1934,19 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public boolean tryLock(final String key, final int expiration) {
-        long ret = 0;
-        try (final Jedis jedis = this.getConnection()) {
-            ret = jedis.setnx(key, "1");
-            if (ret == 1) {
-                jedis.expire(key, expiration);
-            }
+        if (expiration < 0) {
+            throw new IllegalArgumentException("The lock expiration can't be negative");
+        }
+        final SetParams params = expiration > 0 ? SetParams.setParams().nx().ex(expiration) : SetParams.setParams().nx();
+        String ret = null;
+        try {
+            ret = this.execute(key, jedis -> jedis.set(key, "1", params));
         } catch (final JedisConnectionException ex) {
             PlayRedisImpl.LOG.error("Can't connect to Redis: {}", ex.getCause().getMessage());
         } catch (final JedisDataException ex) {
             PlayRedisImpl.LOG.error("Can't connect to Redis: {}", ex.getMessage());
         }
-        return ret == 1;
+        return "OK".equals(ret);
     }
 
     @Override
@@ -719,13 +1956,29 @@ public class PlayRedisImpl implements PlayRedis {
 
     @Override
     public Long increment(final String key, final int expiration) {
-        final Long value;
-        try (final Jedis jedis = this.getConnection()) {
-            value = jedis.incr(key);
-            if (expiration > 0 && value == 1) {
-                jedis.expire(key, expiration);
+        return this.execute(key, jedis -> {
+            final Long value;
+            if (expiration > 0) {
+                value = (Long) PlayRedisImpl.SCRIPT_INCR_EXPIRE.eval(
+                    jedis,
+                    Collections.singletonList(key),
+                    Collections.singletonList(String.valueOf(expiration))
+                );
+            } else {
+                value = jedis.incr(key);
             }
-        }
-        return value;
+            this.nearCache.invalidate(jedis, key);
+            return value;
+        });
+    }
+
+    @Override
+    public Integer trainDictionary(final String keyPrefix, final int sampleCount) {
+        return this.codecs.getCompression().trainDictionary(keyPrefix, sampleCount);
+    }
+
+    @Override
+    public int installDictionary(final String keyPrefix, final byte[] dictionary) {
+        return this.codecs.getCompression().installDictionary(keyPrefix, dictionary);
     }
 }
@@ -34,7 +34,7 @@ import scala.collection.Seq;
  * your {@code application.conf} file to enable Redis module.
  *
  * @author Thibault Meyer
- * @version 17.06.26
+ * @version 26.10.16
  * @see Module
  * @since 16.03.09
  */
@@ -42,6 +42,9 @@ public class PlayRedisModule extends Module {
 
     @Override
     public Seq<Binding<?>> bindings(final Environment environment, final Configuration configuration) {
-        return seq(bind(PlayRedis.class).to(PlayRedisImpl.class));
+        return seq(
+            bind(PlayRedis.class).to(PlayRedisImpl.class),
+            bind(PlayRedisAsync.class).toProvider(PlayRedisAsyncProvider.class)
+        );
     }
 }
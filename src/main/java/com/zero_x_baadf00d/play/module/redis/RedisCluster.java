@@ -0,0 +1,631 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigValueType;
+import play.Logger;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolAbstract;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterMaxAttemptsException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisNoReachableClusterNodeException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Topology of a Redis Cluster. The owner of each hash slot is read
+ * with CLUSTER SLOTS from the seed nodes, or from the masters
+ * already known, and read again in the background. Commands are
+ * sent to the master owning the slot of their key, and the MOVED
+ * and ASK redirections sent by Redis during a resharding are
+ * followed.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisCluster {
+
+    /**
+     * Number of redirections followed.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_REDIRECTIONS = "cluster.redirections";
+
+    /**
+     * Number of topology refreshes.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_REFRESHES = "cluster.refreshes";
+
+    /**
+     * Number of hash slots of a Redis Cluster.
+     *
+     * @since 26.10.16
+     */
+    private static final int SLOTS = 16384;
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisCluster.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CLUSTER_ENABLED = "redis.cluster.enabled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CLUSTER_NODES = "redis.cluster.nodes";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CLUSTER_MAX_REDIRECTIONS = "redis.cluster.max-redirections";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CLUSTER_REFRESH_PERIOD = "redis.cluster.refresh-period";
+
+    /**
+     * Is the cluster mode enabled.
+     *
+     * @since 26.10.16
+     */
+    private final boolean enabled;
+
+    /**
+     * Nodes used to discover the cluster.
+     *
+     * @since 26.10.16
+     */
+    private final Set<HostAndPort> seeds;
+
+    /**
+     * Maximum number of redirections followed by a command.
+     *
+     * @since 26.10.16
+     */
+    private final int maxRedirections;
+
+    /**
+     * Time in milliseconds between two topology refreshes.
+     *
+     * @since 26.10.16
+     */
+    private final long refreshPeriod;
+
+    /**
+     * Connection pools, indexed by master.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<HostAndPort, JedisPoolAbstract> pools;
+
+    /**
+     * Used to wake up the refresher thread.
+     *
+     * @since 26.10.16
+     */
+    private final Object refreshMonitor;
+
+    /**
+     * Notified with the known masters after each topology refresh.
+     *
+     * @since 26.10.16
+     */
+    private final List<Consumer<List<HostAndPort>>> topologyListeners;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Master owning each hash slot.
+     *
+     * @since 26.10.16
+     */
+    private volatile HostAndPort[] slotOwners;
+
+    /**
+     * The known masters.
+     *
+     * @since 26.10.16
+     */
+    private volatile List<HostAndPort> masters;
+
+    /**
+     * Creates the connection pool of a master.
+     *
+     * @since 26.10.16
+     */
+    private volatile Function<HostAndPort, JedisPoolAbstract> poolFactory;
+
+    /**
+     * Is a topology refresh requested?
+     *
+     * @since 26.10.16
+     */
+    private boolean refreshRequested;
+
+    /**
+     * Is the refresher thread reading the topology?
+     *
+     * @since 26.10.16
+     */
+    private boolean refreshing;
+
+    /**
+     * Number of topology refreshes tried by the refresher thread.
+     *
+     * @since 26.10.16
+     */
+    private long refreshCount;
+
+    /**
+     * Thread refreshing the topology.
+     *
+     * @since 26.10.16
+     */
+    private Thread refresherThread;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisCluster(final Config configuration, final RedisMetrics metrics) {
+        this.enabled = configuration.getBoolean(RedisCluster.CLUSTER_ENABLED);
+        this.maxRedirections = configuration.getInt(RedisCluster.CLUSTER_MAX_REDIRECTIONS);
+        this.refreshPeriod = configuration.getLong(RedisCluster.CLUSTER_REFRESH_PERIOD);
+        this.seeds = new LinkedHashSet<>();
+        // Nodes can also be given as a comma separated string, which is easier to set from the environment
+        final List<String> nodes = configuration.getValue(RedisCluster.CLUSTER_NODES).valueType() == ConfigValueType.STRING
+            ? Arrays.asList(configuration.getString(RedisCluster.CLUSTER_NODES).split(","))
+            : configuration.getStringList(RedisCluster.CLUSTER_NODES);
+        for (final String node : nodes) {
+            if (node.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                this.seeds.add(HostAndPort.parseString(node.trim()));
+            } catch (final RuntimeException ex) {
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    RedisCluster.CLUSTER_NODES,
+                    "Invalid node '" + node + "', must be host:port",
+                    ex
+                );
+            }
+        }
+        if (this.enabled && this.seeds.isEmpty()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCluster.CLUSTER_NODES,
+                "Cannot be empty"
+            );
+        }
+        if (this.maxRedirections < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCluster.CLUSTER_MAX_REDIRECTIONS,
+                "Must be equal or greater than 1"
+            );
+        }
+        if (this.refreshPeriod < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCluster.CLUSTER_REFRESH_PERIOD,
+                "Must be equal or greater than 1"
+            );
+        }
+        this.pools = new ConcurrentHashMap<>();
+        this.refreshMonitor = new Object();
+        this.topologyListeners = new CopyOnWriteArrayList<>();
+        this.metrics = metrics;
+        this.slotOwners = new HostAndPort[RedisCluster.SLOTS];
+        this.masters = Collections.emptyList();
+    }
+
+    /**
+     * Get the hash slot of a key. Only the hash tag of the key is
+     * used, if it has one.
+     *
+     * @param key The key
+     * @return The hash slot
+     * @since 26.10.16
+     */
+    static int slot(final String key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    /**
+     * Check if the cluster mode is enabled.
+     *
+     * @return {@code true} if the cluster mode is enabled
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Get the maximum number of redirections followed by a command.
+     *
+     * @return The maximum number of redirections
+     * @since 26.10.16
+     */
+    int getMaxRedirections() {
+        return this.maxRedirections;
+    }
+
+    /**
+     * Get the known masters.
+     *
+     * @return The masters
+     * @since 26.10.16
+     */
+    List<HostAndPort> getMasters() {
+        return this.masters;
+    }
+
+    /**
+     * Get a master, at random.
+     *
+     * @return A master
+     * @since 26.10.16
+     */
+    HostAndPort anyMaster() {
+        final List<HostAndPort> knownMasters = this.masters;
+        if (knownMasters.isEmpty()) {
+            throw new JedisNoReachableClusterNodeException("No reachable node in cluster");
+        }
+        return knownMasters.get(ThreadLocalRandom.current().nextInt(knownMasters.size()));
+    }
+
+    /**
+     * Get the master owning a hash slot.
+     *
+     * @param slot The hash slot
+     * @return The master owning the slot
+     * @since 26.10.16
+     */
+    HostAndPort masterOf(final int slot) {
+        final HostAndPort master = this.slotOwners[slot];
+        if (master == null) {
+            this.requestRefresh();
+            return this.anyMaster();
+        }
+        return master;
+    }
+
+    /**
+     * Get a connection to a master.
+     *
+     * @param master The master
+     * @return A pooled connection
+     * @since 26.10.16
+     */
+    Jedis getConnection(final HostAndPort master) {
+        return this.pools.computeIfAbsent(master, this.poolFactory).getResource();
+    }
+
+    /**
+     * Split keys in chunks sent as a single multi-key command. In
+     * cluster mode, the keys of a chunk share the same hash slot.
+     *
+     * @param keys      The keys
+     * @param chunkSize Maximum number of keys per chunk
+     * @return The chunks
+     * @since 26.10.16
+     */
+    List<List<String>> chunks(final Collection<String> keys, final int chunkSize) {
+        final Collection<List<String>> groups;
+        if (this.enabled) {
+            final Map<Integer, List<String>> keysBySlot = new LinkedHashMap<>();
+            for (final String key : keys) {
+                keysBySlot.computeIfAbsent(RedisCluster.slot(key), slot -> new ArrayList<>()).add(key);
+            }
+            groups = keysBySlot.values();
+        } else {
+            groups = Collections.singletonList(new ArrayList<>(keys));
+        }
+        final List<List<String>> chunks = new ArrayList<>();
+        for (final List<String> group : groups) {
+            for (int idx = 0; idx < group.size(); idx += chunkSize) {
+                chunks.add(group.subList(idx, Math.min(idx + chunkSize, group.size())));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Run a command on the master owning a hash slot, following
+     * redirections. Commands are run again on another master, so
+     * they must be idempotent.
+     *
+     * @param slot    The hash slot
+     * @param command The command to run
+     * @param <T>     Generic type of something
+     * @return The command result
+     * @since 26.10.16
+     */
+    <T> T execute(final int slot, final Function<Jedis, T> command) {
+        HostAndPort master = this.masterOf(slot);
+        boolean asking = false;
+        int redirections = 0;
+        while (true) {
+            try (final Jedis jedis = this.getConnection(master)) {
+                if (asking) {
+                    jedis.asking();
+                }
+                return command.apply(jedis);
+            } catch (final JedisRedirectionException ex) {
+                if (redirections >= this.maxRedirections) {
+                    throw new JedisClusterMaxAttemptsException("Too many cluster redirections for slot " + slot, ex);
+                }
+                redirections += 1;
+                this.metrics.increment(RedisCluster.METRIC_REDIRECTIONS);
+                asking = ex instanceof JedisAskDataException;
+                if (!asking) {
+                    this.requestRefresh();
+                }
+                master = ex.getTargetNode();
+            } catch (final JedisConnectionException ex) {
+                // The master may have failed, its slots are served elsewhere once the topology is known
+                if (redirections >= this.maxRedirections) {
+                    throw ex;
+                }
+                redirections += 1;
+                this.awaitRefresh();
+                asking = false;
+                master = this.masterOf(slot);
+            }
+        }
+    }
+
+    /**
+     * Read the owner of each hash slot from the masters already
+     * known, or from the seed nodes.
+     *
+     * @return {@code true} if the topology has been read
+     * @since 26.10.16
+     */
+    @SuppressWarnings("unchecked")
+    synchronized boolean refresh() {
+        final Set<HostAndPort> candidates = new LinkedHashSet<>(this.masters);
+        candidates.addAll(this.seeds);
+        for (final HostAndPort candidate : candidates) {
+            final List<Object> clusterSlots;
+            try (final Jedis jedis = this.getConnection(candidate)) {
+                clusterSlots = jedis.clusterSlots();
+            } catch (final JedisException ex) {
+                RedisCluster.LOG.warn("Can't read cluster topology from {}: {}", candidate, ex.getMessage());
+                continue;
+            }
+            final HostAndPort[] owners = new HostAndPort[RedisCluster.SLOTS];
+            final Set<HostAndPort> knownMasters = new LinkedHashSet<>();
+            for (final Object range : clusterSlots) {
+                final List<Object> rangeInfo = (List<Object>) range;
+                final List<Object> masterInfo = (List<Object>) rangeInfo.get(2);
+                final String host = SafeEncoder.encode((byte[]) masterInfo.get(0));
+                final HostAndPort master = new HostAndPort(
+                    host.isEmpty() ? candidate.getHost() : host,
+                    ((Long) masterInfo.get(1)).intValue()
+                );
+                knownMasters.add(master);
+                for (int slot = ((Long) rangeInfo.get(0)).intValue(); slot <= ((Long) rangeInfo.get(1)).intValue(); ++slot) {
+                    owners[slot] = master;
+                }
+            }
+            this.slotOwners = owners;
+            this.masters = Collections.unmodifiableList(new ArrayList<>(knownMasters));
+            for (final Consumer<List<HostAndPort>> listener : this.topologyListeners) {
+                listener.accept(this.masters);
+            }
+            for (final HostAndPort node : this.pools.keySet()) {
+                final JedisPoolAbstract pool = knownMasters.contains(node) || this.seeds.contains(node) ? null : this.pools.remove(node);
+                if (pool != null) {
+                    pool.close();
+                }
+            }
+            this.metrics.increment(RedisCluster.METRIC_REFRESHES);
+            return true;
+        }
+        RedisCluster.LOG.error("Can't read cluster topology from any node");
+        return false;
+    }
+
+    /**
+     * Ask the refresher thread to read the topology again, without
+     * waiting for the end of the current period.
+     *
+     * @since 26.10.16
+     */
+    void requestRefresh() {
+        synchronized (this.refreshMonitor) {
+            this.refreshRequested = true;
+            this.refreshMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Ask the refresher thread to read the topology again, and wait
+     * until it has tried. Callers failing at the same time share a
+     * single refresh, instead of reading the topology one after the
+     * other. Without refresher thread, the topology is read by the
+     * caller.
+     *
+     * @since 26.10.16
+     */
+    private void awaitRefresh() {
+        synchronized (this.refreshMonitor) {
+            if (this.refresherThread != null) {
+                // A refresh in progress may have read the topology before the failure
+                final long target = this.refreshCount + (this.refreshing ? 2 : 1);
+                this.refreshRequested = true;
+                this.refreshMonitor.notifyAll();
+                while (this.refreshCount < target && this.refresherThread != null) {
+                    try {
+                        this.refreshMonitor.wait(this.refreshPeriod);
+                    } catch (final InterruptedException ignore) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                return;
+            }
+        }
+        this.refresh();
+    }
+
+    /**
+     * Register a listener notified with the known masters after each
+     * topology refresh. Listeners are called by the refreshing thread
+     * and must return quickly.
+     *
+     * @param listener The listener
+     * @since 26.10.16
+     */
+    void addTopologyListener(final Consumer<List<HostAndPort>> listener) {
+        this.topologyListeners.add(listener);
+    }
+
+    /**
+     * Close the current connections, then read the topology again.
+     *
+     * @param factory Creates the connection pool of a master
+     * @since 26.10.16
+     */
+    void reset(final Function<HostAndPort, JedisPoolAbstract> factory) {
+        this.poolFactory = factory;
+        this.closePools();
+        this.refresh();
+    }
+
+    /**
+     * Start refreshing the topology in the background.
+     *
+     * @since 26.10.16
+     */
+    void start() {
+        synchronized (this.refreshMonitor) {
+            if (!this.enabled || this.refresherThread != null) {
+                return;
+            }
+            this.refresherThread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    synchronized (this.refreshMonitor) {
+                        try {
+                            if (!this.refreshRequested) {
+                                this.refreshMonitor.wait(this.refreshPeriod);
+                            }
+                        } catch (final InterruptedException ignore) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                        this.refreshRequested = false;
+                        this.refreshing = true;
+                    }
+                    try {
+                        this.refresh();
+                    } finally {
+                        synchronized (this.refreshMonitor) {
+                            this.refreshing = false;
+                            this.refreshCount += 1;
+                            this.refreshMonitor.notifyAll();
+                        }
+                    }
+                }
+            }, "play-redis-cluster");
+            this.refresherThread.setDaemon(true);
+            this.refresherThread.start();
+        }
+    }
+
+    /**
+     * Stop refreshing the topology and close the connections.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        synchronized (this.refreshMonitor) {
+            if (this.refresherThread != null) {
+                this.refresherThread.interrupt();
+                this.refresherThread = null;
+                // Wake up the callers waiting for a refresh
+                this.refreshMonitor.notifyAll();
+            }
+        }
+        this.closePools();
+    }
+
+    /**
+     * Close the connection pools.
+     *
+     * @since 26.10.16
+     */
+    private void closePools() {
+        for (final HostAndPort node : this.pools.keySet()) {
+            final JedisPoolAbstract pool = this.pools.remove(node);
+            if (pool != null) {
+                pool.close();
+            }
+        }
+    }
+}
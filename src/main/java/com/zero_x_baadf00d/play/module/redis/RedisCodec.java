@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Codec used to convert values to bytes before storing them
+ * in Redis, and back. Values written by a codec are prefixed
+ * by its marker, allowing any node to read values whatever
+ * the codec used to write them.
+ * <p>
+ * Custom implementations must have a public no-argument
+ * constructor and be declared in {@code redis.codec.custom}.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+public interface RedisCodec {
+
+    /**
+     * Marker of values written without marker. Only usable
+     * by the JSON codec, to stay compatible with values written
+     * by previous versions of this module.
+     *
+     * @since 26.10.16
+     */
+    byte NO_MARKER = 0x00;
+
+    /**
+     * Get the codec name, used to reference it from the
+     * configuration (eg: "json").
+     *
+     * @return The codec name
+     * @since 26.10.16
+     */
+    String getName();
+
+    /**
+     * Get the marker written in front of each value. The marker
+     * must be unique and between {@code 0x01} and {@code 0x0F}.
+     *
+     * @return The codec marker
+     * @since 26.10.16
+     */
+    byte getMarker();
+
+    /**
+     * Get the mapper used to read and write values.
+     *
+     * @return The object mapper
+     * @since 26.10.16
+     */
+    ObjectMapper getMapper();
+}
@@ -0,0 +1,291 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.zero_x_baadf00d.play.module.redis.codec.CborRedisCodec;
+import com.zero_x_baadf00d.play.module.redis.codec.JsonRedisCodec;
+import com.zero_x_baadf00d.play.module.redis.codec.SmileRedisCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the available codecs. Values are written with
+ * the codec configured for their key prefix, or with the
+ * default codec. Values are read with the codec designated
+ * by their marker, whatever the current configuration is.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisCodecs {
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CODEC_DEFAULT = "redis.codec.default";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CODEC_PREFIXES = "redis.codec.prefixes";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CODEC_CUSTOM = "redis.codec.custom";
+
+    /**
+     * Highest usable marker value.
+     *
+     * @since 26.10.16
+     */
+    private static final int MARKER_MAX = 0x0F;
+
+    /**
+     * Marker values that could be the first byte of a JSON document.
+     *
+     * @since 26.10.16
+     */
+    private static final List<Integer> MARKER_FORBIDDEN = Arrays.asList(0x09, 0x0A, 0x0D);
+
+    /**
+     * Codecs, indexed by their marker.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCodec[] codecsByMarker;
+
+    /**
+     * Codec used when no prefix matches.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCodec defaultCodec;
+
+    /**
+     * Codecs indexed by key prefix, from the longest prefix to the shortest.
+     *
+     * @since 26.10.16
+     */
+    private final Map<String, RedisCodec> codecsByPrefix;
+
+    /**
+     * Typed codecs, indexed by type.
+     *
+     * @since 26.10.16
+     */
+    private final Map<JavaType, TypedCodec> typedCodecs;
+
+    /**
+     * Compression applied to the values once encoded.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCompression compression;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisCodecs(final Config configuration, final RedisMetrics metrics) {
+        this.typedCodecs = new ConcurrentHashMap<>();
+        this.compression = new RedisCompression(configuration, metrics);
+        final List<RedisCodec> availableCodecs = new ArrayList<>();
+        availableCodecs.add(new JsonRedisCodec());
+        availableCodecs.add(new SmileRedisCodec());
+        availableCodecs.add(new CborRedisCodec());
+        for (final String className : configuration.getStringList(RedisCodecs.CODEC_CUSTOM)) {
+            try {
+                final Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+                availableCodecs.add((RedisCodec) clazz.getConstructor().newInstance());
+            } catch (final ReflectiveOperationException | ClassCastException ex) {
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    RedisCodecs.CODEC_CUSTOM,
+                    "Can't instantiate codec '" + className + "'",
+                    ex
+                );
+            }
+        }
+
+        // Index codecs by name and marker
+        final Map<String, RedisCodec> codecsByName = new HashMap<>();
+        this.codecsByMarker = new RedisCodec[RedisCodecs.MARKER_MAX + 1];
+        for (final RedisCodec codec : availableCodecs) {
+            final int marker = codec.getMarker();
+            final boolean isJson = codec instanceof JsonRedisCodec;
+            if ((marker == RedisCodec.NO_MARKER && !isJson)
+                || marker < 0
+                || marker > RedisCodecs.MARKER_MAX
+                || RedisCodecs.MARKER_FORBIDDEN.contains(marker)
+                || this.codecsByMarker[marker] != null
+                || codecsByName.containsKey(codec.getName())) {
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    RedisCodecs.CODEC_CUSTOM,
+                    "Codec '" + codec.getName() + "' must have a unique name and a unique marker"
+                );
+            }
+            this.codecsByMarker[marker] = codec;
+            codecsByName.put(codec.getName(), codec);
+        }
+
+        // Resolve codecs to use
+        this.defaultCodec = RedisCodecs.resolveCodec(
+            configuration,
+            RedisCodecs.CODEC_DEFAULT,
+            codecsByName,
+            configuration.getString(RedisCodecs.CODEC_DEFAULT)
+        );
+        final List<Config> prefixesConfiguration = new ArrayList<>(configuration.getConfigList(RedisCodecs.CODEC_PREFIXES));
+        prefixesConfiguration.sort(Comparator.comparingInt((Config c) -> c.getString("prefix").length()).reversed());
+        this.codecsByPrefix = new LinkedHashMap<>();
+        for (final Config prefixConfiguration : prefixesConfiguration) {
+            this.codecsByPrefix.put(
+                prefixConfiguration.getString("prefix"),
+                RedisCodecs.resolveCodec(
+                    prefixConfiguration,
+                    "codec",
+                    codecsByName,
+                    prefixConfiguration.getString("codec")
+                )
+            );
+        }
+    }
+
+    /**
+     * Retrieves a codec by its name.
+     *
+     * @param configuration The configuration where the codec is referenced
+     * @param path          The configuration path where the codec is referenced
+     * @param codecsByName  The available codecs, indexed by name
+     * @param name          The codec name
+     * @return The codec
+     * @since 26.10.16
+     */
+    private static RedisCodec resolveCodec(final Config configuration, final String path,
+                                           final Map<String, RedisCodec> codecsByName, final String name) {
+        final RedisCodec codec = codecsByName.get(name);
+        if (codec == null) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                path,
+                "Unknown codec '" + name + "', must be one of " + codecsByName.keySet()
+            );
+        }
+        return codec;
+    }
+
+    /**
+     * Get the codec to use to write the value of the given key.
+     *
+     * @param key The key
+     * @return The codec to use
+     * @since 26.10.16
+     */
+    RedisCodec getCodec(final String key) {
+        for (final Map.Entry<String, RedisCodec> entry : this.codecsByPrefix.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return this.defaultCodec;
+    }
+
+    /**
+     * Get the codec designated by the marker of the given value.
+     * Values without marker are read with the JSON codec.
+     *
+     * @param data The value bytes
+     * @return The codec to use to read the value
+     * @since 26.10.16
+     */
+    RedisCodec getCodec(final byte[] data) {
+        return this.getCodec(data, 0);
+    }
+
+    /**
+     * Get the codec designated by the marker of the given value,
+     * starting at the given offset. Values without marker are read
+     * with the JSON codec.
+     *
+     * @param data   The value bytes
+     * @param offset The offset of the value in the bytes
+     * @return The codec to use to read the value
+     * @since 26.10.16
+     */
+    RedisCodec getCodec(final byte[] data, final int offset) {
+        final RedisCodec codec = data.length > offset && data[offset] >= 0 && data[offset] <= RedisCodecs.MARKER_MAX
+            ? this.codecsByMarker[data[offset]]
+            : null;
+        return codec == null ? this.codecsByMarker[RedisCodec.NO_MARKER] : codec;
+    }
+
+    /**
+     * Get all available codecs, indexed by their marker.
+     *
+     * @return The available codecs
+     * @since 26.10.16
+     */
+    List<RedisCodec> getCodecs() {
+        return Collections.unmodifiableList(Arrays.asList(this.codecsByMarker));
+    }
+
+    /**
+     * Get the compression applied to the values once encoded.
+     *
+     * @return The compression
+     * @since 26.10.16
+     */
+    RedisCompression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * Get the typed codec of the given type. Typed codecs are
+     * created once per type and keep their readers and writers.
+     *
+     * @param javaType The value type
+     * @return The typed codec
+     * @since 26.10.16
+     */
+    TypedCodec forType(final JavaType javaType) {
+        return this.typedCodecs.computeIfAbsent(javaType, type -> new TypedCodec(this, type));
+    }
+}
@@ -0,0 +1,810 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import play.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Compresses values bigger than the configured threshold. A
+ * compressed value starts with a header byte designating the
+ * algorithm, followed by the uncompressed size on 4 bytes.
+ * Values of keys matching the prefix of a trained dictionary
+ * are compressed with Zstd and this dictionary, and also
+ * carry the dictionary id. Compressed values are always
+ * decompressed, whatever the current configuration is.
+ * Instances are thread-safe.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisCompression {
+
+    /**
+     * Header of values compressed with LZ4. Header values are
+     * outside of the codecs markers range.
+     *
+     * @since 26.10.16
+     */
+    static final int HEADER_LZ4 = 0x10;
+
+    /**
+     * Header of values compressed with Zstd.
+     *
+     * @since 26.10.16
+     */
+    static final int HEADER_ZSTD = 0x11;
+
+    /**
+     * Header of values compressed with Zstd and a trained dictionary.
+     *
+     * @since 26.10.16
+     */
+    static final int HEADER_ZSTD_DICTIONARY = 0x12;
+
+    /**
+     * Number of values compressed.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_COMPRESS_COUNT = "compression.count";
+
+    /**
+     * Number of values compressed with a trained dictionary.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_COMPRESS_DICTIONARY_COUNT = "compression.dictionary-count";
+
+    /**
+     * Total size of the values before compression.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_COMPRESS_BYTES_IN = "compression.bytes-in";
+
+    /**
+     * Total size of the values after compression. The ratio is
+     * given by {@code bytes-out / bytes-in}.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_COMPRESS_BYTES_OUT = "compression.bytes-out";
+
+    /**
+     * Time spent compressing values, in nanoseconds.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_COMPRESS_NANOS = "compression.time-nanos";
+
+    /**
+     * Number of values decompressed.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_DECOMPRESS_COUNT = "decompression.count";
+
+    /**
+     * Time spent decompressing values, in nanoseconds.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_DECOMPRESS_NANOS = "decompression.time-nanos";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisCompression.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_ALGORITHM = "redis.compression.algorithm";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_THRESHOLD = "redis.compression.threshold";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_ZSTD_LEVEL = "redis.compression.zstd-level";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_MAXSIZE = "redis.compression.maxsize";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_DICTIONARY_KEY = "redis.compression.dictionary.key";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_DICTIONARY_THRESHOLD = "redis.compression.dictionary.threshold";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String COMPRESSION_DICTIONARY_MAXSIZE = "redis.compression.dictionary.maxsize";
+
+    /**
+     * Size of the header (algorithm and uncompressed size).
+     *
+     * @since 26.10.16
+     */
+    private static final int HEADER_SIZE = 5;
+
+    /**
+     * Size of the header of values compressed with a dictionary
+     * (algorithm, dictionary id and uncompressed size).
+     *
+     * @since 26.10.16
+     */
+    private static final int HEADER_DICTIONARY_SIZE = 9;
+
+    /**
+     * Number of keys fetched at once to collect training samples.
+     *
+     * @since 26.10.16
+     */
+    private static final int SAMPLES_SCAN_COUNT = 500;
+
+    /**
+     * Header of the algorithm used to compress values, or
+     * {@code 0} if values must not be compressed.
+     *
+     * @since 26.10.16
+     */
+    private final int header;
+
+    /**
+     * Values smaller than this size are not compressed.
+     *
+     * @since 26.10.16
+     */
+    private final int threshold;
+
+    /**
+     * Zstd compression level.
+     *
+     * @since 26.10.16
+     */
+    private final int zstdLevel;
+
+    /**
+     * Maximum size of a decompressed value.
+     *
+     * @since 26.10.16
+     */
+    private final int maxSize;
+
+    /**
+     * Prefix of the Redis keys where dictionaries are stored.
+     *
+     * @since 26.10.16
+     */
+    private final String dictionaryKey;
+
+    /**
+     * Values smaller than this size are not compressed with a dictionary.
+     *
+     * @since 26.10.16
+     */
+    private final int dictionaryThreshold;
+
+    /**
+     * Maximum size of a trained dictionary.
+     *
+     * @since 26.10.16
+     */
+    private final int dictionaryMaxSize;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Dictionaries used to decompress values, indexed by id.
+     *
+     * @since 26.10.16
+     */
+    private final Map<Integer, ZstdDictDecompress> decompressDictionaries;
+
+    /**
+     * Dictionaries used to compress values, indexed by key prefix,
+     * from the longest prefix to the shortest. Replaced as a whole
+     * when a dictionary is installed.
+     *
+     * @since 26.10.16
+     */
+    private volatile Map<String, CompressionDictionary> compressDictionaries;
+
+    /**
+     * Supplier of Redis connections, used to load dictionaries.
+     *
+     * @since 26.10.16
+     */
+    private volatile Supplier<Jedis> connectionSupplier;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisCompression(final Config configuration, final RedisMetrics metrics) {
+        this.metrics = metrics;
+        this.threshold = configuration.getInt(RedisCompression.COMPRESSION_THRESHOLD);
+        this.zstdLevel = configuration.getInt(RedisCompression.COMPRESSION_ZSTD_LEVEL);
+        this.maxSize = configuration.getInt(RedisCompression.COMPRESSION_MAXSIZE);
+        this.dictionaryKey = configuration.getString(RedisCompression.COMPRESSION_DICTIONARY_KEY);
+        this.dictionaryThreshold = configuration.getInt(RedisCompression.COMPRESSION_DICTIONARY_THRESHOLD);
+        this.dictionaryMaxSize = configuration.getInt(RedisCompression.COMPRESSION_DICTIONARY_MAXSIZE);
+        this.decompressDictionaries = new ConcurrentHashMap<>();
+        this.compressDictionaries = Collections.emptyMap();
+        final String algorithm = configuration.getString(RedisCompression.COMPRESSION_ALGORITHM);
+        switch (algorithm) {
+            case "none":
+                this.header = 0;
+                break;
+            case "lz4":
+                this.header = RedisCompression.HEADER_LZ4;
+                break;
+            case "zstd":
+                this.header = RedisCompression.HEADER_ZSTD;
+                break;
+            default:
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    RedisCompression.COMPRESSION_ALGORITHM,
+                    "Unknown algorithm '" + algorithm + "', must be one of [none, lz4, zstd]"
+                );
+        }
+        if (this.threshold < 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCompression.COMPRESSION_THRESHOLD,
+                "Must be equal or greater than 0"
+            );
+        }
+        if (this.zstdLevel < 1 || this.zstdLevel > 22) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCompression.COMPRESSION_ZSTD_LEVEL,
+                "Must be between 1 and 22"
+            );
+        }
+        if (this.maxSize < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCompression.COMPRESSION_MAXSIZE,
+                "Must be greater than 0"
+            );
+        }
+        if (this.dictionaryKey.isEmpty()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCompression.COMPRESSION_DICTIONARY_KEY,
+                "Cannot be empty"
+            );
+        }
+        if (this.dictionaryThreshold < 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCompression.COMPRESSION_DICTIONARY_THRESHOLD,
+                "Must be equal or greater than 0"
+            );
+        }
+        if (this.dictionaryMaxSize < 1024) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisCompression.COMPRESSION_DICTIONARY_MAXSIZE,
+                "Must be equal or greater than 1024"
+            );
+        }
+    }
+
+    /**
+     * Get the prefix of the Redis keys where dictionaries are stored.
+     *
+     * @return The dictionary key prefix
+     * @since 26.10.16
+     */
+    String getDictionaryKey() {
+        return this.dictionaryKey;
+    }
+
+    /**
+     * Loads the current dictionary of each key prefix. Values can
+     * be read if Redis is not reachable yet, their dictionary will
+     * be loaded on first use.
+     *
+     * @param supplier Supplier of Redis connections
+     * @since 26.10.16
+     */
+    void start(final Supplier<Jedis> supplier) {
+        this.connectionSupplier = supplier;
+        try (final Jedis jedis = supplier.get()) {
+            final Map<String, String> currentDictionaries = jedis.hgetAll(this.dictionaryKey + "current");
+            for (final Map.Entry<String, String> entry : currentDictionaries.entrySet()) {
+                final int id = Integer.parseInt(entry.getValue());
+                final byte[] dictionary = jedis.get(SafeEncoder.encode(this.dictionaryKey + id));
+                if (dictionary != null) {
+                    this.registerDictionary(entry.getKey(), id, dictionary);
+                }
+            }
+        } catch (final JedisException | NumberFormatException ex) {
+            RedisCompression.LOG.error("Can't load compression dictionaries", ex);
+        }
+    }
+
+    /**
+     * Trains a dictionary from values stored under the given key
+     * prefix, then installs it. In cluster mode, values are only
+     * sampled from the master holding the dictionaries.
+     *
+     * @param keyPrefix   The key prefix
+     * @param sampleCount The maximum number of values to sample
+     * @return The dictionary id, or {@code null} if the dictionary can't be trained
+     * @since 26.10.16
+     */
+    Integer trainDictionary(final String keyPrefix, final int sampleCount) {
+        final List<byte[]> samples = new ArrayList<>();
+        int samplesSize = 0;
+        try (final Jedis jedis = this.connectionSupplier.get()) {
+            final ScanParams scanParams = new ScanParams()
+                .match(PlayRedisImpl.escapeGlob(keyPrefix) + "*")
+                .count(RedisCompression.SAMPLES_SCAN_COUNT);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                final ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+                cursor = scanResult.getCursor();
+                final List<String> keys = scanResult.getResult();
+                if (keys.isEmpty()) {
+                    continue;
+                }
+                // In cluster mode, scanned keys may not share the same hash slot: no MGET
+                final Pipeline pipeline = jedis.pipelined();
+                final List<Response<byte[]>> responses = new ArrayList<>();
+                for (final String key : keys) {
+                    responses.add(pipeline.get(SafeEncoder.encode(key)));
+                }
+                pipeline.sync();
+                for (final Response<byte[]> response : responses) {
+                    final byte[] rawData = response.get();
+                    if (rawData != null && samples.size() < sampleCount) {
+                        try {
+                            final byte[] sample = this.decompress(rawData);
+                            samples.add(sample);
+                            samplesSize += sample.length;
+                        } catch (final IOException ignore) {
+                            // Values that can't be read are not used as samples
+                        }
+                    }
+                }
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor) && samples.size() < sampleCount);
+        }
+
+        final ZstdDictTrainer trainer = new ZstdDictTrainer(samplesSize, this.dictionaryMaxSize);
+        for (final byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        final byte[] dictionary;
+        try {
+            dictionary = trainer.trainSamples();
+        } catch (final ZstdException ex) {
+            RedisCompression.LOG.error("Can't train dictionary for prefix '{}' from {} samples", keyPrefix, samples.size(), ex);
+            return null;
+        }
+        return this.installDictionary(keyPrefix, dictionary);
+    }
+
+    /**
+     * Stores the given dictionary under a new id, and makes it the
+     * current dictionary of the key prefix. Other nodes use it to
+     * compress values once restarted, and to decompress values as
+     * soon as they meet it.
+     *
+     * @param keyPrefix  The key prefix
+     * @param dictionary The dictionary
+     * @return The dictionary id
+     * @since 26.10.16
+     */
+    int installDictionary(final String keyPrefix, final byte[] dictionary) {
+        final int id;
+        try (final Jedis jedis = this.connectionSupplier.get()) {
+            id = jedis.incr(this.dictionaryKey + "id").intValue();
+            jedis.set(SafeEncoder.encode(this.dictionaryKey + id), dictionary);
+            jedis.hset(this.dictionaryKey + "current", keyPrefix, String.valueOf(id));
+        }
+        this.registerDictionary(keyPrefix, id, dictionary);
+        return id;
+    }
+
+    /**
+     * Makes the given dictionary the one used to compress values of
+     * the key prefix.
+     *
+     * @param keyPrefix  The key prefix
+     * @param id         The dictionary id
+     * @param dictionary The dictionary
+     * @since 26.10.16
+     */
+    private synchronized void registerDictionary(final String keyPrefix, final int id, final byte[] dictionary) {
+        this.decompressDictionaries.putIfAbsent(id, new ZstdDictDecompress(dictionary));
+        final List<String> prefixes = new ArrayList<>(this.compressDictionaries.keySet());
+        if (!prefixes.contains(keyPrefix)) {
+            prefixes.add(keyPrefix);
+        }
+        prefixes.sort(Comparator.comparingInt(String::length).reversed());
+        final Map<String, CompressionDictionary> dictionaries = new LinkedHashMap<>();
+        for (final String prefix : prefixes) {
+            dictionaries.put(
+                prefix,
+                prefix.equals(keyPrefix)
+                    ? new CompressionDictionary(id, new ZstdDictCompress(dictionary, this.zstdLevel))
+                    : this.compressDictionaries.get(prefix)
+            );
+        }
+        this.compressDictionaries = Collections.unmodifiableMap(dictionaries);
+    }
+
+    /**
+     * Get the dictionary to use to compress the value of the given key.
+     *
+     * @param key The key
+     * @return The dictionary, or {@code null}
+     * @since 26.10.16
+     */
+    private CompressionDictionary getCompressDictionary(final String key) {
+        for (final Map.Entry<String, CompressionDictionary> entry : this.compressDictionaries.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the dictionary to use to decompress values. Dictionaries
+     * not known yet are loaded from Redis.
+     *
+     * @param id The dictionary id
+     * @return The dictionary
+     * @throws IOException If the dictionary can't be loaded
+     * @since 26.10.16
+     */
+    private ZstdDictDecompress getDecompressDictionary(final int id) throws IOException {
+        final ZstdDictDecompress dictionary = this.decompressDictionaries.get(id);
+        if (dictionary != null) {
+            return dictionary;
+        }
+        if (this.connectionSupplier == null) {
+            throw new IOException("Can't load dictionary #" + id + ", Redis is not available yet");
+        }
+        final byte[] rawDictionary;
+        try (final Jedis jedis = this.connectionSupplier.get()) {
+            rawDictionary = jedis.get(SafeEncoder.encode(this.dictionaryKey + id));
+        } catch (final JedisException ex) {
+            throw new IOException("Can't load dictionary #" + id, ex);
+        }
+        if (rawDictionary == null) {
+            throw new IOException("Unknown dictionary #" + id);
+        }
+        return this.decompressDictionaries.computeIfAbsent(id, k -> new ZstdDictDecompress(rawDictionary));
+    }
+
+    /**
+     * Compresses the given value if it is big enough. The value
+     * is returned as is if compression does not reduce its size.
+     *
+     * @param key  The key the value will be stored at
+     * @param data The value bytes
+     * @return The value bytes, compressed or not
+     * @since 26.10.16
+     */
+    byte[] compress(final String key, final byte[] data) {
+        final CompressionDictionary dictionary = data.length < this.dictionaryThreshold
+            ? null
+            : this.getCompressDictionary(key);
+        if (dictionary == null && (this.header == 0 || data.length < this.threshold)) {
+            return data;
+        }
+
+        final long start = System.nanoTime();
+        final byte[] compressed;
+        final int headerSize;
+        final int compressedLength;
+        if (dictionary != null) {
+            headerSize = RedisCompression.HEADER_DICTIONARY_SIZE;
+            compressed = new byte[headerSize + (int) Zstd.compressBound(data.length)];
+            final long ret = Zstd.compressFastDict(compressed, headerSize, data, 0, data.length, dictionary.compressDictionary);
+            if (Zstd.isError(ret)) {
+                RedisCompression.LOG.error("Can't compress value: {}", Zstd.getErrorName(ret));
+                return data;
+            }
+            compressedLength = (int) ret;
+            compressed[0] = (byte) RedisCompression.HEADER_ZSTD_DICTIONARY;
+            RedisCompression.writeInt(compressed, 1, dictionary.id);
+            RedisCompression.writeInt(compressed, 5, data.length);
+            this.metrics.increment(RedisCompression.METRIC_COMPRESS_DICTIONARY_COUNT);
+        } else if (this.header == RedisCompression.HEADER_LZ4) {
+            final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+            headerSize = RedisCompression.HEADER_SIZE;
+            compressed = new byte[headerSize + compressor.maxCompressedLength(data.length)];
+            compressedLength = compressor.compress(
+                data, 0, data.length,
+                compressed, headerSize, compressed.length - headerSize
+            );
+            compressed[0] = (byte) this.header;
+            RedisCompression.writeInt(compressed, 1, data.length);
+        } else {
+            headerSize = RedisCompression.HEADER_SIZE;
+            compressed = new byte[headerSize + (int) Zstd.compressBound(data.length)];
+            final long ret = Zstd.compressByteArray(
+                compressed, headerSize, compressed.length - headerSize,
+                data, 0, data.length,
+                this.zstdLevel
+            );
+            if (Zstd.isError(ret)) {
+                RedisCompression.LOG.error("Can't compress value: {}", Zstd.getErrorName(ret));
+                return data;
+            }
+            compressedLength = (int) ret;
+            compressed[0] = (byte) this.header;
+            RedisCompression.writeInt(compressed, 1, data.length);
+        }
+        this.metrics.add(RedisCompression.METRIC_COMPRESS_NANOS, System.nanoTime() - start);
+        this.metrics.increment(RedisCompression.METRIC_COMPRESS_COUNT);
+        this.metrics.add(RedisCompression.METRIC_COMPRESS_BYTES_IN, data.length);
+
+        final int totalLength = headerSize + compressedLength;
+        if (totalLength >= data.length) {
+            this.metrics.add(RedisCompression.METRIC_COMPRESS_BYTES_OUT, data.length);
+            return data;
+        }
+        this.metrics.add(RedisCompression.METRIC_COMPRESS_BYTES_OUT, totalLength);
+        return Arrays.copyOf(compressed, totalLength);
+    }
+
+    /**
+     * Decompresses the given value if it has been compressed. The
+     * size read from the header is checked before allocating the
+     * decompressed value, and must match the decompressed size.
+     *
+     * @param data The value bytes, compressed or not
+     * @return The value bytes
+     * @throws IOException If the value can't be decompressed
+     * @since 26.10.16
+     */
+    byte[] decompress(final byte[] data) throws IOException {
+        if (!RedisCompression.isCompressed(data)) {
+            return data;
+        }
+
+        final long start = System.nanoTime();
+        final byte[] decompressed;
+        if (data[0] == RedisCompression.HEADER_LZ4) {
+            decompressed = new byte[this.readSize(data, 1)];
+            final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+            final int ret;
+            try {
+                ret = decompressor.decompress(
+                    data, RedisCompression.HEADER_SIZE, data.length - RedisCompression.HEADER_SIZE,
+                    decompressed, 0, decompressed.length
+                );
+            } catch (final LZ4Exception ex) {
+                throw new IOException("Can't decompress LZ4 value", ex);
+            }
+            if (ret != decompressed.length) {
+                throw new IOException("Can't decompress LZ4 value: " + ret + " bytes instead of " + decompressed.length);
+            }
+        } else if (data[0] == RedisCompression.HEADER_ZSTD) {
+            decompressed = new byte[this.readSize(data, 1)];
+            final long ret;
+            try {
+                ret = Zstd.decompressByteArray(
+                    decompressed, 0, decompressed.length,
+                    data, RedisCompression.HEADER_SIZE, data.length - RedisCompression.HEADER_SIZE
+                );
+            } catch (final ZstdException ex) {
+                throw new IOException("Can't decompress Zstd value", ex);
+            }
+            RedisCompression.checkZstdSize(ret, decompressed.length);
+        } else {
+            final ZstdDictDecompress dictionary = this.getDecompressDictionary(RedisCompression.readInt(data, 1));
+            decompressed = new byte[this.readSize(data, 5)];
+            final long ret;
+            try {
+                ret = Zstd.decompressFastDict(
+                    decompressed, 0,
+                    data, RedisCompression.HEADER_DICTIONARY_SIZE, data.length - RedisCompression.HEADER_DICTIONARY_SIZE,
+                    dictionary
+                );
+            } catch (final ZstdException ex) {
+                throw new IOException("Can't decompress Zstd value", ex);
+            }
+            RedisCompression.checkZstdSize(ret, decompressed.length);
+        }
+        this.metrics.add(RedisCompression.METRIC_DECOMPRESS_NANOS, System.nanoTime() - start);
+        this.metrics.increment(RedisCompression.METRIC_DECOMPRESS_COUNT);
+        return decompressed;
+    }
+
+    /**
+     * Checks if the given value has been compressed.
+     *
+     * @param data The value bytes
+     * @return {@code true} if the value starts with a compression header
+     * @since 26.10.16
+     */
+    static boolean isCompressed(final byte[] data) {
+        if (data.length > RedisCompression.HEADER_SIZE
+            && (data[0] == RedisCompression.HEADER_LZ4 || data[0] == RedisCompression.HEADER_ZSTD)) {
+            return true;
+        }
+        return data.length > RedisCompression.HEADER_DICTIONARY_SIZE && data[0] == RedisCompression.HEADER_ZSTD_DICTIONARY;
+    }
+
+    /**
+     * Writes a 4 bytes integer in the given buffer.
+     *
+     * @param buffer The buffer
+     * @param offset The offset
+     * @param value  The value
+     * @since 26.10.16
+     */
+    private static void writeInt(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reads the decompressed size from the header of a value.
+     *
+     * @param data   The compressed value
+     * @param offset The offset of the size in the header
+     * @return The decompressed size
+     * @throws IOException If the size is corrupted or too big
+     * @since 26.10.16
+     */
+    private int readSize(final byte[] data, final int offset) throws IOException {
+        if (data.length < offset + 4) {
+            throw new IOException("Can't decompress value: truncated header");
+        }
+        final int size = RedisCompression.readInt(data, offset);
+        if (size < 0 || size > this.maxSize) {
+            throw new IOException("Can't decompress value: invalid size " + size + ", must be between 0 and " + this.maxSize);
+        }
+        return size;
+    }
+
+    /**
+     * Checks the result of a Zstd decompression.
+     *
+     * @param ret  The value returned by Zstd
+     * @param size The decompressed size read from the header
+     * @throws IOException If the decompression failed, or gave another size
+     * @since 26.10.16
+     */
+    private static void checkZstdSize(final long ret, final int size) throws IOException {
+        if (Zstd.isError(ret)) {
+            throw new IOException("Can't decompress Zstd value: " + Zstd.getErrorName(ret));
+        }
+        if (ret != size) {
+            throw new IOException("Can't decompress Zstd value: " + ret + " bytes instead of " + size);
+        }
+    }
+
+    /**
+     * Reads a 4 bytes integer from the given buffer.
+     *
+     * @param buffer The buffer
+     * @param offset The offset
+     * @return The value
+     * @since 26.10.16
+     */
+    private static int readInt(final byte[] buffer, final int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+            | ((buffer[offset + 1] & 0xFF) << 16)
+            | ((buffer[offset + 2] & 0xFF) << 8)
+            | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Dictionary used to compress values.
+     *
+     * @since 26.10.16
+     */
+    private static final class CompressionDictionary {
+
+        /**
+         * The dictionary id.
+         *
+         * @since 26.10.16
+         */
+        private final int id;
+
+        /**
+         * The prepared dictionary.
+         *
+         * @since 26.10.16
+         */
+        private final ZstdDictCompress compressDictionary;
+
+        /**
+         * Build a new instance.
+         *
+         * @param id                 The dictionary id
+         * @param compressDictionary The prepared dictionary
+         * @since 26.10.16
+         */
+        CompressionDictionary(final int id, final ZstdDictCompress compressDictionary) {
+            this.id = id;
+            this.compressDictionary = compressDictionary;
+        }
+    }
+}
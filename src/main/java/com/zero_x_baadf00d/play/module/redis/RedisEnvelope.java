@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+/**
+ * A value read from Redis, with its soft expiration and the
+ * time it took to compute it. Values written with one of them
+ * are stored in an envelope: {@code [0x18][soft expiration
+ * timestamp, 8 bytes][compute time, 4 bytes][value]},
+ * compressed as a whole if needed.
+ *
+ * @param <T> Generic type of something
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisEnvelope<T> {
+
+    /**
+     * Header of values stored in an envelope. Chosen outside of
+     * the codecs markers and compression headers ranges.
+     *
+     * @since 26.10.16
+     */
+    static final int HEADER_ENVELOPE = 0x18;
+
+    /**
+     * Size of the envelope header.
+     *
+     * @since 26.10.16
+     */
+    static final int HEADER_SIZE = 13;
+
+    /**
+     * The value.
+     *
+     * @since 26.10.16
+     */
+    private final T value;
+
+    /**
+     * Timestamp (in milliseconds) after which the value is stale, or {@code 0}.
+     *
+     * @since 26.10.16
+     */
+    private final long softExpiresAt;
+
+    /**
+     * Time in milliseconds it took to compute the value, or {@code 0}.
+     *
+     * @since 26.10.16
+     */
+    private final int computeTime;
+
+    /**
+     * Timestamp (in milliseconds) when Redis expires the value, or {@code 0} if unknown.
+     *
+     * @since 26.10.16
+     */
+    private final long expiresAt;
+
+    /**
+     * Build a new instance.
+     *
+     * @param value         The value
+     * @param softExpiresAt Timestamp (in milliseconds) after which the value is stale, or {@code 0}
+     * @param computeTime   Time in milliseconds it took to compute the value, or {@code 0}
+     * @param expiresAt     Timestamp (in milliseconds) when Redis expires the value, or {@code 0}
+     * @since 26.10.16
+     */
+    RedisEnvelope(final T value, final long softExpiresAt, final int computeTime, final long expiresAt) {
+        this.value = value;
+        this.softExpiresAt = softExpiresAt;
+        this.computeTime = computeTime;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Build a new instance, without envelope information.
+     *
+     * @param value The value
+     * @since 26.10.16
+     */
+    RedisEnvelope(final T value) {
+        this(value, 0, 0, 0);
+    }
+
+    /**
+     * Get a copy of this instance knowing when Redis expires the value.
+     *
+     * @param ttl The remaining time to live in milliseconds, as returned by PTTL
+     * @return A new instance
+     * @since 26.10.16
+     */
+    RedisEnvelope<T> withTtl(final long ttl) {
+        return new RedisEnvelope<>(
+            this.value,
+            this.softExpiresAt,
+            this.computeTime,
+            ttl > 0 ? System.currentTimeMillis() + ttl : 0
+        );
+    }
+
+    /**
+     * Get the value.
+     *
+     * @return The value
+     * @since 26.10.16
+     */
+    T getValue() {
+        return this.value;
+    }
+
+    /**
+     * Get the time it took to compute the value.
+     *
+     * @return The time in milliseconds, or {@code 0} if unknown
+     * @since 26.10.16
+     */
+    int getComputeTime() {
+        return this.computeTime;
+    }
+
+    /**
+     * Get the time after which the value must be computed again:
+     * its soft expiration if any, otherwise its Redis expiration.
+     *
+     * @return Timestamp in milliseconds, or {@code 0} if unknown
+     * @since 26.10.16
+     */
+    long getExpiresAt() {
+        return this.softExpiresAt > 0 ? this.softExpiresAt : this.expiresAt;
+    }
+
+    /**
+     * Check if the value is stale.
+     *
+     * @param now The current timestamp in milliseconds
+     * @return {@code true} if the value has a soft expiration and it is reached
+     * @since 26.10.16
+     */
+    boolean isStale(final long now) {
+        return this.softExpiresAt > 0 && now >= this.softExpiresAt;
+    }
+
+    /**
+     * Checks if the given value is stored in an envelope.
+     *
+     * @param data The value bytes, decompressed
+     * @return {@code true} if the value starts with an envelope header
+     * @since 26.10.16
+     */
+    static boolean isEnvelope(final byte[] data) {
+        return data.length > RedisEnvelope.HEADER_SIZE && data[0] == RedisEnvelope.HEADER_ENVELOPE;
+    }
+
+    /**
+     * Writes the envelope header.
+     *
+     * @param byteArrayBuilder The buffer to write to
+     * @param softExpiresAt    Timestamp (in milliseconds) after which the value is stale, or {@code 0}
+     * @param computeTime      Time in milliseconds it took to compute the value, or {@code 0}
+     * @since 26.10.16
+     */
+    static void writeHeader(final ByteArrayBuilder byteArrayBuilder, final long softExpiresAt, final int computeTime) {
+        byteArrayBuilder.write(RedisEnvelope.HEADER_ENVELOPE);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            byteArrayBuilder.write((int) (softExpiresAt >>> shift) & 0xFF);
+        }
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            byteArrayBuilder.write((computeTime >>> shift) & 0xFF);
+        }
+    }
+
+    /**
+     * Reads the soft expiration from the envelope header.
+     *
+     * @param data The value bytes, decompressed
+     * @return Timestamp (in milliseconds) after which the value is stale
+     * @since 26.10.16
+     */
+    static long readSoftExpiresAt(final byte[] data) {
+        long softExpiresAt = 0;
+        for (int idx = 1; idx < 9; ++idx) {
+            softExpiresAt = (softExpiresAt << 8) | (data[idx] & 0xFF);
+        }
+        return softExpiresAt;
+    }
+
+    /**
+     * Reads the compute time from the envelope header.
+     *
+     * @param data The value bytes, decompressed
+     * @return Time in milliseconds it took to compute the value, or {@code 0}
+     * @since 26.10.16
+     */
+    static int readComputeTime(final byte[] data) {
+        int computeTime = 0;
+        for (int idx = 9; idx < RedisEnvelope.HEADER_SIZE; ++idx) {
+            computeTime = (computeTime << 8) | (data[idx] & 0xFF);
+        }
+        return computeTime;
+    }
+}
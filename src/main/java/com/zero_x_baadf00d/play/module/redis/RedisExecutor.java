@@ -0,0 +1,285 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import play.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor running blocking Redis calls on behalf of
+ * asynchronous APIs, to keep them out of the common pool.
+ * Tasks submitted while the queue is full are rejected with
+ * a {@code RejectedExecutionException}.
+ * <p>
+ * In {@code virtual} mode, each task runs on its own virtual
+ * thread (Java 21+) and a semaphore caps the number of tasks
+ * running at the same time, waiting tasks being parked instead
+ * of piling up in the pool borrow queue.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisExecutor implements Executor {
+
+    /**
+     * Number of tasks waiting for a thread.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_QUEUE_DEPTH = "executor.queue-depth";
+
+    /**
+     * Number of threads running a task.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_ACTIVE = "executor.active";
+
+    /**
+     * Number of rejected tasks.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_REJECTED = "executor.rejected";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String EXECUTOR_MODE = "redis.executor.mode";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String EXECUTOR_THREADS = "redis.executor.threads";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String EXECUTOR_QUEUE_SIZE = "redis.executor.queue-size";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String CONN_MAXTOTAL = "redis.conn.maxtotal";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisExecutor.class);
+
+    /**
+     * The underlying executor.
+     *
+     * @since 26.10.16
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * Running tasks cap, only used with virtual threads.
+     *
+     * @since 26.10.16
+     */
+    private final Semaphore permits;
+
+    /**
+     * Number of tasks submitted and not yet completed, only used with virtual threads.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicInteger inFlight;
+
+    /**
+     * Maximum number of tasks submitted and not yet completed, only used with virtual threads.
+     *
+     * @since 26.10.16
+     */
+    private final int maxInFlight;
+
+    /**
+     * The module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisExecutor(final Config configuration, final RedisMetrics metrics) {
+        final String mode = configuration.getString(RedisExecutor.EXECUTOR_MODE);
+        final int configuredThreads = configuration.getInt(RedisExecutor.EXECUTOR_THREADS);
+        final int queueSize = configuration.getInt(RedisExecutor.EXECUTOR_QUEUE_SIZE);
+        if (!"platform".equals(mode) && !"virtual".equals(mode)) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisExecutor.EXECUTOR_MODE,
+                "Unknown mode '" + mode + "', must be one of [platform, virtual]"
+            );
+        }
+        if (configuredThreads < 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisExecutor.EXECUTOR_THREADS,
+                "Must be equal or greater than 0"
+            );
+        }
+        if (queueSize < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisExecutor.EXECUTOR_QUEUE_SIZE,
+                "Must be equal or greater than 1"
+            );
+        }
+
+        // Running more tasks than pooled connections would only make them wait for a connection
+        final int threads = configuredThreads == 0 ? configuration.getInt(RedisExecutor.CONN_MAXTOTAL) : configuredThreads;
+        final ExecutorService virtualExecutor = "virtual".equals(mode) ? RedisExecutor.newVirtualThreadExecutor() : null;
+        this.metrics = metrics;
+        if (virtualExecutor != null) {
+            this.executorService = virtualExecutor;
+            this.permits = new Semaphore(threads);
+            this.inFlight = new AtomicInteger();
+            this.maxInFlight = threads + queueSize;
+            metrics.gauge(RedisExecutor.METRIC_QUEUE_DEPTH, this.permits::getQueueLength);
+            metrics.gauge(RedisExecutor.METRIC_ACTIVE, () -> threads - this.permits.availablePermits());
+        } else {
+            final ThreadPoolExecutor threadPoolExecutor = RedisExecutor.newPlatformThreadExecutor(threads, queueSize, metrics);
+            this.executorService = threadPoolExecutor;
+            this.permits = null;
+            this.inFlight = null;
+            this.maxInFlight = 0;
+            metrics.gauge(RedisExecutor.METRIC_QUEUE_DEPTH, () -> threadPoolExecutor.getQueue().size());
+            metrics.gauge(RedisExecutor.METRIC_ACTIVE, threadPoolExecutor::getActiveCount);
+        }
+    }
+
+    /**
+     * Build the bounded platform threads pool.
+     *
+     * @param threads   The number of threads
+     * @param queueSize The maximum number of waiting tasks
+     * @param metrics   The module metrics
+     * @return The thread pool
+     * @since 26.10.16
+     */
+    private static ThreadPoolExecutor newPlatformThreadExecutor(final int threads, final int queueSize, final RedisMetrics metrics) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "play-redis-executor-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            threadFactory,
+            (runnable, executor) -> {
+                metrics.increment(RedisExecutor.METRIC_REJECTED);
+                new ThreadPoolExecutor.AbortPolicy().rejectedExecution(runnable, executor);
+            }
+        );
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Build a virtual thread per task executor. The method is resolved at
+     * runtime as the module is still built for Java 8.
+     *
+     * @return The executor, or {@code null} if the JVM does not support virtual threads
+     * @since 26.10.16
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException ex) {
+            RedisExecutor.LOG.warn(
+                "Virtual threads are not available on Java {}, falling back to platform threads",
+                System.getProperty("java.version")
+            );
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (this.permits == null) {
+            this.executorService.execute(command);
+            return;
+        }
+        if (this.inFlight.incrementAndGet() > this.maxInFlight) {
+            this.inFlight.decrementAndGet();
+            this.metrics.increment(RedisExecutor.METRIC_REJECTED);
+            throw new RejectedExecutionException("Too many Redis tasks waiting to run");
+        }
+        try {
+            this.executorService.execute(() -> {
+                try {
+                    this.permits.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        this.permits.release();
+                    }
+                } finally {
+                    this.inFlight.decrementAndGet();
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            this.inFlight.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops accepting tasks. Tasks already submitted are executed.
+     *
+     * @since 26.10.16
+     */
+    void shutdown() {
+        this.executorService.shutdown();
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Hedging of the reads sent to replicas. When a read has not
+ * completed after a percentile of the recent read latencies, a
+ * duplicate is sent to another node and the first answer wins,
+ * the other one being discarded. Both reads run on the executor
+ * while the caller waits for the first answer, so the slower read
+ * completes in the background and gives its connection back as
+ * usual. Each read earns a fraction of a hedge, which caps the
+ * number of duplicated reads to a small share of the traffic.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisHedging {
+
+    /**
+     * Number of duplicated reads.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_HEDGES = "hedging.hedges";
+
+    /**
+     * Number of duplicated reads answering first.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_WINS = "hedging.wins";
+
+    /**
+     * Number of reads not duplicated because the budget was exhausted.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_THROTTLED = "hedging.throttled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String HEDGING_ENABLED = "redis.replicas.hedging.enabled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String HEDGING_PERCENTILE = "redis.replicas.hedging.percentile";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String HEDGING_BUDGET = "redis.replicas.hedging.budget";
+
+    /**
+     * Number of recent latencies kept.
+     *
+     * @since 26.10.16
+     */
+    private static final int WINDOW_SIZE = 1024;
+
+    /**
+     * Number of latencies recorded between two computations of the delay.
+     *
+     * @since 26.10.16
+     */
+    private static final int REFRESH_INTERVAL = 64;
+
+    /**
+     * Budget units needed to send a duplicate.
+     *
+     * @since 26.10.16
+     */
+    private static final long HEDGE_COST = 1000;
+
+    /**
+     * Maximum number of duplicates that can be sent in a burst.
+     *
+     * @since 26.10.16
+     */
+    private static final long MAX_BURST = 10;
+
+    /**
+     * Is the hedging enabled?
+     *
+     * @since 26.10.16
+     */
+    private final boolean enabled;
+
+    /**
+     * The latency percentile after which a read is duplicated.
+     *
+     * @since 26.10.16
+     */
+    private final double percentile;
+
+    /**
+     * Budget units earned by each read.
+     *
+     * @since 26.10.16
+     */
+    private final long credit;
+
+    /**
+     * Recent latencies in nanoseconds.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicLongArray latencies;
+
+    /**
+     * Number of latencies recorded.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicLong recorded;
+
+    /**
+     * Available budget units.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicLong budget;
+
+    /**
+     * Executor running the duplicated reads.
+     *
+     * @since 26.10.16
+     */
+    private final Executor executor;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Delay in nanoseconds before a read is duplicated, or {@code -1}
+     * if not enough latencies were recorded yet.
+     *
+     * @since 26.10.16
+     */
+    private volatile long delay;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param executor      Executor running the duplicated reads
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisHedging(final Config configuration, final Executor executor, final RedisMetrics metrics) {
+        this.enabled = configuration.getBoolean(RedisHedging.HEDGING_ENABLED);
+        this.percentile = configuration.getDouble(RedisHedging.HEDGING_PERCENTILE);
+        final double budgetRatio = configuration.getDouble(RedisHedging.HEDGING_BUDGET);
+        if (this.percentile <= 0 || this.percentile >= 100) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisHedging.HEDGING_PERCENTILE,
+                "Must be greater than 0 and lower than 100"
+            );
+        }
+        if (budgetRatio <= 0 || budgetRatio > 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisHedging.HEDGING_BUDGET,
+                "Must be greater than 0 and equal or lower than 1"
+            );
+        }
+        this.credit = Math.max(1, Math.round(budgetRatio * RedisHedging.HEDGE_COST));
+        this.latencies = new AtomicLongArray(RedisHedging.WINDOW_SIZE);
+        this.recorded = new AtomicLong();
+        this.budget = new AtomicLong();
+        this.executor = executor;
+        this.metrics = metrics;
+        this.delay = -1;
+    }
+
+    /**
+     * Check if the reads sent to replicas are hedged.
+     *
+     * @return {@code true} if the hedging is enabled
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Record the latency of a read, which earns its share of the budget.
+     *
+     * @param latency The read latency in nanoseconds
+     * @since 26.10.16
+     */
+    void record(final long latency) {
+        final long count = this.recorded.getAndIncrement();
+        this.latencies.set((int) (count % RedisHedging.WINDOW_SIZE), latency);
+        this.budget.accumulateAndGet(
+            this.credit,
+            (available, earned) -> Math.min(available + earned, RedisHedging.MAX_BURST * RedisHedging.HEDGE_COST)
+        );
+        if ((count + 1) % RedisHedging.REFRESH_INTERVAL == 0) {
+            final int size = (int) Math.min(count + 1, RedisHedging.WINDOW_SIZE);
+            final long[] window = new long[size];
+            for (int idx = 0; idx < size; ++idx) {
+                window[idx] = this.latencies.get(idx);
+            }
+            Arrays.sort(window);
+            this.delay = window[(int) Math.min(size - 1, Math.floor(size * this.percentile / 100))];
+        }
+    }
+
+    /**
+     * Take a duplicate from the budget.
+     *
+     * @return {@code true} if the read can be duplicated
+     * @since 26.10.16
+     */
+    boolean tryHedge() {
+        while (true) {
+            final long available = this.budget.get();
+            if (available < RedisHedging.HEDGE_COST) {
+                this.metrics.increment(RedisHedging.METRIC_THROTTLED);
+                return false;
+            }
+            if (this.budget.compareAndSet(available, available - RedisHedging.HEDGE_COST)) {
+                this.metrics.increment(RedisHedging.METRIC_HEDGES);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get the current delay before a read is duplicated.
+     *
+     * @return The delay in nanoseconds, or {@code -1} if not enough latencies were recorded yet
+     * @since 26.10.16
+     */
+    long getDelay() {
+        return this.delay;
+    }
+
+    /**
+     * Run a read on a replica, and record its latency.
+     *
+     * @param replica  The replica
+     * @param readFrom Runs the read on a given node
+     * @param <T>      Generic type of something
+     * @return The read result
+     * @since 26.10.16
+     */
+    private <T> T timedRead(final HostAndPort replica, final Function<HostAndPort, T> readFrom) {
+        final long startedAt = System.nanoTime();
+        final T result = readFrom.apply(replica);
+        this.record(System.nanoTime() - startedAt);
+        return result;
+    }
+
+    /**
+     * Run a read on a replica. If the read has not completed after
+     * the hedging delay, and the budget allows it, the read is also
+     * sent to another node and the first answer is returned. The
+     * other read is not interrupted, its result is discarded.
+     *
+     * @param replica   The replica
+     * @param readFrom  Runs the read on a given node, {@code null} being the master
+     * @param pickOther Chooses the node serving the duplicate
+     * @param <T>       Generic type of something
+     * @return The read result
+     * @since 26.10.16
+     */
+    <T> T read(final HostAndPort replica,
+               final Function<HostAndPort, T> readFrom,
+               final Function<HostAndPort, HostAndPort> pickOther) {
+        final long currentDelay = this.delay;
+        // Until the latencies are known, there is no delay to hedge after
+        if (currentDelay < 0) {
+            return this.timedRead(replica, readFrom);
+        }
+        final CompletableFuture<T> first = new CompletableFuture<>();
+        final FutureTask<Void> firstTask = new FutureTask<>(() -> {
+            try {
+                first.complete(this.timedRead(replica, readFrom));
+            } catch (final RuntimeException ex) {
+                first.completeExceptionally(ex);
+            }
+        }, null);
+        try {
+            this.executor.execute(firstTask);
+        } catch (final RejectedExecutionException ignore) {
+            return this.timedRead(replica, readFrom);
+        }
+        try {
+            try {
+                return first.get(currentDelay, TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException ignore) {
+                // A busy executor may not have started the read yet: the caller runs it, without duplicate
+                firstTask.run();
+                if (first.isDone() || !this.tryHedge()) {
+                    return first.get();
+                }
+                return this.hedge(replica, readFrom, pickOther, first).get();
+            }
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new JedisException(ex.getCause());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JedisException(ex);
+        }
+    }
+
+    /**
+     * Send the duplicate of a read still running.
+     *
+     * @param replica   The replica serving the read
+     * @param readFrom  Runs the read on a given node, {@code null} being the master
+     * @param pickOther Chooses the node serving the duplicate
+     * @param first     Completed with the result of the read
+     * @param <T>       Generic type of something
+     * @return Completed with the first answer, or the failure of the read if both fail
+     * @since 26.10.16
+     */
+    private <T> CompletableFuture<T> hedge(final HostAndPort replica,
+                                           final Function<HostAndPort, T> readFrom,
+                                           final Function<HostAndPort, HostAndPort> pickOther,
+                                           final CompletableFuture<T> first) {
+        final HostAndPort other = pickOther.apply(replica);
+        final CompletableFuture<T> second;
+        try {
+            second = CompletableFuture.supplyAsync(() -> readFrom.apply(other), this.executor);
+        } catch (final RejectedExecutionException ex) {
+            return first;
+        }
+        final CompletableFuture<T> winner = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(2);
+        first.whenComplete((value, ex) -> {
+            if (ex == null) {
+                winner.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(ex);
+            }
+        });
+        second.whenComplete((value, ex) -> {
+            if (ex == null) {
+                if (winner.complete(value)) {
+                    this.metrics.increment(RedisHedging.METRIC_WINS);
+                }
+            } else if (pending.decrementAndGet() == 0) {
+                // Both reads failed, the failure of the first one is thrown
+                first.whenComplete((ignore, firstEx) -> winner.completeExceptionally(firstEx));
+            }
+        });
+        return winner;
+    }
+}
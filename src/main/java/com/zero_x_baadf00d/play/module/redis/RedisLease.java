@@ -0,0 +1,512 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import play.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived leases used to compute a missing value only once
+ * across all nodes. The first node to miss a key takes the lease
+ * and computes the value, the other nodes wait until the lease
+ * holder publishes the release of the lease on a pub/sub channel.
+ * The lease expires on its own if its holder dies.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisLease {
+
+    /**
+     * Number of leases taken by this node.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_ACQUIRED = "lease.acquired";
+
+    /**
+     * Number of waits for a lease taken by another node.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_WAITED = "lease.waited";
+
+    /**
+     * Number of values computed without lease after waiting for too long.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_TIMEOUT = "lease.timeout";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisLease.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String LEASE_ENABLED = "redis.single-flight.lease.enabled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String LEASE_KEY = "redis.single-flight.lease.key";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String LEASE_CHANNEL = "redis.single-flight.lease.channel";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String LEASE_TTL = "redis.single-flight.lease.ttl";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String LEASE_WAIT = "redis.single-flight.lease.wait";
+
+    /**
+     * Deletes the lease if still owned by the caller, then
+     * publishes its release.
+     *
+     * @since 26.10.16
+     */
+    private static final RedisScript SCRIPT_RELEASE = new RedisScript(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('DEL', KEYS[1]) end "
+            + "return redis.call('PUBLISH', ARGV[2], ARGV[3])"
+    );
+
+    /**
+     * Is the lease mode enabled.
+     *
+     * @since 26.10.16
+     */
+    private final boolean enabled;
+
+    /**
+     * Prefix of the lease keys.
+     *
+     * @since 26.10.16
+     */
+    private final String keyPrefix;
+
+    /**
+     * The pub/sub channel used to publish releases.
+     *
+     * @since 26.10.16
+     */
+    private final String channel;
+
+    /**
+     * Lease TTL in milliseconds.
+     *
+     * @since 26.10.16
+     */
+    private final long ttl;
+
+    /**
+     * Maximum time in milliseconds to wait for another node.
+     *
+     * @since 26.10.16
+     */
+    private final long waitTimeout;
+
+    /**
+     * Local waiters, indexed by key.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<String, CompletableFuture<Void>> waiters;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Subscriber receiving the releases.
+     *
+     * @since 26.10.16
+     */
+    private final JedisPubSub subscriber;
+
+    /**
+     * Scheduler used to time out asynchronous waits.
+     *
+     * @since 26.10.16
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Thread running the subscriber.
+     *
+     * @since 26.10.16
+     */
+    private Thread subscriberThread;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisLease(final Config configuration, final RedisMetrics metrics) {
+        this.enabled = configuration.getBoolean(RedisLease.LEASE_ENABLED);
+        this.keyPrefix = configuration.getString(RedisLease.LEASE_KEY);
+        this.channel = configuration.getString(RedisLease.LEASE_CHANNEL);
+        this.ttl = configuration.getLong(RedisLease.LEASE_TTL);
+        this.waitTimeout = configuration.getLong(RedisLease.LEASE_WAIT);
+        if (this.ttl < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisLease.LEASE_TTL,
+                "Must be equal or greater than 1"
+            );
+        }
+        if (this.waitTimeout < 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisLease.LEASE_WAIT,
+                "Must be equal or greater than 0"
+            );
+        }
+        this.waiters = new ConcurrentHashMap<>();
+        this.metrics = metrics;
+        this.subscriber = new JedisPubSub() {
+
+            @Override
+            public void onMessage(final String channelName, final String message) {
+                RedisLease.this.wakeUp(message);
+            }
+        };
+        this.scheduler = this.enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "play-redis-lease-timer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Check if the lease mode is enabled.
+     *
+     * @return {@code true} if the lease mode is enabled
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Get the time limit of a wait for another node, starting now.
+     *
+     * @return Timestamp (in milliseconds) after which the value must be computed without lease
+     * @since 26.10.16
+     */
+    long getDeadline() {
+        return System.currentTimeMillis() + this.waitTimeout;
+    }
+
+    /**
+     * Build a new token, identifying the holder of a lease.
+     *
+     * @return A new token
+     * @since 26.10.16
+     */
+    String newToken() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Get the key of the lease protecting the given key.
+     *
+     * @param key The protected key
+     * @return The lease key
+     * @since 26.10.16
+     */
+    String leaseKey(final String key) {
+        return this.keyPrefix + key;
+    }
+
+    /**
+     * Try to take the lease of the given key.
+     *
+     * @param jedis The Redis connection to use
+     * @param key   The protected key
+     * @param token The token identifying the holder
+     * @return {@code true} if the lease has been taken
+     * @since 26.10.16
+     */
+    boolean tryAcquire(final Jedis jedis, final String key, final String token) {
+        final boolean acquired = "OK".equals(jedis.set(this.leaseKey(key), token, SetParams.setParams().nx().px(this.ttl)));
+        if (acquired) {
+            this.metrics.increment(RedisLease.METRIC_ACQUIRED);
+        }
+        return acquired;
+    }
+
+    /**
+     * Try to take the lease of the given key.
+     *
+     * @param multiplexer The multiplexed connections to use
+     * @param key         The protected key
+     * @param token       The token identifying the holder
+     * @return {@code true} if the lease has been taken
+     * @since 26.10.16
+     */
+    CompletionStage<Boolean> tryAcquire(final RedisMultiplexer multiplexer, final String key, final String token) {
+        return multiplexer.submit(this.leaseKey(key), pipeline -> pipeline.set(this.leaseKey(key), token, SetParams.setParams().nx().px(this.ttl)))
+            .thenApply(reply -> {
+                final boolean acquired = "OK".equals(reply);
+                if (acquired) {
+                    this.metrics.increment(RedisLease.METRIC_ACQUIRED);
+                }
+                return acquired;
+            });
+    }
+
+    /**
+     * Release the lease of the given key, if still held, and wake
+     * up the nodes waiting for it.
+     *
+     * @param jedis The Redis connection to use
+     * @param key   The protected key
+     * @param token The token identifying the holder
+     * @since 26.10.16
+     */
+    void release(final Jedis jedis, final String key, final String token) {
+        RedisLease.SCRIPT_RELEASE.eval(
+            jedis,
+            Collections.singletonList(this.leaseKey(key)),
+            Arrays.asList(token, this.channel, key)
+        );
+    }
+
+    /**
+     * Release the lease of the given key, if still held, and wake
+     * up the nodes waiting for it.
+     *
+     * @param multiplexer The multiplexed connections to use
+     * @param key         The protected key
+     * @param token       The token identifying the holder
+     * @since 26.10.16
+     */
+    void release(final RedisMultiplexer multiplexer, final String key, final String token) {
+        multiplexer.submit(this.leaseKey(key), pipeline -> RedisLease.SCRIPT_RELEASE.eval(
+            pipeline,
+            Collections.singletonList(this.leaseKey(key)),
+            Arrays.asList(token, this.channel, key)
+        )).whenComplete((reply, ex) -> {
+            if (ex != null) {
+                RedisLease.LOG.warn("Can't release lease of '{}': {}", key, ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Register a wait for the release of the lease of the given
+     * key. Must be called before checking for the value, to not
+     * miss a release happening meanwhile.
+     *
+     * @param key The protected key
+     * @return Completed when the lease is released
+     * @since 26.10.16
+     */
+    CompletableFuture<Void> released(final String key) {
+        return this.waiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * Wait for the release of a lease. A single wait is bounded
+     * by the lease TTL, as the lease may have expired.
+     *
+     * @param key      The protected key
+     * @param released The future returned by {@link #released(String)}
+     * @param timeout  Maximum time to wait in milliseconds
+     * @since 26.10.16
+     */
+    void await(final String key, final CompletableFuture<Void> released, final long timeout) {
+        this.metrics.increment(RedisLease.METRIC_WAITED);
+        try {
+            released.get(Math.min(timeout, this.ttl), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException | ExecutionException ignore) {
+            this.waiters.remove(key, released);
+        } catch (final InterruptedException ignore) {
+            this.waiters.remove(key, released);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the release of a lease without blocking. A single
+     * wait is bounded by the lease TTL, as the lease may have expired.
+     *
+     * @param key      The protected key
+     * @param released The future returned by {@link #released(String)}
+     * @param timeout  Maximum time to wait in milliseconds
+     * @return Completed when the lease is released or the wait timed out
+     * @since 26.10.16
+     */
+    CompletionStage<Void> awaitAsync(final String key, final CompletableFuture<Void> released, final long timeout) {
+        this.metrics.increment(RedisLease.METRIC_WAITED);
+        final CompletableFuture<Void> wait = new CompletableFuture<>();
+        final ScheduledFuture<?> timer = this.scheduler.schedule(() -> {
+            this.waiters.remove(key, released);
+            wait.complete(null);
+        }, Math.min(timeout, this.ttl), TimeUnit.MILLISECONDS);
+        released.whenComplete((ignore, ex) -> {
+            timer.cancel(false);
+            wait.complete(null);
+        });
+        return wait;
+    }
+
+    /**
+     * Report a value computed without lease, after waiting for
+     * another node for too long.
+     *
+     * @param key The protected key
+     * @since 26.10.16
+     */
+    void timedOut(final String key) {
+        this.metrics.increment(RedisLease.METRIC_TIMEOUT);
+        RedisLease.LOG.warn("Lease of '{}' not released in time, computing the value locally", key);
+    }
+
+    /**
+     * Wake up the local waiters of the given key.
+     *
+     * @param key The protected key
+     * @since 26.10.16
+     */
+    private void wakeUp(final String key) {
+        final CompletableFuture<Void> released = this.waiters.remove(key);
+        if (released != null) {
+            released.complete(null);
+        }
+    }
+
+    /**
+     * Wake up all local waiters.
+     *
+     * @since 26.10.16
+     */
+    private void wakeUpAll() {
+        for (final String key : this.waiters.keySet()) {
+            this.wakeUp(key);
+        }
+    }
+
+    /**
+     * Start listening for releases. The connection is opened again
+     * if lost. As releases could have been missed, all waiters are
+     * woken up on each connection.
+     *
+     * @param connectionFactory Supplier of dedicated Redis connections
+     * @param retryDelay        Delay in milliseconds before reconnecting
+     * @since 26.10.16
+     */
+    void start(final Supplier<Jedis> connectionFactory, final long retryDelay) {
+        if (!this.enabled || this.subscriberThread != null) {
+            return;
+        }
+        this.subscriberThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (final Jedis jedis = connectionFactory.get()) {
+                    this.wakeUpAll();
+                    jedis.subscribe(this.subscriber, this.channel);
+                } catch (final JedisException ex) {
+                    RedisLease.LOG.warn("Lease releases channel lost: {}", ex.getMessage());
+                    this.wakeUpAll();
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (final InterruptedException ignore) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "play-redis-lease");
+        this.subscriberThread.setDaemon(true);
+        this.subscriberThread.start();
+    }
+
+    /**
+     * Listen for releases on a new connection (eg: after a master
+     * switch). All waiters are woken up.
+     *
+     * @since 26.10.16
+     */
+    void reconnect() {
+        if (this.subscriber.isSubscribed()) {
+            this.subscriber.unsubscribe();
+        }
+    }
+
+    /**
+     * Stop listening for releases. Waiters are woken up.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        if (this.subscriberThread != null) {
+            this.subscriberThread.interrupt();
+            this.subscriberThread = null;
+            if (this.subscriber.isSubscribed()) {
+                this.subscriber.unsubscribe();
+            }
+        }
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        this.wakeUpAll();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters collected by the Redis module (eg: near cache
+ * hits and misses). Counters are created on first use and
+ * are safe to update from many threads. Gauges are values
+ * read on demand (eg: executor queue depth).
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+public final class RedisMetrics {
+
+    /**
+     * Counters, indexed by name.
+     *
+     * @since 26.10.16
+     */
+    private final Map<String, LongAdder> counters;
+
+    /**
+     * Gauges, indexed by name.
+     *
+     * @since 26.10.16
+     */
+    private final Map<String, LongSupplier> gauges;
+
+    /**
+     * Build a new instance.
+     *
+     * @since 26.10.16
+     */
+    public RedisMetrics() {
+        this.counters = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Increment a counter by one.
+     *
+     * @param name The counter name
+     * @since 26.10.16
+     */
+    public void increment(final String name) {
+        this.add(name, 1);
+    }
+
+    /**
+     * Add a value to a counter.
+     *
+     * @param name  The counter name
+     * @param value The value to add
+     * @since 26.10.16
+     */
+    public void add(final String name, final long value) {
+        this.counters.computeIfAbsent(name, k -> new LongAdder()).add(value);
+    }
+
+    /**
+     * Register a gauge. A gauge registered with the same name
+     * is replaced.
+     *
+     * @param name     The gauge name
+     * @param supplier Supplier of the gauge value
+     * @since 26.10.16
+     */
+    public void gauge(final String name, final LongSupplier supplier) {
+        this.gauges.put(name, supplier);
+    }
+
+    /**
+     * Get the current value of a counter or a gauge.
+     *
+     * @param name The counter or gauge name
+     * @return The value, or {@code 0} if the counter does not exist
+     * @since 26.10.16
+     */
+    public long get(final String name) {
+        final LongSupplier gauge = this.gauges.get(name);
+        if (gauge != null) {
+            return gauge.getAsLong();
+        }
+        final LongAdder counter = this.counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Get the current value of all counters and gauges.
+     *
+     * @return A read-only map of counters and gauges values, indexed by name
+     * @since 26.10.16
+     */
+    public Map<String, Long> snapshot() {
+        final Map<String, Long> values = new TreeMap<>();
+        this.counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        this.gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return Collections.unmodifiableMap(values);
+    }
+}
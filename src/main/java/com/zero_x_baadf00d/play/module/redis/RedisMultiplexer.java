@@ -0,0 +1,931 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import play.Logger;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Shares a few dedicated connections between all callers. Each
+ * connection is driven by two threads: the first one sends queued
+ * commands in pipelined batches without waiting for their replies,
+ * the second one reads the replies in the same order, then
+ * completes the futures. Several batches can be waiting for their
+ * replies on the same connection, so a slow reply only delays the
+ * replies sent after it. Callers never wait for a connection nor
+ * for a reply. In
+ * cluster mode, each master has its own connections, commands
+ * are sent to the master owning the slot of their key, and are
+ * sent again elsewhere when Redis redirects them.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisMultiplexer {
+
+    /**
+     * Number of commands waiting to be sent.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_PENDING = "multiplexer.pending";
+
+    /**
+     * Number of batches sent.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_BATCHES = "multiplexer.batches";
+
+    /**
+     * Number of commands sent.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_COMMANDS = "multiplexer.commands";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisMultiplexer.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String ASYNC_CONNECTIONS = "redis.async.connections";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String ASYNC_MAX_BATCH_SIZE = "redis.async.max-batch-size";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String ASYNC_MAX_IN_FLIGHT = "redis.async.max-in-flight";
+
+    /**
+     * The connection lanes, or {@code null} in cluster mode.
+     *
+     * @since 26.10.16
+     */
+    private final Lane[] lanes;
+
+    /**
+     * The connection lanes of each master, in cluster mode.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<HostAndPort, Lane[]> masterLanes;
+
+    /**
+     * Opens dedicated connections to a master, in cluster mode.
+     *
+     * @since 26.10.16
+     */
+    private final Function<HostAndPort, MultiplexedConnection> masterConnectionFactory;
+
+    /**
+     * The cluster topology.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCluster cluster;
+
+    /**
+     * Number of connections per lane set.
+     *
+     * @since 26.10.16
+     */
+    private final int connections;
+
+    /**
+     * Maximum number of commands sent in a single batch.
+     *
+     * @since 26.10.16
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Maximum number of batches waiting for their replies on a
+     * connection.
+     *
+     * @since 26.10.16
+     */
+    private final int maxInFlight;
+
+    /**
+     * Incremented to make the lanes open their connection again.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicInteger connectionGeneration;
+
+    /**
+     * Used to spread commands over the lanes.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicInteger nextLane;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Is the multiplexer still accepting commands?
+     *
+     * @since 26.10.16
+     */
+    private volatile boolean running;
+
+    /**
+     * Build a new instance. Connections are opened on first use.
+     *
+     * @param configuration           The current application configuration
+     * @param connectionFactory       Supplier of dedicated Redis connections, ready to use
+     * @param masterConnectionFactory Opens dedicated connections to a master, in cluster mode
+     * @param cluster                 The cluster topology
+     * @param metrics                 The module metrics
+     * @since 26.10.16
+     */
+    RedisMultiplexer(final Config configuration, final Supplier<MultiplexedConnection> connectionFactory,
+                     final Function<HostAndPort, MultiplexedConnection> masterConnectionFactory, final RedisCluster cluster,
+                     final RedisMetrics metrics) {
+        this.connections = configuration.getInt(RedisMultiplexer.ASYNC_CONNECTIONS);
+        this.maxBatchSize = configuration.getInt(RedisMultiplexer.ASYNC_MAX_BATCH_SIZE);
+        this.maxInFlight = configuration.getInt(RedisMultiplexer.ASYNC_MAX_IN_FLIGHT);
+        if (this.connections < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisMultiplexer.ASYNC_CONNECTIONS,
+                "Must be equal or greater than 1"
+            );
+        }
+        if (this.maxBatchSize < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisMultiplexer.ASYNC_MAX_BATCH_SIZE,
+                "Must be equal or greater than 1"
+            );
+        }
+        if (this.maxInFlight < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisMultiplexer.ASYNC_MAX_IN_FLIGHT,
+                "Must be equal or greater than 1"
+            );
+        }
+        this.metrics = metrics;
+        this.cluster = cluster;
+        this.masterConnectionFactory = masterConnectionFactory;
+        this.masterLanes = new ConcurrentHashMap<>();
+        this.nextLane = new AtomicInteger();
+        this.connectionGeneration = new AtomicInteger();
+        this.running = true;
+        this.lanes = cluster.isEnabled() ? null : this.createLanes(connectionFactory, "play-redis-multiplexer-");
+        cluster.addTopologyListener(this::retainLanes);
+        metrics.gauge(RedisMultiplexer.METRIC_PENDING, () -> {
+            long pending = 0;
+            for (final Lane[] laneSet : this.allLanes()) {
+                for (final Lane lane : laneSet) {
+                    pending += lane.queue.size();
+                }
+            }
+            return pending;
+        });
+    }
+
+    /**
+     * Start a set of connection lanes.
+     *
+     * @param connectionFactory Supplier of dedicated Redis connections, ready to use
+     * @param threadNamePrefix  Prefix of the thread names
+     * @return The lanes
+     * @since 26.10.16
+     */
+    private Lane[] createLanes(final Supplier<MultiplexedConnection> connectionFactory, final String threadNamePrefix) {
+        final Lane[] laneSet = new Lane[this.connections];
+        for (int idx = 0; idx < this.connections; ++idx) {
+            laneSet[idx] = new Lane(connectionFactory, this.maxBatchSize, this.maxInFlight);
+            laneSet[idx].thread = new Thread(laneSet[idx]::run, threadNamePrefix + (idx + 1));
+            laneSet[idx].thread.setDaemon(true);
+            laneSet[idx].reader = new Thread(laneSet[idx]::read, threadNamePrefix + (idx + 1) + "-reader");
+            laneSet[idx].reader.setDaemon(true);
+            laneSet[idx].reader.start();
+            laneSet[idx].thread.start();
+        }
+        return laneSet;
+    }
+
+    /**
+     * Get all the lane sets.
+     *
+     * @return The lane sets
+     * @since 26.10.16
+     */
+    private List<Lane[]> allLanes() {
+        final List<Lane[]> laneSets = new ArrayList<>(this.masterLanes.values());
+        if (this.lanes != null) {
+            laneSets.add(this.lanes);
+        }
+        return laneSets;
+    }
+
+    /**
+     * Get the lanes of a master, started on first use.
+     *
+     * @param master The master
+     * @return The lanes
+     * @since 26.10.16
+     */
+    private Lane[] lanesOf(final HostAndPort master) {
+        return this.masterLanes.computeIfAbsent(master, node -> this.createLanes(
+            () -> this.masterConnectionFactory.apply(node),
+            "play-redis-multiplexer-" + node + "-"
+        ));
+    }
+
+    /**
+     * Retire the lanes of the nodes which are no longer masters. A
+     * retired lane sends the commands already queued, then its
+     * threads end once the replies have been read.
+     *
+     * @param masters The known masters
+     * @since 26.10.16
+     */
+    private void retainLanes(final List<HostAndPort> masters) {
+        for (final HostAndPort node : this.masterLanes.keySet()) {
+            final Lane[] laneSet = masters.contains(node) ? null : this.masterLanes.remove(node);
+            if (laneSet != null) {
+                RedisMultiplexer.LOG.info("Closing the connections to {}, which is no longer a master", node);
+                for (final Lane lane : laneSet) {
+                    lane.retired = true;
+                    lane.thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a command. The command is added to a pipeline by the
+     * connection thread, and must not do anything else.
+     *
+     * @param command Adds the command to the pipeline, and returns its response
+     * @param <T>     Generic type of something
+     * @return A future completed with the command reply
+     * @since 26.10.16
+     */
+    <T> CompletableFuture<T> submit(final Function<Pipeline, Response<T>> command) {
+        final Command<T> queuedCommand = new Command<>(command);
+        try {
+            this.enqueue(this.cluster.isEnabled() ? this.lanesOf(this.cluster.anyMaster()) : this.lanes, queuedCommand);
+        } catch (final RuntimeException ex) {
+            queuedCommand.future.completeExceptionally(ex);
+        }
+        return queuedCommand.future;
+    }
+
+    /**
+     * Queues a command on the key. In cluster mode, the command is
+     * sent to the master owning the slot of the key: all the keys
+     * used by the command must share this slot.
+     *
+     * @param key     The key used to route the command
+     * @param command Adds the command to the pipeline, and returns its response
+     * @param <T>     Generic type of something
+     * @return A future completed with the command reply
+     * @since 26.10.16
+     */
+    <T> CompletableFuture<T> submit(final String key, final Function<Pipeline, Response<T>> command) {
+        if (!this.cluster.isEnabled()) {
+            return this.submit(command);
+        }
+        final Command<T> queuedCommand = new Command<>(command);
+        try {
+            this.enqueue(this.lanesOf(this.cluster.masterOf(RedisCluster.slot(key))), queuedCommand);
+        } catch (final RuntimeException ex) {
+            queuedCommand.future.completeExceptionally(ex);
+        }
+        return queuedCommand.future;
+    }
+
+    /**
+     * Queues a command for a given master, in cluster mode.
+     *
+     * @param master  The master
+     * @param command Adds the command to the pipeline, and returns its response
+     * @param <T>     Generic type of something
+     * @return A future completed with the command reply
+     * @since 26.10.16
+     */
+    <T> CompletableFuture<T> submitTo(final HostAndPort master, final Function<Pipeline, Response<T>> command) {
+        final Command<T> queuedCommand = new Command<>(command);
+        this.enqueue(this.lanesOf(master), queuedCommand);
+        return queuedCommand.future;
+    }
+
+    /**
+     * Adds a command to the queue of one of the given lanes.
+     *
+     * @param laneSet The lanes
+     * @param command The command
+     * @since 26.10.16
+     */
+    private void enqueue(final Lane[] laneSet, final Command<?> command) {
+        final Lane lane = laneSet[Math.floorMod(this.nextLane.getAndIncrement(), laneSet.length)];
+        lane.queue.add(command);
+        if (!this.running && lane.queue.remove(command)) {
+            command.future.completeExceptionally(new IllegalStateException("Redis module is stopped"));
+        } else if (lane.retired && lane.queue.remove(command)) {
+            this.reroute(command);
+        }
+    }
+
+    /**
+     * Queues again a command left on a retired lane. It is sent to
+     * any master, which redirects it to the master owning its slot.
+     *
+     * @param command The command
+     * @since 26.10.16
+     */
+    private void reroute(final Command<?> command) {
+        try {
+            this.enqueue(this.lanesOf(this.cluster.anyMaster()), command);
+        } catch (final RuntimeException ex) {
+            command.future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Completes a command once its reply has been read.
+     * In cluster mode, a redirected command is queued again on the
+     * lanes of the master given by Redis.
+     *
+     * @param command The command
+     * @since 26.10.16
+     */
+    private void complete(final Command<?> command) {
+        try {
+            command.complete();
+        } catch (final JedisRedirectionException ex) {
+            if (!this.cluster.isEnabled() || command.redirections >= this.cluster.getMaxRedirections()) {
+                command.future.completeExceptionally(ex);
+                return;
+            }
+            this.metrics.increment(RedisCluster.METRIC_REDIRECTIONS);
+            command.redirections += 1;
+            command.asking = ex instanceof JedisAskDataException;
+            if (!command.asking) {
+                this.cluster.requestRefresh();
+            }
+            this.enqueue(this.lanesOf(ex.getTargetNode()), command);
+        }
+    }
+
+    /**
+     * Makes the lanes open their connection again before sending
+     * their next batch (eg: after a master switch). The replies of
+     * the batches already sent are still read.
+     *
+     * @since 26.10.16
+     */
+    void reconnect() {
+        this.connectionGeneration.incrementAndGet();
+    }
+
+    /**
+     * Stops the connection threads. Commands still queued, or still
+     * waiting for their reply, are failed.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        this.running = false;
+        for (final Lane[] laneSet : this.allLanes()) {
+            for (final Lane lane : laneSet) {
+                lane.thread.interrupt();
+                lane.reader.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Closes a connection, ignoring errors as it could already be broken.
+     *
+     * @param connection The connection to close, or {@code null}
+     * @since 26.10.16
+     */
+    private static void closeQuietly(final MultiplexedConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (final RuntimeException ignore) {
+                // The connection is dropped anyway
+            }
+        }
+    }
+
+    /**
+     * Fails commands as the module is stopping.
+     *
+     * @param commands The commands
+     * @since 26.10.16
+     */
+    private static void failStopped(final List<Command<?>> commands) {
+        for (final Command<?> command : commands) {
+            command.future.completeExceptionally(new IllegalStateException("Redis module is stopped"));
+        }
+    }
+
+    /**
+     * A queued command.
+     *
+     * @param <T> Generic type of something
+     * @since 26.10.16
+     */
+    private static final class Command<T> {
+
+        /**
+         * Adds the command to a pipeline.
+         *
+         * @since 26.10.16
+         */
+        private final Function<Pipeline, Response<T>> command;
+
+        /**
+         * Completed with the command reply.
+         *
+         * @since 26.10.16
+         */
+        private final CompletableFuture<T> future;
+
+        /**
+         * The pending response, once added to a pipeline.
+         *
+         * @since 26.10.16
+         */
+        private Response<T> response;
+
+        /**
+         * Number of redirections followed.
+         *
+         * @since 26.10.16
+         */
+        private int redirections;
+
+        /**
+         * Must the command be preceded by ASKING?
+         *
+         * @since 26.10.16
+         */
+        private boolean asking;
+
+        /**
+         * Build a new instance.
+         *
+         * @param command Adds the command to a pipeline
+         * @since 26.10.16
+         */
+        Command(final Function<Pipeline, Response<T>> command) {
+            this.command = command;
+            this.future = new CompletableFuture<>();
+        }
+
+        /**
+         * Adds the command to the given pipeline.
+         *
+         * @param pipeline The pipeline
+         * @since 26.10.16
+         */
+        void queue(final Pipeline pipeline) {
+            if (this.asking) {
+                pipeline.sendCommand(Protocol.Command.ASKING, new byte[0][]);
+            }
+            this.response = this.command.apply(pipeline);
+        }
+
+        /**
+         * Completes the future once the reply has been read.
+         * Redirections are left to the caller.
+         *
+         * @since 26.10.16
+         */
+        void complete() {
+            try {
+                this.future.complete(this.response.get());
+            } catch (final JedisRedirectionException ex) {
+                throw ex;
+            } catch (final JedisDataException ex) {
+                this.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * A batch sent on a connection, waiting for its replies.
+     *
+     * @since 26.10.16
+     */
+    private static final class Batch {
+
+        /**
+         * The connection the batch was sent on.
+         *
+         * @since 26.10.16
+         */
+        private final MultiplexedConnection connection;
+
+        /**
+         * The pipeline expecting the replies, or {@code null} if the
+         * connection must be closed once the previous batches have
+         * their replies.
+         *
+         * @since 26.10.16
+         */
+        private final ReplyPipeline pipeline;
+
+        /**
+         * The commands sent, or {@code null}.
+         *
+         * @since 26.10.16
+         */
+        private final List<Command<?>> commands;
+
+        /**
+         * Is it the last batch of a retired lane?
+         *
+         * @since 26.10.16
+         */
+        private final boolean last;
+
+        /**
+         * Build a new instance.
+         *
+         * @param connection The connection the batch was sent on
+         * @param pipeline   The pipeline expecting the replies, or {@code null} to close the connection
+         * @param commands   The commands sent, or {@code null}
+         * @param last       Is it the last batch of a retired lane?
+         * @since 26.10.16
+         */
+        Batch(final MultiplexedConnection connection, final ReplyPipeline pipeline, final List<Command<?>> commands,
+              final boolean last) {
+            this.connection = connection;
+            this.pipeline = pipeline;
+            this.commands = commands;
+            this.last = last;
+        }
+    }
+
+    /**
+     * A pipeline whose replies are read by another thread than the
+     * one which sent the commands.
+     *
+     * @since 26.10.16
+     */
+    private static final class ReplyPipeline extends Pipeline {
+
+        /**
+         * The connection the commands are sent on.
+         *
+         * @since 26.10.16
+         */
+        private final MultiplexedConnection connection;
+
+        /**
+         * Build a new instance.
+         *
+         * @param connection The connection the commands are sent on
+         * @since 26.10.16
+         */
+        ReplyPipeline(final MultiplexedConnection connection) {
+            this.connection = connection;
+            this.setClient(connection);
+        }
+
+        /**
+         * Reads the replies of the commands sent, in order.
+         *
+         * @since 26.10.16
+         */
+        void readReplies() {
+            for (int idx = this.getPipelinedResponseLength(); idx > 0; --idx) {
+                this.generateResponse(this.connection.readReply());
+            }
+        }
+    }
+
+    /**
+     * A connection and the threads driving it.
+     *
+     * @since 26.10.16
+     */
+    private final class Lane {
+
+        /**
+         * Commands waiting to be sent.
+         *
+         * @since 26.10.16
+         */
+        private final BlockingQueue<Command<?>> queue;
+
+        /**
+         * Batches sent, waiting for their replies, in the order they
+         * were sent.
+         *
+         * @since 26.10.16
+         */
+        private final BlockingQueue<Batch> inFlight;
+
+        /**
+         * Supplier of dedicated Redis connections.
+         *
+         * @since 26.10.16
+         */
+        private final Supplier<MultiplexedConnection> connectionFactory;
+
+        /**
+         * Maximum number of commands sent in a single batch.
+         *
+         * @since 26.10.16
+         */
+        private final int maxBatchSize;
+
+        /**
+         * The thread sending the commands.
+         *
+         * @since 26.10.16
+         */
+        private Thread thread;
+
+        /**
+         * The thread reading the replies.
+         *
+         * @since 26.10.16
+         */
+        private Thread reader;
+
+        /**
+         * Is the lane retired? Its threads end once the queue is empty
+         * and the replies have been read.
+         *
+         * @since 26.10.16
+         */
+        private volatile boolean retired;
+
+        /**
+         * Build a new instance.
+         *
+         * @param connectionFactory Supplier of dedicated Redis connections
+         * @param maxBatchSize      Maximum number of commands sent in a single batch
+         * @param maxInFlight       Maximum number of batches waiting for their replies
+         * @since 26.10.16
+         */
+        Lane(final Supplier<MultiplexedConnection> connectionFactory, final int maxBatchSize, final int maxInFlight) {
+            this.queue = new LinkedBlockingQueue<>();
+            this.inFlight = new ArrayBlockingQueue<>(maxInFlight);
+            this.connectionFactory = connectionFactory;
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        /**
+         * Sends queued commands until the multiplexer is stopped, or
+         * until the lane is retired and its queue is empty. Each batch
+         * is handed to the reader once sent, the next batch is sent
+         * without waiting for its replies, unless too many batches are
+         * already waiting. The connection is opened on first use, and
+         * opened again after an error or when asked to. Commands of a
+         * batch that failed are failed too.
+         *
+         * @since 26.10.16
+         */
+        void run() {
+            MultiplexedConnection connection = null;
+            int generation = 0;
+            while (RedisMultiplexer.this.running && !(this.retired && this.queue.isEmpty())) {
+                final List<Command<?>> batch = new ArrayList<>();
+                try {
+                    batch.add(this.queue.take());
+                } catch (final InterruptedException ignore) {
+                    if (this.retired) {
+                        continue;
+                    }
+                    break;
+                }
+                this.queue.drainTo(batch, this.maxBatchSize - 1);
+                try {
+                    if (connection != null && (connection.getFailure() != null || generation != RedisMultiplexer.this.connectionGeneration.get())) {
+                        this.release(connection);
+                        connection = null;
+                    }
+                    if (connection == null) {
+                        generation = RedisMultiplexer.this.connectionGeneration.get();
+                        connection = this.connectionFactory.get();
+                    }
+                    final ReplyPipeline pipeline = new ReplyPipeline(connection);
+                    for (final Command<?> command : batch) {
+                        command.queue(pipeline);
+                    }
+                    connection.send();
+                    if (!this.handOver(new Batch(connection, pipeline, batch, false))) {
+                        RedisMultiplexer.failStopped(batch);
+                        break;
+                    }
+                } catch (final RuntimeException ex) {
+                    RedisMultiplexer.LOG.error("Can't send commands to Redis: {}", ex.getMessage());
+                    if (RedisMultiplexer.this.cluster.isEnabled()) {
+                        RedisMultiplexer.this.cluster.requestRefresh();
+                    }
+                    for (final Command<?> command : batch) {
+                        command.future.completeExceptionally(ex);
+                    }
+                    if (connection != null) {
+                        connection.setFailure(ex);
+                        this.release(connection);
+                        connection = null;
+                    }
+                }
+            }
+
+            // Let the reader end, or fail the batches it will never read if the module is stopping
+            if (!this.handOver(new Batch(connection, null, null, true))) {
+                RedisMultiplexer.closeQuietly(connection);
+                this.failInFlight();
+            }
+
+            // Fail commands which will never be sent, or send them elsewhere if the lane has just been retired
+            final List<Command<?>> leftovers = new ArrayList<>();
+            this.queue.drainTo(leftovers);
+            for (final Command<?> command : leftovers) {
+                if (RedisMultiplexer.this.running) {
+                    RedisMultiplexer.this.reroute(command);
+                } else {
+                    command.future.completeExceptionally(new IllegalStateException("Redis module is stopped"));
+                }
+            }
+        }
+
+        /**
+         * Reads the replies of the batches sent, in order, until the
+         * multiplexer is stopped, or until the last batch of a retired
+         * lane. A connection given back by the sender is closed once
+         * the replies of the previous batches have been read.
+         *
+         * @since 26.10.16
+         */
+        void read() {
+            while (true) {
+                final Batch batch;
+                try {
+                    batch = this.inFlight.take();
+                } catch (final InterruptedException ignore) {
+                    if (RedisMultiplexer.this.running) {
+                        continue;
+                    }
+                    break;
+                }
+                if (batch.pipeline != null) {
+                    this.receive(batch);
+                } else {
+                    RedisMultiplexer.closeQuietly(batch.connection);
+                    if (batch.last) {
+                        return;
+                    }
+                }
+            }
+            this.failInFlight();
+        }
+
+        /**
+         * Reads the replies of a batch, then completes its commands.
+         * After an error, the replies still expected on the connection
+         * are never read, and their commands are failed too.
+         *
+         * @param batch The batch
+         * @since 26.10.16
+         */
+        private void receive(final Batch batch) {
+            final RuntimeException failure = batch.connection.getFailure();
+            if (failure != null) {
+                for (final Command<?> command : batch.commands) {
+                    command.future.completeExceptionally(failure);
+                }
+                return;
+            }
+            try {
+                batch.pipeline.readReplies();
+                RedisMultiplexer.this.metrics.increment(RedisMultiplexer.METRIC_BATCHES);
+                RedisMultiplexer.this.metrics.add(RedisMultiplexer.METRIC_COMMANDS, batch.commands.size());
+                for (final Command<?> command : batch.commands) {
+                    RedisMultiplexer.this.complete(command);
+                }
+            } catch (final RuntimeException ex) {
+                RedisMultiplexer.LOG.error("Can't read replies from Redis: {}", ex.getMessage());
+                if (RedisMultiplexer.this.cluster.isEnabled()) {
+                    RedisMultiplexer.this.cluster.requestRefresh();
+                }
+                batch.connection.setFailure(ex);
+                for (final Command<?> command : batch.commands) {
+                    command.future.completeExceptionally(ex);
+                }
+            }
+        }
+
+        /**
+         * Gives a connection back to the reader, which closes it once
+         * the replies of the batches already sent have been read.
+         *
+         * @param connection The connection
+         * @since 26.10.16
+         */
+        private void release(final MultiplexedConnection connection) {
+            if (!this.handOver(new Batch(connection, null, null, false))) {
+                RedisMultiplexer.closeQuietly(connection);
+            }
+        }
+
+        /**
+         * Hands a batch to the reader, waiting while too many batches
+         * are already waiting for their replies.
+         *
+         * @param batch The batch
+         * @return {@code false} if the module is stopping
+         * @since 26.10.16
+         */
+        private boolean handOver(final Batch batch) {
+            while (RedisMultiplexer.this.running) {
+                try {
+                    this.inFlight.put(batch);
+                    return true;
+                } catch (final InterruptedException ignore) {
+                    // The lane is retired, or the module is stopping
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Fails the batches which will never be read, as the module
+         * is stopping, and closes their connections.
+         *
+         * @since 26.10.16
+         */
+        private void failInFlight() {
+            final List<Batch> batches = new ArrayList<>();
+            this.inFlight.drainTo(batches);
+            for (final Batch batch : batches) {
+                RedisMultiplexer.closeQuietly(batch.connection);
+                if (batch.commands != null) {
+                    RedisMultiplexer.failStopped(batch.commands);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import play.Logger;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Generations of the key namespaces. Each namespace has a counter
+ * stored in Redis, and its current value is part of the physical
+ * keys of the namespace. Invalidating a namespace only increments
+ * its counter: the previous keys can't be reached anymore, and are
+ * removed in the background by the reaper, or age out with their
+ * expiration. Counters are kept locally for a short time, so other
+ * nodes see an invalidation with a small delay.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisNamespaces {
+
+    /**
+     * Number of namespace invalidations.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_INVALIDATED = "namespace.invalidated";
+
+    /**
+     * Number of keys removed by the reaper.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_REAPED = "namespace.reaped";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisNamespaces.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String NAMESPACE_KEY = "redis.namespace.key";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String NAMESPACE_LOCAL_TTL = "redis.namespace.local-ttl";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String NAMESPACE_REAPER = "redis.namespace.reaper";
+
+    /**
+     * Prefix of the counter keys.
+     *
+     * @since 26.10.16
+     */
+    private final String key;
+
+    /**
+     * Time in milliseconds a counter value is kept locally.
+     *
+     * @since 26.10.16
+     */
+    private final long localTtl;
+
+    /**
+     * Are keys of previous generations removed in the background?
+     *
+     * @since 26.10.16
+     */
+    private final boolean reaper;
+
+    /**
+     * Counter values known locally, indexed by namespace.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<String, Generation> generations;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Scheduler used to delay the reaper.
+     *
+     * @since 26.10.16
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisNamespaces(final Config configuration, final RedisMetrics metrics) {
+        this.key = configuration.getString(RedisNamespaces.NAMESPACE_KEY);
+        this.localTtl = configuration.getLong(RedisNamespaces.NAMESPACE_LOCAL_TTL);
+        this.reaper = configuration.getBoolean(RedisNamespaces.NAMESPACE_REAPER);
+        if (this.key.isEmpty()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisNamespaces.NAMESPACE_KEY,
+                "Cannot be empty"
+            );
+        }
+        if (this.localTtl < 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisNamespaces.NAMESPACE_LOCAL_TTL,
+                "Must be equal or greater than 0"
+            );
+        }
+        this.generations = new ConcurrentHashMap<>();
+        this.metrics = metrics;
+        this.scheduler = this.reaper ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "play-redis-namespace-reaper");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Get the key of the counter of a namespace.
+     *
+     * @param namespace The namespace
+     * @return The counter key
+     * @since 26.10.16
+     */
+    String counterKey(final String namespace) {
+        return this.key + namespace;
+    }
+
+    /**
+     * Get the prefix of the physical keys of a namespace generation.
+     *
+     * @param namespace  The namespace
+     * @param generation The generation
+     * @return The physical key prefix
+     * @since 26.10.16
+     */
+    String prefix(final String namespace, final long generation) {
+        return namespace + "v" + generation + ".";
+    }
+
+    /**
+     * Check if a physical key of a namespace belongs to a generation
+     * older than the given one. Keys written before namespaces existed
+     * (ie: "play.cache.key") have no generation and are also stale.
+     *
+     * @param namespace  The namespace
+     * @param generation The current generation
+     * @param key        The physical key, starting with the namespace
+     * @return {@code true} if the key can't be reached anymore
+     * @since 26.10.16
+     */
+    static boolean isStale(final String namespace, final long generation, final String key) {
+        final int start = namespace.length() + 1;
+        final int end = key.indexOf('.', start);
+        if (end <= start || end - start > 18 || key.charAt(start - 1) != 'v') {
+            return true;
+        }
+        long keyGeneration = 0;
+        for (int idx = start; idx < end; ++idx) {
+            final char c = key.charAt(idx);
+            if (c < '0' || c > '9') {
+                return true;
+            }
+            keyGeneration = keyGeneration * 10 + (c - '0');
+        }
+        return keyGeneration < generation;
+    }
+
+    /**
+     * Get the generation of a namespace known locally.
+     *
+     * @param namespace The namespace
+     * @return The generation, or {@code null} if it must be read from Redis
+     * @since 26.10.16
+     */
+    Long cached(final String namespace) {
+        final Generation generation = this.generations.get(namespace);
+        if (generation == null || generation.expiresAt < System.currentTimeMillis()) {
+            return null;
+        }
+        return generation.value;
+    }
+
+    /**
+     * Keeps locally the counter value read from Redis.
+     *
+     * @param namespace The namespace
+     * @param rawValue  The counter value, or {@code null} if the namespace has never been invalidated
+     * @return The generation
+     * @since 26.10.16
+     */
+    long update(final String namespace, final String rawValue) {
+        final long value = rawValue == null ? 0 : Long.parseLong(rawValue);
+        final long expiresAt = System.currentTimeMillis() + this.localTtl;
+        return this.generations.merge(
+            namespace,
+            new Generation(value, expiresAt),
+            (previous, current) -> previous.value > current.value && previous.expiresAt >= System.currentTimeMillis()
+                ? previous
+                : current
+        ).value;
+    }
+
+    /**
+     * Keeps locally the counter value of an invalidation, and starts
+     * the reaper if it is enabled. The reaper waits for the other
+     * nodes to see the new generation, then removes the keys of every
+     * older generation: the ones written meanwhile, and the ones left
+     * by a previous reap which failed.
+     *
+     * @param namespace      The namespace
+     * @param generation     The new generation
+     * @param removeByPrefix Removes the keys starting with the given prefix and matching the filter
+     * @since 26.10.16
+     */
+    void invalidated(final String namespace, final long generation,
+                     final BiFunction<String, Predicate<String>, CompletionStage<Long>> removeByPrefix) {
+        this.update(namespace, String.valueOf(generation));
+        this.metrics.increment(RedisNamespaces.METRIC_INVALIDATED);
+        if (this.reaper) {
+            try {
+                this.scheduler.schedule(() -> removeByPrefix.apply(
+                    namespace,
+                    physicalKey -> RedisNamespaces.isStale(namespace, generation, physicalKey)
+                ).whenComplete((removed, ex) -> {
+                    if (ex != null) {
+                        RedisNamespaces.LOG.error("Can't reap generations older than {} of namespace '{}'", generation, namespace, ex);
+                    } else {
+                        this.metrics.add(RedisNamespaces.METRIC_REAPED, removed);
+                    }
+                }), this.localTtl, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException ignore) {
+                // The module is stopping
+            }
+        }
+    }
+
+    /**
+     * Stop the reaper. Pending reaps are dropped, the keys they would
+     * have removed are collected by the next invalidation.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * A counter value known locally.
+     *
+     * @since 26.10.16
+     */
+    private static final class Generation {
+
+        /**
+         * The counter value.
+         *
+         * @since 26.10.16
+         */
+        private final long value;
+
+        /**
+         * Timestamp (in milliseconds) after which the value must be read again.
+         *
+         * @since 26.10.16
+         */
+        private final long expiresAt;
+
+        /**
+         * Build a new instance.
+         *
+         * @param value     The counter value
+         * @param expiresAt Timestamp (in milliseconds) after which the value must be read again
+         * @since 26.10.16
+         */
+        private Generation(final long value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolAbstract;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Connections pools to a Redis server, one per database. The pool
+ * of the default database is opened with the server, the others
+ * are created on first use. The connections of a pool select their
+ * database once, when opened.
+ * <p>
+ * When the server changes (eg: on failover), all the pools are
+ * swapped at once. Borrowers never wait for the swap, and the
+ * previous pools are closed right away: their idle connections
+ * are closed, and their borrowed connections are closed once given
+ * back, so the calls in progress end normally.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisPools {
+
+    /**
+     * The default database.
+     *
+     * @since 26.10.16
+     */
+    private final int defaultDb;
+
+    /**
+     * Connection timeout in milliseconds.
+     *
+     * @since 26.10.16
+     */
+    private final int connTimeout;
+
+    /**
+     * The Redis server password, or {@code null}.
+     *
+     * @since 26.10.16
+     */
+    private final String password;
+
+    /**
+     * Maximum number of connections of a pool.
+     *
+     * @since 26.10.16
+     */
+    private final int maxTotal;
+
+    /**
+     * Maximum number of idle connections of a pool.
+     *
+     * @since 26.10.16
+     */
+    private final int maxIdle;
+
+    /**
+     * Minimum number of idle connections of a pool.
+     *
+     * @since 26.10.16
+     */
+    private final int minIdle;
+
+    /**
+     * Number of stripes each pool is split in.
+     *
+     * @since 26.10.16
+     */
+    private final int stripes;
+
+    /**
+     * Guards the swap of the pools, and the creation of a pool.
+     *
+     * @since 26.10.16
+     */
+    private final Object swapLock;
+
+    /**
+     * The pools, indexed by database.
+     *
+     * @since 26.10.16
+     */
+    private volatile ConcurrentMap<Integer, JedisPoolAbstract> pools;
+
+    /**
+     * The Redis server the pools are connected to.
+     *
+     * @since 26.10.16
+     */
+    private volatile HostAndPort node;
+
+    /**
+     * Build a new instance. No pool is opened until a server is given.
+     *
+     * @param defaultDb   The default database
+     * @param connTimeout Connection timeout in milliseconds
+     * @param password    The Redis server password, or {@code null}
+     * @param maxTotal    Maximum number of connections of a pool
+     * @param maxIdle     Maximum number of idle connections of a pool
+     * @param minIdle     Minimum number of idle connections of a pool
+     * @param stripes     Number of stripes each pool is split in
+     * @since 26.10.16
+     */
+    RedisPools(final int defaultDb, final int connTimeout, final String password,
+               final int maxTotal, final int maxIdle, final int minIdle, final int stripes) {
+        this.defaultDb = defaultDb;
+        this.connTimeout = connTimeout;
+        this.password = password != null && !password.isEmpty() ? password : null;
+        this.maxTotal = maxTotal;
+        this.maxIdle = maxIdle;
+        this.minIdle = minIdle;
+        this.stripes = stripes;
+        this.swapLock = new Object();
+        this.pools = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Create a connections pool. The database is selected once,
+     * when a connection is opened, and selected again when a
+     * connection left on another database is borrowed. If the pool
+     * is striped, the connections are shared among the stripes.
+     *
+     * @param server The Redis server
+     * @param db     The database used by the connections
+     * @return The connections pool
+     * @since 26.10.16
+     */
+    JedisPoolAbstract createPool(final HostAndPort server, final int db) {
+        final Supplier<JedisPool> poolFactory = () -> {
+            final JedisPoolConfig poolConfig = new JedisPoolConfig();
+            poolConfig.setMinIdle(this.minIdle / this.stripes);
+            poolConfig.setMaxIdle((this.maxIdle + this.stripes - 1) / this.stripes);
+            poolConfig.setMaxTotal((this.maxTotal + this.stripes - 1) / this.stripes);
+            return new JedisPool(poolConfig, server.getHost(), server.getPort(), this.connTimeout, this.password, db);
+        };
+        return this.stripes > 1 ? new RedisStripedPool(this.stripes, poolFactory) : poolFactory.get();
+    }
+
+    /**
+     * Open a new connection to the given server, outside of the pools.
+     *
+     * @param server      The Redis server
+     * @param readTimeout The read timeout in milliseconds, {@code 0} to wait forever
+     * @return A Redis connection
+     * @since 26.10.16
+     */
+    Jedis openConnection(final HostAndPort server, final int readTimeout) {
+        final Jedis jedis = new Jedis(server.getHost(), server.getPort(), this.connTimeout, readTimeout);
+        if (this.password != null) {
+            try {
+                jedis.auth(this.password);
+            } catch (final RuntimeException ex) {
+                jedis.close();
+                throw ex;
+            }
+        }
+        return jedis;
+    }
+
+    /**
+     * Open a new connection to the given server for the multiplexer,
+     * outside of the pools. The connection timeout is also used as
+     * read timeout, so a hung server fails the pending batches
+     * instead of blocking them forever.
+     *
+     * @param server The Redis server
+     * @param db     The database to select
+     * @return A multiplexed connection
+     * @since 26.10.16
+     */
+    MultiplexedConnection openMultiplexedConnection(final HostAndPort server, final int db) {
+        return new MultiplexedConnection(server, this.connTimeout, this.password, db);
+    }
+
+    /**
+     * Connect the pools to a server. The previous pools are closed.
+     *
+     * @param server The Redis server
+     * @since 26.10.16
+     */
+    void connect(final HostAndPort server) {
+        final ConcurrentMap<Integer, JedisPoolAbstract> newPools = new ConcurrentHashMap<>();
+        newPools.put(this.defaultDb, this.createPool(server, this.defaultDb));
+        final Map<Integer, JedisPoolAbstract> previousPools;
+        synchronized (this.swapLock) {
+            previousPools = this.pools;
+            this.node = server;
+            this.pools = newPools;
+        }
+        RedisPools.close(previousPools);
+    }
+
+    /**
+     * Get the pool of a database, creating it if needed.
+     *
+     * @param db The database
+     * @return The connections pool
+     * @since 26.10.16
+     */
+    JedisPoolAbstract getPool(final int db) {
+        final JedisPoolAbstract pool = this.pools.get(db);
+        if (pool != null) {
+            return pool;
+        }
+        // Created under the lock, so the pool can't be added to pools being swapped
+        synchronized (this.swapLock) {
+            if (this.node == null) {
+                throw new JedisException("Redis connections pool is not initialized");
+            }
+            return this.pools.computeIfAbsent(db, key -> this.createPool(this.node, key));
+        }
+    }
+
+    /**
+     * Borrow a connection from the pool of a database. If the pools
+     * have just been swapped and closed, the connection is borrowed
+     * from the new pool.
+     *
+     * @param db The database
+     * @return A pooled connection
+     * @since 26.10.16
+     */
+    Jedis getResource(final int db) {
+        final JedisPoolAbstract pool = this.getPool(db);
+        try {
+            return pool.getResource();
+        } catch (final JedisException ex) {
+            final JedisPoolAbstract currentPool = this.getPool(db);
+            if (pool != currentPool) {
+                return currentPool.getResource();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Close all the pools.
+     *
+     * @since 26.10.16
+     */
+    void close() {
+        final Map<Integer, JedisPoolAbstract> previousPools;
+        synchronized (this.swapLock) {
+            previousPools = this.pools;
+            this.pools = new ConcurrentHashMap<>();
+        }
+        RedisPools.close(previousPools);
+    }
+
+    /**
+     * Close connections pools.
+     *
+     * @param poolsToClose The pools to close
+     * @since 26.10.16
+     */
+    private static void close(final Map<Integer, JedisPoolAbstract> poolsToClose) {
+        for (final JedisPoolAbstract pool : poolsToClose.values()) {
+            if (!pool.isClosed()) {
+                pool.close();
+            }
+        }
+    }
+}
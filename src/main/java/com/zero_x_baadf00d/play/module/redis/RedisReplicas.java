@@ -0,0 +1,424 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigValueType;
+import play.Logger;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolAbstract;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Read replicas serving the read-only operations. The latency of
+ * each replica, and of the master, is probed in the background
+ * with PING. A replica failing a probe or a read is not used
+ * until it answers a probe again. Until the first probe, reads
+ * are sent to the master.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisReplicas {
+
+    /**
+     * Number of reads sent to a replica.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_READS = "replicas.reads";
+
+    /**
+     * Number of replica reads sent again to the master.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_FALLBACKS = "replicas.fallbacks";
+
+    /**
+     * @since 26.10.16
+     */
+    static final String REPLICAS_READ_PREFERENCE = "redis.replicas.read-preference";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisReplicas.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REPLICAS_NODES = "redis.replicas.nodes";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REPLICAS_PROBE_PERIOD = "redis.replicas.probe-period";
+
+    /**
+     * Reads are sent to the master.
+     *
+     * @since 26.10.16
+     */
+    private static final String PREFERENCE_MASTER = "master";
+
+    /**
+     * Reads are spread over the replicas, or sent to the master if
+     * no replica is available.
+     *
+     * @since 26.10.16
+     */
+    private static final String PREFERENCE_REPLICA = "replica-preferred";
+
+    /**
+     * Reads are sent to the node with the lowest latency, master included.
+     *
+     * @since 26.10.16
+     */
+    private static final String PREFERENCE_NEAREST = "nearest";
+
+    /**
+     * Weight of the last probe in the latency average.
+     *
+     * @since 26.10.16
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * The read preference.
+     *
+     * @since 26.10.16
+     */
+    private final String readPreference;
+
+    /**
+     * The replicas.
+     *
+     * @since 26.10.16
+     */
+    private final Set<HostAndPort> nodes;
+
+    /**
+     * Time in milliseconds between two probes.
+     *
+     * @since 26.10.16
+     */
+    private final long probePeriod;
+
+    /**
+     * Connection pools, indexed by replica.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<HostAndPort, JedisPoolAbstract> pools;
+
+    /**
+     * Average latency in nanoseconds of the available replicas.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<HostAndPort, Double> latencies;
+
+    /**
+     * Used to spread reads over the replicas.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicInteger nextReplica;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Average latency in nanoseconds of the master, or {@code 0} if unknown.
+     *
+     * @since 26.10.16
+     */
+    private volatile double masterLatency;
+
+    /**
+     * Thread probing the nodes.
+     *
+     * @since 26.10.16
+     */
+    private Thread proberThread;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisReplicas(final Config configuration, final RedisMetrics metrics) {
+        this.readPreference = configuration.getString(RedisReplicas.REPLICAS_READ_PREFERENCE);
+        this.probePeriod = configuration.getLong(RedisReplicas.REPLICAS_PROBE_PERIOD);
+        this.nodes = new LinkedHashSet<>();
+        // Nodes can also be given as a comma separated string, which is easier to set from the environment
+        final List<String> replicaNodes = configuration.getValue(RedisReplicas.REPLICAS_NODES).valueType() == ConfigValueType.STRING
+            ? Arrays.asList(configuration.getString(RedisReplicas.REPLICAS_NODES).split(","))
+            : configuration.getStringList(RedisReplicas.REPLICAS_NODES);
+        for (final String node : replicaNodes) {
+            if (node.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                this.nodes.add(HostAndPort.parseString(node.trim()));
+            } catch (final RuntimeException ex) {
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    RedisReplicas.REPLICAS_NODES,
+                    "Invalid node '" + node + "', must be host:port",
+                    ex
+                );
+            }
+        }
+        if (!RedisReplicas.PREFERENCE_MASTER.equals(this.readPreference)
+            && !RedisReplicas.PREFERENCE_REPLICA.equals(this.readPreference)
+            && !RedisReplicas.PREFERENCE_NEAREST.equals(this.readPreference)) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisReplicas.REPLICAS_READ_PREFERENCE,
+                "Unknown read preference '" + this.readPreference + "', must be one of [master, replica-preferred, nearest]"
+            );
+        }
+        if (this.isEnabled() && this.nodes.isEmpty()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisReplicas.REPLICAS_NODES,
+                "Cannot be empty"
+            );
+        }
+        if (this.probePeriod < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisReplicas.REPLICAS_PROBE_PERIOD,
+                "Must be equal or greater than 1"
+            );
+        }
+        this.pools = new ConcurrentHashMap<>();
+        this.latencies = new ConcurrentHashMap<>();
+        this.nextReplica = new AtomicInteger();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Check if the reads can be sent to the replicas.
+     *
+     * @return {@code true} if the read preference is not "master"
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return !RedisReplicas.PREFERENCE_MASTER.equals(this.readPreference);
+    }
+
+    /**
+     * Choose the node serving the next read.
+     *
+     * @return The replica to read from, or {@code null} to read from the master
+     * @since 26.10.16
+     */
+    HostAndPort pick() {
+        if (!this.isEnabled()) {
+            return null;
+        }
+        final List<Map.Entry<HostAndPort, Double>> available = new ArrayList<>(this.latencies.entrySet());
+        if (available.isEmpty()) {
+            return null;
+        }
+        if (RedisReplicas.PREFERENCE_REPLICA.equals(this.readPreference)) {
+            return available.get(Math.floorMod(this.nextReplica.getAndIncrement(), available.size())).getKey();
+        }
+        Map.Entry<HostAndPort, Double> nearest = available.get(0);
+        for (final Map.Entry<HostAndPort, Double> entry : available) {
+            if (entry.getValue() < nearest.getValue()) {
+                nearest = entry;
+            }
+        }
+        final double currentMasterLatency = this.masterLatency;
+        return currentMasterLatency > 0 && currentMasterLatency <= nearest.getValue() ? null : nearest.getKey();
+    }
+
+    /**
+     * Choose the node serving the duplicate of a slow read.
+     *
+     * @param replica The replica serving the read
+     * @return The available replica with the lowest latency, other than the given one,
+     * or {@code null} to read from the master
+     * @since 26.10.16
+     */
+    HostAndPort pickOther(final HostAndPort replica) {
+        Map.Entry<HostAndPort, Double> nearest = null;
+        for (final Map.Entry<HostAndPort, Double> entry : this.latencies.entrySet()) {
+            if (!entry.getKey().equals(replica) && (nearest == null || entry.getValue() < nearest.getValue())) {
+                nearest = entry;
+            }
+        }
+        return nearest == null ? null : nearest.getKey();
+    }
+
+    /**
+     * Get a connection to a replica.
+     *
+     * @param replica The replica
+     * @return A pooled connection
+     * @since 26.10.16
+     */
+    Jedis getConnection(final HostAndPort replica) {
+        final Jedis jedis = this.pools.get(replica).getResource();
+        this.metrics.increment(RedisReplicas.METRIC_READS);
+        return jedis;
+    }
+
+    /**
+     * Stop using a replica until it answers a probe again.
+     *
+     * @param replica The replica
+     * @param ex      The error raised by the replica
+     * @since 26.10.16
+     */
+    void failed(final HostAndPort replica, final JedisException ex) {
+        if (this.latencies.remove(replica) != null) {
+            RedisReplicas.LOG.warn("Replica {} is not used anymore: {}", replica, ex.getMessage());
+        }
+        this.metrics.increment(RedisReplicas.METRIC_FALLBACKS);
+    }
+
+    /**
+     * Measure the latency of a node.
+     *
+     * @param connectionFactory Supplier of connections to the node
+     * @param previousLatency   The previous average latency, or {@code null} if unknown
+     * @return The new average latency in nanoseconds
+     * @since 26.10.16
+     */
+    private static double probe(final Supplier<Jedis> connectionFactory, final Double previousLatency) {
+        try (final Jedis jedis = connectionFactory.get()) {
+            final long startedAt = System.nanoTime();
+            jedis.ping();
+            final double latency = System.nanoTime() - startedAt;
+            return previousLatency == null
+                ? latency
+                : previousLatency + RedisReplicas.LATENCY_WEIGHT * (latency - previousLatency);
+        }
+    }
+
+    /**
+     * Probe the replicas, and the master if its latency is needed.
+     *
+     * @param masterConnectionFactory Supplier of connections to the master
+     * @since 26.10.16
+     */
+    private void probeAll(final Supplier<Jedis> masterConnectionFactory) {
+        for (final Map.Entry<HostAndPort, JedisPoolAbstract> entry : this.pools.entrySet()) {
+            try {
+                final Double latency = this.latencies.get(entry.getKey());
+                this.latencies.put(entry.getKey(), RedisReplicas.probe(entry.getValue()::getResource, latency));
+                if (latency == null) {
+                    RedisReplicas.LOG.info("Replica {} is used", entry.getKey());
+                }
+            } catch (final JedisException ex) {
+                this.failed(entry.getKey(), ex);
+            }
+        }
+        if (RedisReplicas.PREFERENCE_NEAREST.equals(this.readPreference)) {
+            try {
+                this.masterLatency = RedisReplicas.probe(
+                    masterConnectionFactory,
+                    this.masterLatency > 0 ? this.masterLatency : null
+                );
+            } catch (final JedisException ex) {
+                RedisReplicas.LOG.warn("Can't probe master: {}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Open the replicas pools, then start probing the nodes.
+     *
+     * @param poolFactory             Creates the connection pool of a replica
+     * @param masterConnectionFactory Supplier of connections to the master
+     * @since 26.10.16
+     */
+    void start(final Function<HostAndPort, JedisPoolAbstract> poolFactory, final Supplier<Jedis> masterConnectionFactory) {
+        if (!this.isEnabled() || this.proberThread != null) {
+            return;
+        }
+        for (final HostAndPort node : this.nodes) {
+            this.pools.put(node, poolFactory.apply(node));
+        }
+        this.proberThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                this.probeAll(masterConnectionFactory);
+                try {
+                    Thread.sleep(this.probePeriod);
+                } catch (final InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "play-redis-replicas");
+        this.proberThread.setDaemon(true);
+        this.proberThread.start();
+    }
+
+    /**
+     * Stop probing the nodes and close the replicas pools.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        if (this.proberThread != null) {
+            this.proberThread.interrupt();
+            this.proberThread = null;
+        }
+        this.latencies.clear();
+        for (final HostAndPort node : this.pools.keySet()) {
+            final JedisPoolAbstract pool = this.pools.remove(node);
+            if (pool != null) {
+                pool.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A Lua script executed on the Redis server. The script is
+ * called by its SHA1 digest and is only sent again when the
+ * server does not know it yet (eg: after a restart). In a
+ * pipeline, the script source code is always sent.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisScript {
+
+    /**
+     * The script source code.
+     *
+     * @since 26.10.16
+     */
+    private final String script;
+
+    /**
+     * The script SHA1 digest.
+     *
+     * @since 26.10.16
+     */
+    private final String sha1;
+
+    /**
+     * The script source code, as bytes.
+     *
+     * @since 26.10.16
+     */
+    private final byte[] scriptBytes;
+
+    /**
+     * The script SHA1 digest, as bytes.
+     *
+     * @since 26.10.16
+     */
+    private final byte[] sha1Bytes;
+
+    /**
+     * Build a new instance.
+     *
+     * @param script The Lua script source code
+     * @since 26.10.16
+     */
+    RedisScript(final String script) {
+        this.script = script;
+        this.sha1 = RedisScript.computeSha1(script);
+        this.scriptBytes = SafeEncoder.encode(this.script);
+        this.sha1Bytes = SafeEncoder.encode(this.sha1);
+    }
+
+    /**
+     * Compute the SHA1 digest of the given script, as
+     * expected by the Redis command EVALSHA.
+     *
+     * @param script The Lua script source code
+     * @return The SHA1 digest as hexadecimal string
+     * @since 26.10.16
+     */
+    private static String computeSha1(final String script) {
+        try {
+            final MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            final StringBuilder sb = new StringBuilder();
+            for (final byte b : messageDigest.digest(script.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Execute the script.
+     *
+     * @param jedis The Redis connection to use
+     * @param keys  The keys, available in the script as KEYS
+     * @param args  The arguments, available in the script as ARGV
+     * @return The script result
+     * @since 26.10.16
+     */
+    Object eval(final Jedis jedis, final List<String> keys, final List<String> args) {
+        try {
+            return jedis.evalsha(this.sha1, keys, args);
+        } catch (final JedisNoScriptException ignore) {
+            return jedis.eval(this.script, keys, args);
+        }
+    }
+
+    /**
+     * Execute the script with binary keys and arguments.
+     *
+     * @param jedis The Redis connection to use
+     * @param keys  The keys, available in the script as KEYS
+     * @param args  The arguments, available in the script as ARGV
+     * @return The script result
+     * @since 26.10.16
+     */
+    Object evalBinary(final Jedis jedis, final List<byte[]> keys, final List<byte[]> args) {
+        try {
+            return jedis.evalsha(this.sha1Bytes, keys, args);
+        } catch (final JedisNoScriptException ignore) {
+            return jedis.eval(this.scriptBytes, keys, args);
+        }
+    }
+
+    /**
+     * Add the script execution to a pipeline. As a missing script
+     * can't be detected before the pipeline is synchronized, the
+     * script source code is always sent.
+     *
+     * @param pipeline The pipeline to use
+     * @param keys     The keys, available in the script as KEYS
+     * @param args     The arguments, available in the script as ARGV
+     * @return The pending script result
+     * @since 26.10.16
+     */
+    Response<Object> eval(final Pipeline pipeline, final List<String> keys, final List<String> args) {
+        return pipeline.eval(this.script, keys, args);
+    }
+
+    /**
+     * Add the script execution, with binary keys and arguments, to
+     * a pipeline. The script source code is always sent.
+     *
+     * @param pipeline The pipeline to use
+     * @param keys     The keys, available in the script as KEYS
+     * @param args     The arguments, available in the script as ARGV
+     * @return The pending script result
+     * @since 26.10.16
+     */
+    Response<Object> evalBinary(final Pipeline pipeline, final List<byte[]> keys, final List<byte[]> args) {
+        return pipeline.eval(this.scriptBytes, keys, args);
+    }
+}
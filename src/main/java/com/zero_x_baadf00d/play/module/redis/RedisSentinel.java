@@ -0,0 +1,434 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigValueType;
+import play.Logger;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Follows the master of a Redis Sentinel deployment. The master
+ * address is asked to the sentinels, then each sentinel is
+ * listened for {@code +switch-master} events, so a failover is
+ * applied as soon as it is announced. The master is checked
+ * again each time a sentinel connection is opened, as events
+ * could have been missed. Outside of these events, a new master
+ * is only accepted once reported by a majority of the sentinels,
+ * so a lagging sentinel can't move back to a demoted master.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisSentinel {
+
+    /**
+     * Number of master switches applied.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_SWITCHES = "sentinel.switches";
+
+    /**
+     * @since 26.10.16
+     */
+    static final String SENTINEL_MASTER = "redis.sentinel.master";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(RedisSentinel.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String SENTINEL_NODES = "redis.sentinel.nodes";
+
+    /**
+     * Channel where sentinels announce the end of a failover.
+     *
+     * @since 26.10.16
+     */
+    private static final String SWITCH_MASTER_CHANNEL = "+switch-master";
+
+    /**
+     * Name of the master monitored by the sentinels, or an empty
+     * string if the sentinel mode is disabled.
+     *
+     * @since 26.10.16
+     */
+    private final String masterName;
+
+    /**
+     * The sentinels.
+     *
+     * @since 26.10.16
+     */
+    private final Set<HostAndPort> sentinels;
+
+    /**
+     * Connection timeout in milliseconds.
+     *
+     * @since 26.10.16
+     */
+    private final int connTimeout;
+
+    /**
+     * The current master.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicReference<HostAndPort> master;
+
+    /**
+     * The subscriptions to the sentinels events.
+     *
+     * @since 26.10.16
+     */
+    private final List<JedisPubSub> subscribers;
+
+    /**
+     * The threads listening to the sentinels.
+     *
+     * @since 26.10.16
+     */
+    private final List<Thread> subscriberThreads;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Called with the new master after each switch.
+     *
+     * @since 26.10.16
+     */
+    private volatile Consumer<HostAndPort> switchListener;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param connTimeout   Connection timeout in milliseconds
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RedisSentinel(final Config configuration, final int connTimeout, final RedisMetrics metrics) {
+        this.masterName = configuration.getString(RedisSentinel.SENTINEL_MASTER).trim();
+        this.sentinels = new LinkedHashSet<>();
+        // Nodes can also be given as a comma separated string, which is easier to set from the environment
+        final List<String> nodes = configuration.getValue(RedisSentinel.SENTINEL_NODES).valueType() == ConfigValueType.STRING
+            ? Arrays.asList(configuration.getString(RedisSentinel.SENTINEL_NODES).split(","))
+            : configuration.getStringList(RedisSentinel.SENTINEL_NODES);
+        for (final String node : nodes) {
+            if (node.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                this.sentinels.add(HostAndPort.parseString(node.trim()));
+            } catch (final RuntimeException ex) {
+                throw new ConfigException.BadValue(
+                    configuration.origin(),
+                    RedisSentinel.SENTINEL_NODES,
+                    "Invalid node '" + node + "', must be host:port",
+                    ex
+                );
+            }
+        }
+        if (this.isEnabled() && this.sentinels.isEmpty()) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RedisSentinel.SENTINEL_NODES,
+                "Cannot be empty"
+            );
+        }
+        this.connTimeout = connTimeout;
+        this.master = new AtomicReference<>();
+        this.subscribers = new ArrayList<>();
+        this.subscriberThreads = new ArrayList<>();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Check if the sentinel mode is enabled.
+     *
+     * @return {@code true} if the sentinel mode is enabled
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return !this.masterName.isEmpty();
+    }
+
+    /**
+     * Get the current master.
+     *
+     * @return The current master, or {@code null} if not discovered yet
+     * @since 26.10.16
+     */
+    HostAndPort getMaster() {
+        return this.master.get();
+    }
+
+    /**
+     * Ask the sentinels for the current master. The master is
+     * changed only if a majority of the sentinels report the new
+     * one. The caller is in charge of connecting to the master.
+     *
+     * @return The current master
+     * @throws JedisConnectionException If no sentinel knows the master
+     * @since 26.10.16
+     */
+    HostAndPort discover() {
+        final HostAndPort elected = this.elect(this.askSentinels());
+        if (!this.master.compareAndSet(null, elected)) {
+            this.setMaster(elected);
+        }
+        return elected;
+    }
+
+    /**
+     * Ask every sentinel for the current master.
+     *
+     * @return The number of sentinels reporting each master
+     * @since 26.10.16
+     */
+    private Map<HostAndPort, Integer> askSentinels() {
+        final Map<HostAndPort, Integer> votes = new LinkedHashMap<>();
+        for (final HostAndPort sentinel : this.sentinels) {
+            try (final Jedis jedis = new Jedis(sentinel.getHost(), sentinel.getPort(), this.connTimeout)) {
+                final HostAndPort reportedMaster = this.askMaster(jedis);
+                if (reportedMaster != null) {
+                    votes.merge(reportedMaster, 1, Integer::sum);
+                } else {
+                    RedisSentinel.LOG.warn("Sentinel {} does not know master '{}'", sentinel, this.masterName);
+                }
+            } catch (final JedisException ex) {
+                RedisSentinel.LOG.warn("Can't ask sentinel {} for master '{}': {}", sentinel, this.masterName, ex.getMessage());
+            }
+        }
+        return votes;
+    }
+
+    /**
+     * Choose the master among the ones reported by the sentinels.
+     * While no master is known, the most reported one is used. Then
+     * the current master is kept until a majority of the sentinels
+     * report another one.
+     *
+     * @param votes The number of sentinels reporting each master
+     * @return The master to use
+     * @throws JedisConnectionException If no sentinel knows the master
+     * @since 26.10.16
+     */
+    HostAndPort elect(final Map<HostAndPort, Integer> votes) {
+        HostAndPort elected = null;
+        int electedVotes = 0;
+        for (final Map.Entry<HostAndPort, Integer> vote : votes.entrySet()) {
+            if (vote.getValue() > electedVotes) {
+                elected = vote.getKey();
+                electedVotes = vote.getValue();
+            }
+        }
+        if (elected == null) {
+            throw new JedisConnectionException("No sentinel knows master '" + this.masterName + "'");
+        }
+        final HostAndPort currentMaster = this.master.get();
+        if (currentMaster != null && !currentMaster.equals(elected) && electedVotes <= this.sentinels.size() / 2) {
+            RedisSentinel.LOG.warn(
+                "Master '{}' reported as {} by {} of {} sentinels only, keeping {}",
+                this.masterName,
+                elected,
+                electedVotes,
+                this.sentinels.size(),
+                currentMaster
+            );
+            return currentMaster;
+        }
+        return elected;
+    }
+
+    /**
+     * Ask a sentinel for the current master.
+     *
+     * @param jedis The connection to the sentinel
+     * @return The current master, or {@code null} if the sentinel does not know it
+     * @since 26.10.16
+     */
+    private HostAndPort askMaster(final Jedis jedis) {
+        final List<String> address = jedis.sentinelGetMasterAddrByName(this.masterName);
+        if (address == null || address.size() < 2) {
+            return null;
+        }
+        return new HostAndPort(address.get(0), Integer.parseInt(address.get(1)));
+    }
+
+    /**
+     * Change the current master.
+     *
+     * @param newMaster The new master
+     * @return {@code true} if the master has changed
+     * @since 26.10.16
+     */
+    private boolean setMaster(final HostAndPort newMaster) {
+        final HostAndPort previousMaster = this.master.getAndSet(newMaster);
+        if (newMaster.equals(previousMaster)) {
+            return false;
+        }
+        RedisSentinel.LOG.warn("Master '{}' switched from {} to {}", this.masterName, previousMaster, newMaster);
+        this.metrics.increment(RedisSentinel.METRIC_SWITCHES);
+        return true;
+    }
+
+    /**
+     * Apply a master switch, once whatever the number of sentinels
+     * announcing it.
+     *
+     * @param newMaster The new master
+     * @since 26.10.16
+     */
+    private void switchMaster(final HostAndPort newMaster) {
+        if (this.setMaster(newMaster)) {
+            final Consumer<HostAndPort> listener = this.switchListener;
+            if (listener != null) {
+                listener.accept(newMaster);
+            }
+        }
+    }
+
+    /**
+     * Check the master with all the sentinels, as a switch may have
+     * been missed while disconnected from one of them.
+     *
+     * @since 26.10.16
+     */
+    private void checkMaster() {
+        try {
+            this.switchMaster(this.elect(this.askSentinels()));
+        } catch (final JedisConnectionException ex) {
+            RedisSentinel.LOG.warn("Can't check master '{}': {}", this.masterName, ex.getMessage());
+        }
+    }
+
+    /**
+     * Handles an event received from a sentinel. The message is
+     * formatted as "name old-ip old-port new-ip new-port".
+     *
+     * @param message The received message
+     * @since 26.10.16
+     */
+    void onSwitchMessage(final String message) {
+        final String[] fields = message.split(" ");
+        if (fields.length == 5 && this.masterName.equals(fields[0])) {
+            try {
+                this.switchMaster(new HostAndPort(fields[3], Integer.parseInt(fields[4])));
+            } catch (final NumberFormatException ex) {
+                RedisSentinel.LOG.warn("Invalid sentinel event '{}'", message);
+            }
+        }
+    }
+
+    /**
+     * Start listening to the sentinels. Each sentinel has its own
+     * connection, opened again if lost.
+     *
+     * @param listener   Called with the new master after each switch
+     * @param retryDelay Delay in milliseconds before reconnecting
+     * @since 26.10.16
+     */
+    void start(final Consumer<HostAndPort> listener, final long retryDelay) {
+        if (!this.isEnabled() || !this.subscriberThreads.isEmpty()) {
+            return;
+        }
+        this.switchListener = listener;
+        for (final HostAndPort sentinel : this.sentinels) {
+            final JedisPubSub subscriber = new JedisPubSub() {
+
+                @Override
+                public void onMessage(final String channelName, final String message) {
+                    RedisSentinel.this.onSwitchMessage(message);
+                }
+            };
+            final Thread thread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try (final Jedis jedis = new Jedis(sentinel.getHost(), sentinel.getPort(), this.connTimeout, 0)) {
+                        // Once the sentinel is reachable again, looks for a switch missed meanwhile
+                        jedis.connect();
+                        this.checkMaster();
+                        jedis.subscribe(subscriber, RedisSentinel.SWITCH_MASTER_CHANNEL);
+                    } catch (final JedisException ex) {
+                        RedisSentinel.LOG.warn("Sentinel {} lost: {}", sentinel, ex.getMessage());
+                        try {
+                            Thread.sleep(retryDelay);
+                        } catch (final InterruptedException ignore) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }, "play-redis-sentinel-" + sentinel);
+            thread.setDaemon(true);
+            this.subscribers.add(subscriber);
+            this.subscriberThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop listening to the sentinels.
+     *
+     * @since 26.10.16
+     */
+    void stop() {
+        for (final Thread thread : this.subscriberThreads) {
+            thread.interrupt();
+        }
+        for (final JedisPubSub subscriber : this.subscribers) {
+            if (subscriber.isSubscribed()) {
+                subscriber.unsubscribe();
+            }
+        }
+        this.subscriberThreads.clear();
+        this.subscribers.clear();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolAbstract;
+
+import java.util.function.Supplier;
+
+/**
+ * Connections pool split in stripes, each stripe being a pool
+ * of its own, to spread the borrows of many threads over several
+ * locks. A thread borrows from its own stripe, which gives back
+ * its last connection first when idle. When its stripe has no
+ * idle connection, the thread steals one from another stripe and
+ * sticks to it. Connections are given back to the stripe they
+ * come from.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RedisStripedPool extends JedisPoolAbstract {
+
+    /**
+     * The stripes.
+     *
+     * @since 26.10.16
+     */
+    private final JedisPool[] stripes;
+
+    /**
+     * The stripe of each thread.
+     *
+     * @since 26.10.16
+     */
+    private final ThreadLocal<int[]> threadStripe;
+
+    /**
+     * Build a new instance.
+     *
+     * @param stripeCount   The number of stripes
+     * @param stripeFactory Creates the pool of a stripe
+     * @since 26.10.16
+     */
+    RedisStripedPool(final int stripeCount, final Supplier<JedisPool> stripeFactory) {
+        this.stripes = new JedisPool[stripeCount];
+        for (int idx = 0; idx < stripeCount; ++idx) {
+            this.stripes[idx] = stripeFactory.get();
+        }
+        this.threadStripe = ThreadLocal.withInitial(
+            () -> new int[]{(int) Math.floorMod(Thread.currentThread().getId(), (long) stripeCount)}
+        );
+    }
+
+    @Override
+    public Jedis getResource() {
+        final int[] current = this.threadStripe.get();
+        final JedisPool stripe = this.stripes[current[0]];
+        if (stripe.getNumIdle() > 0) {
+            return stripe.getResource();
+        }
+        for (int offset = 1; offset < this.stripes.length; ++offset) {
+            final int idx = (current[0] + offset) % this.stripes.length;
+            if (this.stripes[idx].getNumIdle() > 0) {
+                current[0] = idx;
+                return this.stripes[idx].getResource();
+            }
+        }
+        // No idle connection anywhere, open one on the thread stripe or wait for it
+        return stripe.getResource();
+    }
+
+    @Override
+    public void close() {
+        for (final JedisPool stripe : this.stripes) {
+            stripe.close();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.stripes[0].isClosed();
+    }
+
+    @Override
+    public int getNumActive() {
+        int total = 0;
+        for (final JedisPool stripe : this.stripes) {
+            total += stripe.getNumActive();
+        }
+        return total;
+    }
+
+    @Override
+    public int getNumIdle() {
+        int total = 0;
+        for (final JedisPool stripe : this.stripes) {
+            total += stripe.getNumIdle();
+        }
+        return total;
+    }
+
+    @Override
+    public int getNumWaiters() {
+        int total = 0;
+        for (final JedisPool stripe : this.stripes) {
+            total += stripe.getNumWaiters();
+        }
+        return total;
+    }
+}
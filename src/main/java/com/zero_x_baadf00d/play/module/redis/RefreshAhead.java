@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Refresh-ahead mode of {@code getOrElse}, using probabilistic
+ * early expiration (XFetch). Each read of a value decides at
+ * random whether to refresh it in the background before it
+ * expires. The probability grows as the expiration gets closer,
+ * and with the time it took to compute the value, so refreshes
+ * of many keys are spread over time.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class RefreshAhead {
+
+    /**
+     * Number of early refreshes decided.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_EARLY = "refresh-ahead.early";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REFRESH_AHEAD_ENABLED = "redis.refresh-ahead.enabled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String REFRESH_AHEAD_BETA = "redis.refresh-ahead.beta";
+
+    /**
+     * Is the mode enabled.
+     *
+     * @since 26.10.16
+     */
+    private final boolean enabled;
+
+    /**
+     * Scaling of the compute time. Greater values refresh earlier.
+     *
+     * @since 26.10.16
+     */
+    private final double beta;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    RefreshAhead(final Config configuration, final RedisMetrics metrics) {
+        this.enabled = configuration.getBoolean(RefreshAhead.REFRESH_AHEAD_ENABLED);
+        this.beta = configuration.getDouble(RefreshAhead.REFRESH_AHEAD_BETA);
+        if (this.beta <= 0) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                RefreshAhead.REFRESH_AHEAD_BETA,
+                "Must be greater than 0"
+            );
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Check if the refresh-ahead mode is enabled.
+     *
+     * @return {@code true} if the mode is enabled
+     * @since 26.10.16
+     */
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Get the compute time to store with a value.
+     *
+     * @param startedAt Timestamp (in nanoseconds) when the computation started
+     * @return Time in milliseconds, at least {@code 1}, or {@code 0} if the mode is disabled
+     * @since 26.10.16
+     */
+    int computeTime(final long startedAt) {
+        if (!this.enabled) {
+            return 0;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (System.nanoTime() - startedAt) / 1_000_000));
+    }
+
+    /**
+     * Decide if this caller must refresh the value before it
+     * expires: {@code now - computeTime * beta * ln(random) >= expiration}.
+     *
+     * @param envelope The value read from Redis
+     * @return {@code true} if the value must be refreshed now
+     * @since 26.10.16
+     */
+    boolean shouldRefresh(final RedisEnvelope<?> envelope) {
+        if (!this.enabled || envelope.getComputeTime() <= 0 || envelope.getExpiresAt() <= 0) {
+            return false;
+        }
+        final double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        final double gap = -envelope.getComputeTime() * this.beta * Math.log(random);
+        if (System.currentTimeMillis() + gap >= envelope.getExpiresAt()) {
+            this.metrics.increment(RefreshAhead.METRIC_EARLY);
+            return true;
+        }
+        return false;
+    }
+}
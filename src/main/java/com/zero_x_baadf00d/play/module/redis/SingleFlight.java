@@ -0,0 +1,237 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls made on this node for the same
+ * flight key: the first caller runs the call, the others wait
+ * for its result instead of running the call again. Callers
+ * sharing a flight receive the same value instance.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class SingleFlight {
+
+    /**
+     * Number of calls served by a flight started by another caller.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_SHARED = "single-flight.shared";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String SINGLE_FLIGHT_ENABLED = "redis.single-flight.enabled";
+
+    /**
+     * Flights in progress, indexed by flight key.
+     *
+     * @since 26.10.16
+     */
+    private final ConcurrentMap<Key, CompletableFuture<Object>> flights;
+
+    /**
+     * Is coalescing enabled.
+     *
+     * @since 26.10.16
+     */
+    private final boolean enabled;
+
+    /**
+     * The module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    SingleFlight(final Config configuration, final RedisMetrics metrics) {
+        this.flights = new ConcurrentHashMap<>();
+        this.enabled = configuration.getBoolean(SingleFlight.SINGLE_FLIGHT_ENABLED);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Run a blocking call, or wait for the result of the flight
+     * already running for the same key.
+     *
+     * @param flightKey The flight key
+     * @param supplier  The call
+     * @param <T>       Generic type of something
+     * @return The call result
+     * @since 26.10.16
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(final Key flightKey, final Supplier<T> supplier) {
+        if (!this.enabled) {
+            return supplier.get();
+        }
+        final CompletableFuture<Object> flight = new CompletableFuture<>();
+        final CompletableFuture<Object> existingFlight = this.flights.putIfAbsent(flightKey, flight);
+        if (existingFlight != null) {
+            this.metrics.increment(SingleFlight.METRIC_SHARED);
+            try {
+                return (T) existingFlight.join();
+            } catch (final CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+        try {
+            final T value = supplier.get();
+            flight.complete(value);
+            return value;
+        } catch (final RuntimeException | Error ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.flights.remove(flightKey, flight);
+        }
+    }
+
+    /**
+     * Start an asynchronous call, or join the flight already
+     * running for the same key. Joiners are completed on the
+     * executor, not on the thread completing the flight.
+     *
+     * @param flightKey The flight key
+     * @param executor  Executor completing the joiners
+     * @param supplier  The call
+     * @param <T>       Generic type of something
+     * @return The call result
+     * @since 26.10.16
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletionStage<T> executeAsync(final Key flightKey, final Executor executor, final Supplier<CompletionStage<T>> supplier) {
+        if (!this.enabled) {
+            return supplier.get();
+        }
+        final CompletableFuture<Object> flight = new CompletableFuture<>();
+        final CompletableFuture<Object> existingFlight = this.flights.putIfAbsent(flightKey, flight);
+        if (existingFlight != null) {
+            this.metrics.increment(SingleFlight.METRIC_SHARED);
+            return existingFlight.thenApplyAsync(value -> (T) value, executor);
+        }
+        try {
+            supplier.get().whenComplete((value, ex) -> {
+                this.flights.remove(flightKey, flight);
+                if (ex != null) {
+                    flight.completeExceptionally(ex);
+                } else {
+                    flight.complete(value);
+                }
+            });
+        } catch (final RuntimeException ex) {
+            this.flights.remove(flightKey, flight);
+            flight.completeExceptionally(ex);
+        }
+        return flight.thenApply(value -> (T) value);
+    }
+
+    /**
+     * A flight key: the Redis key, the codec decoding its value, and
+     * the node the value is read from. A read from the master never
+     * joins a read from a replica, which may return an older value.
+     *
+     * @since 26.10.16
+     */
+    static final class Key {
+
+        /**
+         * The Redis key.
+         *
+         * @since 26.10.16
+         */
+        private final String key;
+
+        /**
+         * The codec decoding the value.
+         *
+         * @since 26.10.16
+         */
+        private final TypedCodec typedCodec;
+
+        /**
+         * Is the value read from a replica?
+         *
+         * @since 26.10.16
+         */
+        private final boolean fromReplica;
+
+        /**
+         * Build a new instance.
+         *
+         * @param key         The Redis key
+         * @param typedCodec  The codec decoding the value
+         * @param fromReplica Is the value read from a replica?
+         * @since 26.10.16
+         */
+        Key(final String key, final TypedCodec typedCodec, final boolean fromReplica) {
+            this.key = key;
+            this.typedCodec = typedCodec;
+            this.fromReplica = fromReplica;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key otherKey = (Key) other;
+            return this.fromReplica == otherKey.fromReplica
+                && this.key.equals(otherKey.key)
+                && Objects.equals(this.typedCodec, otherKey.typedCodec);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.key, this.typedCodec, this.fromReplica);
+        }
+    }
+}
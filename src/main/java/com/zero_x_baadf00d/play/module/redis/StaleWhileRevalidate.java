@@ -0,0 +1,210 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import play.Logger;
+
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Stale-while-revalidate mode of {@code getOrElse}. Values are
+ * stored with a soft expiration (the requested expiration) and
+ * kept in Redis a grace period longer. A value read after its
+ * soft expiration is returned as is, while a single background
+ * refresh per key is run on the module executor. Background
+ * refreshes are also used by the refresh-ahead mode.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class StaleWhileRevalidate {
+
+    /**
+     * Number of stale values returned.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_STALE = "swr.stale";
+
+    /**
+     * Number of background refreshes started.
+     *
+     * @since 26.10.16
+     */
+    static final String METRIC_REFRESH = "swr.refresh";
+
+    /**
+     * Logger instance.
+     *
+     * @since 26.10.16
+     */
+    private static final Logger.ALogger LOG = Logger.of(StaleWhileRevalidate.class);
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String SWR_ENABLED = "redis.stale-while-revalidate.enabled";
+
+    /**
+     * @since 26.10.16
+     */
+    private static final String SWR_GRACE = "redis.stale-while-revalidate.grace";
+
+    /**
+     * Is the mode enabled.
+     *
+     * @since 26.10.16
+     */
+    private final boolean enabled;
+
+    /**
+     * Time in seconds a value is kept after its soft expiration.
+     *
+     * @since 26.10.16
+     */
+    private final int grace;
+
+    /**
+     * Executor running the refreshes.
+     *
+     * @since 26.10.16
+     */
+    private final Executor executor;
+
+    /**
+     * Keys being refreshed.
+     *
+     * @since 26.10.16
+     */
+    private final Set<String> refreshing;
+
+    /**
+     * Module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics;
+
+    /**
+     * Build a new instance.
+     *
+     * @param configuration The current application configuration
+     * @param executor      Executor running the refreshes
+     * @param metrics       The module metrics
+     * @since 26.10.16
+     */
+    StaleWhileRevalidate(final Config configuration, final Executor executor, final RedisMetrics metrics) {
+        this.enabled = configuration.getBoolean(StaleWhileRevalidate.SWR_ENABLED);
+        this.grace = configuration.getInt(StaleWhileRevalidate.SWR_GRACE);
+        if (this.grace < 1) {
+            throw new ConfigException.BadValue(
+                configuration.origin(),
+                StaleWhileRevalidate.SWR_GRACE,
+                "Must be equal or greater than 1"
+            );
+        }
+        this.executor = executor;
+        this.refreshing = ConcurrentHashMap.newKeySet();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the expiration to give to Redis for the given expiration.
+     *
+     * @param expiration The requested expiration in seconds, or {@code 0}
+     * @return The expiration extended by the grace period
+     * @since 26.10.16
+     */
+    int hardExpiration(final int expiration) {
+        return this.enabled && expiration > 0 ? expiration + this.grace : expiration;
+    }
+
+    /**
+     * Get the soft expiration to store in the envelope of a value
+     * written now, with the given expiration.
+     *
+     * @param expiration The requested expiration in seconds, or {@code 0}
+     * @return Timestamp (in milliseconds) after which the value is stale, or {@code 0}
+     * @since 26.10.16
+     */
+    long softExpiresAt(final int expiration) {
+        return this.enabled && expiration > 0 ? System.currentTimeMillis() + expiration * 1000L : 0;
+    }
+
+    /**
+     * Check if the value is stale, and must be refreshed.
+     *
+     * @param envelope The value read from Redis
+     * @return {@code true} if the mode is enabled and the soft expiration is reached
+     * @since 26.10.16
+     */
+    boolean isStale(final RedisEnvelope<?> envelope) {
+        if (!this.enabled || !envelope.isStale(System.currentTimeMillis())) {
+            return false;
+        }
+        this.metrics.increment(StaleWhileRevalidate.METRIC_STALE);
+        return true;
+    }
+
+    /**
+     * Start a background refresh, unless a refresh of the key is
+     * already running on this node.
+     *
+     * @param key     The key
+     * @param refresh The refresh to run
+     * @since 26.10.16
+     */
+    void refreshInBackground(final String key, final Supplier<? extends CompletionStage<?>> refresh) {
+        if (!this.refreshing.add(key)) {
+            return;
+        }
+        try {
+            this.executor.execute(() -> {
+                this.metrics.increment(StaleWhileRevalidate.METRIC_REFRESH);
+                try {
+                    refresh.get().whenComplete((value, ex) -> {
+                        this.refreshing.remove(key);
+                        if (ex != null) {
+                            StaleWhileRevalidate.LOG.warn("Can't refresh '{}': {}", key, ex.getMessage());
+                        }
+                    });
+                } catch (final RuntimeException ex) {
+                    this.refreshing.remove(key);
+                    StaleWhileRevalidate.LOG.warn("Can't refresh '{}': {}", key, ex.getMessage());
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            // The stale value is still returned, the next read will try again
+            this.refreshing.remove(key);
+        }
+    }
+}
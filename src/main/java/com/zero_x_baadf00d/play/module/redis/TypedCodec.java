@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Converts values of a given type to bytes and back. Readers
+ * and writers of each codec are resolved once, then reused.
+ * Instances are thread-safe.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class TypedCodec {
+
+    /**
+     * The codecs registry.
+     *
+     * @since 26.10.16
+     */
+    private final RedisCodecs codecs;
+
+    /**
+     * The value type.
+     *
+     * @since 26.10.16
+     */
+    private final JavaType javaType;
+
+    /**
+     * Resolved readers and writers, indexed by codec marker.
+     *
+     * @since 26.10.16
+     */
+    private final Resolved[] resolved;
+
+    /**
+     * Build a new instance.
+     *
+     * @param codecs   The codecs registry
+     * @param javaType The value type
+     * @since 26.10.16
+     */
+    TypedCodec(final RedisCodecs codecs, final JavaType javaType) {
+        this.codecs = codecs;
+        this.javaType = javaType;
+        this.resolved = new Resolved[codecs.getCodecs().size()];
+    }
+
+    /**
+     * Get the value type.
+     *
+     * @return The value type
+     * @since 26.10.16
+     */
+    JavaType getJavaType() {
+        return this.javaType;
+    }
+
+    /**
+     * Get the reader and writer of the given codec. They are built
+     * again if the codec mapper has been replaced in the meantime.
+     *
+     * @param codec The codec
+     * @return The resolved reader and writer
+     * @since 26.10.16
+     */
+    private Resolved resolve(final RedisCodec codec) {
+        final ObjectMapper mapper = codec.getMapper();
+        Resolved current = this.resolved[codec.getMarker()];
+        if (current == null || current.mapper != mapper) {
+            current = new Resolved(mapper, mapper.readerFor(this.javaType), mapper.writerFor(this.javaType));
+            this.resolved[codec.getMarker()] = current;
+        }
+        return current;
+    }
+
+    /**
+     * Resolves the readers and writers of all codecs. As Jackson
+     * eagerly fetches root serializers and deserializers, this
+     * also moves the type introspection cost out of the first call.
+     *
+     * @since 26.10.16
+     */
+    void warmUp() {
+        final List<RedisCodec> availableCodecs = this.codecs.getCodecs();
+        for (final RedisCodec codec : availableCodecs) {
+            if (codec != null) {
+                this.resolve(codec);
+            }
+        }
+    }
+
+    /**
+     * Converts a value to bytes.
+     *
+     * @param key   The key the value will be stored at
+     * @param value The value
+     * @return The value bytes, prefixed by the codec marker, and compressed if big enough
+     * @throws IOException If the value can't be serialized
+     * @since 26.10.16
+     */
+    byte[] encode(final String key, final Object value) throws IOException {
+        return this.encode(key, value, 0, 0);
+    }
+
+    /**
+     * Converts a value to bytes. If a soft expiration or a compute
+     * time is given, the value is stored in an envelope.
+     *
+     * @param key           The key the value will be stored at
+     * @param value         The value
+     * @param softExpiresAt Timestamp (in milliseconds) after which the value is stale, or {@code 0}
+     * @param computeTime   Time in milliseconds it took to compute the value, or {@code 0}
+     * @return The value bytes, prefixed by the codec marker, and compressed if big enough
+     * @throws IOException If the value can't be serialized
+     * @since 26.10.16
+     * @see RedisEnvelope
+     */
+    byte[] encode(final String key, final Object value, final long softExpiresAt, final int computeTime) throws IOException {
+        final RedisCodec codec = this.codecs.getCodec(key);
+        final ObjectWriter writer = this.resolve(codec).writer;
+        final boolean hasEnvelope = softExpiresAt > 0 || computeTime > 0;
+        if (codec.getMarker() == RedisCodec.NO_MARKER && !hasEnvelope) {
+            return this.codecs.getCompression().compress(key, writer.writeValueAsBytes(value));
+        }
+
+        // The envelope and the marker are written first in the same buffer, to avoid copying the value
+        try (final ByteArrayBuilder byteArrayBuilder = new ByteArrayBuilder()) {
+            if (hasEnvelope) {
+                RedisEnvelope.writeHeader(byteArrayBuilder, softExpiresAt, computeTime);
+            }
+            if (codec.getMarker() != RedisCodec.NO_MARKER) {
+                byteArrayBuilder.write(codec.getMarker());
+            }
+            writer.writeValue(byteArrayBuilder, value);
+            return this.codecs.getCompression().compress(key, byteArrayBuilder.toByteArray());
+        }
+    }
+
+    /**
+     * Converts bytes back to a value. Compressed bytes are first
+     * decompressed, then the codec is chosen from the marker.
+     * Bytes without marker are read as JSON.
+     *
+     * @param rawData The value bytes, compressed or not
+     * @param <T>     Generic type of something
+     * @return The value
+     * @throws IOException If the value can't be deserialized
+     * @since 26.10.16
+     */
+    <T> T decode(final byte[] rawData) throws IOException {
+        final byte[] data = this.codecs.getCompression().decompress(rawData);
+        return this.readValue(data, RedisEnvelope.isEnvelope(data) ? RedisEnvelope.HEADER_SIZE : 0);
+    }
+
+    /**
+     * Converts bytes back to a value, keeping its envelope information.
+     *
+     * @param rawData The value bytes, compressed or not
+     * @param <T>     Generic type of something
+     * @return The value and its envelope information
+     * @throws IOException If the value can't be deserialized
+     * @since 26.10.16
+     */
+    <T> RedisEnvelope<T> decodeEnvelope(final byte[] rawData) throws IOException {
+        final byte[] data = this.codecs.getCompression().decompress(rawData);
+        if (RedisEnvelope.isEnvelope(data)) {
+            return new RedisEnvelope<>(
+                this.readValue(data, RedisEnvelope.HEADER_SIZE),
+                RedisEnvelope.readSoftExpiresAt(data),
+                RedisEnvelope.readComputeTime(data),
+                0
+            );
+        }
+        return new RedisEnvelope<>(this.readValue(data, 0));
+    }
+
+    /**
+     * Reads a value with the codec designated by its marker.
+     *
+     * @param data   The value bytes, decompressed
+     * @param offset The offset of the value in the bytes
+     * @param <T>    Generic type of something
+     * @return The value
+     * @throws IOException If the value can't be deserialized
+     * @since 26.10.16
+     */
+    private <T> T readValue(final byte[] data, final int offset) throws IOException {
+        final RedisCodec codec = this.codecs.getCodec(data, offset);
+        final ObjectReader reader = this.resolve(codec).reader;
+        final int start = codec.getMarker() == RedisCodec.NO_MARKER ? offset : offset + 1;
+        return reader.readValue(data, start, data.length - start);
+    }
+
+    /**
+     * Reader and writer resolved from a mapper.
+     *
+     * @since 26.10.16
+     */
+    private static final class Resolved {
+
+        /**
+         * The mapper used to build the reader and the writer.
+         *
+         * @since 26.10.16
+         */
+        private final ObjectMapper mapper;
+
+        /**
+         * The reader.
+         *
+         * @since 26.10.16
+         */
+        private final ObjectReader reader;
+
+        /**
+         * The writer.
+         *
+         * @since 26.10.16
+         */
+        private final ObjectWriter writer;
+
+        /**
+         * Build a new instance.
+         *
+         * @param mapper The mapper used to build the reader and the writer
+         * @param reader The reader
+         * @param writer The writer
+         * @since 26.10.16
+         */
+        Resolved(final ObjectMapper mapper, final ObjectReader reader, final ObjectWriter writer) {
+            this.mapper = mapper;
+            this.reader = reader;
+            this.writer = writer;
+        }
+    }
+}
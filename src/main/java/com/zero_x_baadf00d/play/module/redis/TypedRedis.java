@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Handle to values of a single type. The type is resolved
+ * once when the handle is created, then readers and writers
+ * are reused on each call. Keys given to the handle are
+ * automatically prefixed by the handle key prefix.
+ * <p>
+ * Handles are thread-safe and are meant to be created once
+ * and kept (eg: as a field of a singleton).
+ *
+ * @param <T> Generic type of something
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @see PlayRedis#typed(Class)
+ * @since 26.10.16
+ */
+public interface TypedRedis<T> {
+
+    /**
+     * Get the values type.
+     *
+     * @return The values java type
+     * @since 26.10.16
+     */
+    JavaType getJavaType();
+
+    /**
+     * Get the prefix added to all keys given to this handle.
+     *
+     * @return The key prefix, can be empty
+     * @since 26.10.16
+     */
+    String getKeyPrefix();
+
+    /**
+     * Retrieves an object by key.
+     *
+     * @param key Item key
+     * @return object or {@code null}
+     * @since 26.10.16
+     */
+    T get(final String key);
+
+    /**
+     * Retrieves many objects in a single round trip.
+     *
+     * @param keys Items keys
+     * @return A map of found objects, indexed by key (without prefix)
+     * @since 26.10.16
+     */
+    Map<String, T> getMany(final Collection<String> keys);
+
+    /**
+     * Sets a value without expiration.
+     *
+     * @param key   Item key
+     * @param value The value to set
+     * @since 26.10.16
+     */
+    void set(final String key, final T value);
+
+    /**
+     * Sets a value with expiration.
+     *
+     * @param key        Item key
+     * @param value      The value to set
+     * @param expiration expiration in seconds
+     * @since 26.10.16
+     */
+    void set(final String key, final T value, final int expiration);
+
+    /**
+     * Sets many values with expiration in a single pipeline.
+     *
+     * @param values     The values to set, indexed by key
+     * @param expiration expiration in seconds
+     * @return Keys (without prefix) of the entries that could not be set
+     * @since 26.10.16
+     */
+    Set<String> setMany(final Map<String, T> values, final int expiration);
+
+    /**
+     * Retrieve a value from the cache, or set it from a default
+     * Callable function.
+     *
+     * @param key        Item key
+     * @param block      block returning value to set if key does not exist
+     * @param expiration expiration period in seconds
+     * @return value
+     * @since 26.10.16
+     */
+    T getOrElse(final String key, final Callable<T> block, final int expiration);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key   The list key
+     * @param value The value to add in the list
+     * @since 26.10.16
+     */
+    void addInList(final String key, final T value);
+
+    /**
+     * Add a value in a list.
+     *
+     * @param key     The list key
+     * @param value   The value to add in the list
+     * @param maxItem The number of entries to keep in list
+     * @since 26.10.16
+     */
+    void addInList(final String key, final T value, final int maxItem);
+
+    /**
+     * Get values from a list.
+     *
+     * @param key    The list key
+     * @param offset From where
+     * @param count  The number of items to retrieve
+     * @return The values list
+     * @since 26.10.16
+     */
+    List<T> getFromList(final String key, final int offset, final int count);
+}
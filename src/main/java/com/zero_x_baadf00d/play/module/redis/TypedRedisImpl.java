@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Implementation of {@code TypedRedis}.
+ *
+ * @param <T> Generic type of something
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @see TypedRedis
+ * @since 26.10.16
+ */
+final class TypedRedisImpl<T> implements TypedRedis<T> {
+
+    /**
+     * The Redis module.
+     *
+     * @since 26.10.16
+     */
+    private final PlayRedisImpl playRedis;
+
+    /**
+     * The values typed codec.
+     *
+     * @since 26.10.16
+     */
+    private final TypedCodec typedCodec;
+
+    /**
+     * Prefix added to all keys.
+     *
+     * @since 26.10.16
+     */
+    private final String keyPrefix;
+
+    /**
+     * Build a new instance.
+     *
+     * @param playRedis  The Redis module
+     * @param typedCodec The values typed codec
+     * @param keyPrefix  Prefix added to all keys
+     * @since 26.10.16
+     */
+    TypedRedisImpl(final PlayRedisImpl playRedis, final TypedCodec typedCodec, final String keyPrefix) {
+        this.playRedis = playRedis;
+        this.typedCodec = typedCodec;
+        this.keyPrefix = keyPrefix == null ? "" : keyPrefix;
+    }
+
+    /**
+     * Add the prefix to the given key.
+     *
+     * @param key The key
+     * @return The prefixed key
+     * @since 26.10.16
+     */
+    private String prepareKey(final String key) {
+        return this.keyPrefix.isEmpty() ? key : this.keyPrefix + key;
+    }
+
+    @Override
+    public JavaType getJavaType() {
+        return this.typedCodec.getJavaType();
+    }
+
+    @Override
+    public String getKeyPrefix() {
+        return this.keyPrefix;
+    }
+
+    @Override
+    public T get(final String key) {
+        return this.playRedis.get(this.prepareKey(key), this.typedCodec);
+    }
+
+    @Override
+    public Map<String, T> getMany(final Collection<String> keys) {
+        if (this.keyPrefix.isEmpty()) {
+            return this.playRedis.getMany(keys, this.typedCodec);
+        }
+        final List<String> prefixedKeys = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            prefixedKeys.add(this.prepareKey(key));
+        }
+        final Map<String, T> objects = new LinkedHashMap<>();
+        this.playRedis.<T>getMany(prefixedKeys, this.typedCodec)
+            .forEach((k, v) -> objects.put(k.substring(this.keyPrefix.length()), v));
+        return objects;
+    }
+
+    @Override
+    public void set(final String key, final T value) {
+        this.set(key, value, 0);
+    }
+
+    @Override
+    public void set(final String key, final T value, final int expiration) {
+        this.playRedis.set(this.prepareKey(key), this.typedCodec, value, expiration);
+    }
+
+    @Override
+    public Set<String> setMany(final Map<String, T> values, final int expiration) {
+        if (this.keyPrefix.isEmpty()) {
+            return this.playRedis.setMany(values, this.typedCodec, expiration);
+        }
+        final Map<String, T> prefixedValues = new LinkedHashMap<>();
+        values.forEach((k, v) -> prefixedValues.put(this.prepareKey(k), v));
+        final Set<String> failedKeys = new HashSet<>();
+        for (final String key : this.playRedis.setMany(prefixedValues, this.typedCodec, expiration)) {
+            failedKeys.add(key.substring(this.keyPrefix.length()));
+        }
+        return failedKeys;
+    }
+
+    @Override
+    public T getOrElse(final String key, final Callable<T> block, final int expiration) {
+        return this.playRedis.getOrElse(this.prepareKey(key), this.typedCodec, block, expiration);
+    }
+
+    @Override
+    public void addInList(final String key, final T value) {
+        this.playRedis.addInList(this.prepareKey(key), this.typedCodec, value);
+    }
+
+    @Override
+    public void addInList(final String key, final T value, final int maxItem) {
+        this.playRedis.addInList(this.prepareKey(key), this.typedCodec, value, maxItem);
+    }
+
+    @Override
+    public List<T> getFromList(final String key, final int offset, final int count) {
+        return this.playRedis.getFromList(this.prepareKey(key), this.typedCodec, offset, count);
+    }
+}
@@ -24,27 +24,24 @@
 package com.zero_x_baadf00d.play.module.redis.cache;
 
 import akka.Done;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.zero_x_baadf00d.play.module.redis.PlayRedis;
+import com.zero_x_baadf00d.play.module.redis.PlayRedisAsync;
 import play.cache.AsyncCacheApi;
 import play.cache.SyncCacheApi;
-import redis.clients.jedis.Jedis;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 
-import static java.util.concurrent.CompletableFuture.completedFuture;
-import static java.util.concurrent.CompletableFuture.supplyAsync;
-
 /**
- * Implementation of {@code PlayRedis} as Async Cache Api.
+ * Implementation of {@code PlayRedis} as Async Cache Api. Calls
+ * are made through the non-blocking {@link PlayRedisAsync} API.
  *
  * @author Felipe Bonezi
- * @version 20.11
+ * @version 26.10.16
  * @see PlayRedis
  * @since 20.11.05
  */
@@ -65,9 +62,17 @@ public class AsyncCacheRedisImpl implements AsyncCacheApi {
      */
     private final SyncCacheRedisImpl syncCacheApi;
 
+    /**
+     * The non-blocking API of the {@link PlayRedis} injected implementation.
+     *
+     * @since 26.10.16
+     */
+    private final PlayRedisAsync playRedisAsync;
+
     @Inject
     public AsyncCacheRedisImpl(final SyncCacheRedisImpl syncCacheApi) {
         this.syncCacheApi = syncCacheApi;
+        this.playRedisAsync = syncCacheApi.asPlayRedis().async();
     }
 
     /**
@@ -82,26 +87,16 @@ public class AsyncCacheRedisImpl implements AsyncCacheApi {
 
     @Override
     public <T> CompletionStage<Optional<T>> get(final String key) {
-        return supplyAsync(() -> this.sync().get(this.prepareKey(key)));
+        return this.prepareKey(key).thenCompose(preparedKey -> this.playRedisAsync.get(preparedKey, new TypeReference<T>() {
+        })).thenApply(Optional::ofNullable);
     }
 
     @Override
     public <T> CompletionStage<T> getOrElseUpdate(final String key, final Callable<CompletionStage<T>> callable,
                                                   final int expiration) {
-        return CompletableFuture.supplyAsync(() -> this.sync().<T>get(this.prepareKey(key)))
-            .thenCompose(optional -> {
-                if (optional.isPresent())
-                    return completedFuture(optional.get());
-
-                try {
-                    return callable.call()
-                        .thenCompose(t ->
-                            this.set(key, t).thenApply(done -> t));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new CompletionException(e);
-                }
-            });
+        // Concurrent calls for the same key share a single computation
+        return this.prepareKey(key).thenCompose(preparedKey -> this.playRedisAsync.getOrElse(preparedKey, new TypeReference<T>() {
+        }, callable, expiration));
     }
 
     @Override
@@ -111,9 +106,12 @@ public class AsyncCacheRedisImpl implements AsyncCacheApi {
 
     @Override
     public CompletionStage<Done> set(final String key, final Object o, final int expiration) {
-        return supplyAsync(() -> {
-            this.sync().set(this.prepareKey(key), o, expiration);
-            return Done.done();
+        return this.prepareKey(key).thenCompose(preparedKey -> {
+            if (o instanceof Long) {
+                return this.playRedisAsync.set(preparedKey, Long.class, (Long) o, expiration);
+            }
+            return this.playRedisAsync.set(preparedKey, new TypeReference<Object>() {
+            }, o, expiration);
         });
     }
 
@@ -124,22 +122,14 @@ public class AsyncCacheRedisImpl implements AsyncCacheApi {
 
     @Override
     public CompletionStage<Done> remove(final String key) {
-        return supplyAsync(() -> {
-            this.sync().remove(this.prepareKey(key));
-            return Done.done();
-        });
+        return this.prepareKey(key).thenCompose(this.playRedisAsync::remove).thenApply(removed -> Done.done());
     }
 
     @Override
     public CompletionStage<Done> removeAll() {
-        return supplyAsync(() -> {
-            try (final Jedis connection = this.asPlayRedis().getConnection(0)) {
-                // Search all keys in Redis.
-                // https://redis.io/commands/keys
-                connection.keys(DEFAULT_PREFIX + "*").forEach(this::remove);
-            }
-            return Done.done();
-        });
+        // Moves the cache to a new generation: previous values can't be
+        // reached anymore, and are removed in the background by the reaper
+        return this.playRedisAsync.invalidateNamespace(DEFAULT_PREFIX).thenApply(generation -> Done.done());
     }
 
     @Override
@@ -148,14 +138,15 @@ public class AsyncCacheRedisImpl implements AsyncCacheApi {
     }
 
     /**
-     * Return the prepared key for be used on redis with a default prefix.
+     * Return the prepared key for be used on redis with a default prefix
+     * and the current generation of the cache.
      *
      * @param key Content key.
      * @return Key with prefix.
      * @since 20.11.05
      */
-    private String prepareKey(final String key) {
-        return DEFAULT_PREFIX + key;
+    private CompletionStage<String> prepareKey(final String key) {
+        return this.playRedisAsync.namespacedKey(DEFAULT_PREFIX, key);
     }
 
 }
@@ -36,7 +36,7 @@ import java.util.concurrent.Callable;
  * Implementation of {@code PlayRedis}.
  *
  * @author Felipe Bonezi
- * @version 20.11
+ * @version 26.10.16
  * @see PlayRedis
  * @since 20.11.05
  */
@@ -73,17 +73,14 @@ public class SyncCacheRedisImpl implements SyncCacheApi {
 
     @Override
     public <T> T getOrElseUpdate(final String key, final Callable<T> callable, final int expiration) {
-        final Optional<T> optional = this.get(key);
-        return optional.orElseGet(() -> {
-            try {
-                final T obj = callable.call();
-                this.set(key, obj, expiration);
-                return obj;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            }
-        });
+        // Concurrent calls for the same key share a single computation
+        try {
+            return this.playRedis.getOrElse(key, new TypeReference<T>() {
+            }, callable, expiration);
+        } catch (final RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     @Override
@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zero_x_baadf00d.play.module.redis.RedisCodec;
+import play.libs.Json;
+
+/**
+ * Stores values as JSON text, using the Play Framework
+ * object mapper. Values are written without marker.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+public class JsonRedisCodec implements RedisCodec {
+
+    /**
+     * The codec name.
+     *
+     * @since 26.10.16
+     */
+    public static final String NAME = "json";
+
+    /**
+     * Build an object mapper writing another format, configured like
+     * the Play Framework object mapper: same features, same modules.
+     * Modules are looked up on the classpath, and registered if the
+     * Play Framework object mapper uses them.
+     *
+     * @param factory The factory of the format
+     * @return The object mapper
+     * @since 26.10.16
+     */
+    static ObjectMapper newMapper(final JsonFactory factory) {
+        final ObjectMapper source = Json.mapper();
+        final ObjectMapper mapper = new ObjectMapper(factory);
+        for (final Module module : ObjectMapper.findModules()) {
+            if (source.getRegisteredModuleIds().contains(module.getTypeId())) {
+                mapper.registerModule(module);
+            }
+        }
+        mapper.setConfig(source.getSerializationConfig());
+        mapper.setConfig(source.getDeserializationConfig());
+        return mapper;
+    }
+
+    @Override
+    public String getName() {
+        return JsonRedisCodec.NAME;
+    }
+
+    @Override
+    public byte getMarker() {
+        return RedisCodec.NO_MARKER;
+    }
+
+    @Override
+    public ObjectMapper getMapper() {
+        return Json.mapper();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.zero_x_baadf00d.play.module.redis.RedisCodec;
+
+/**
+ * Stores values with Smile, a binary JSON format, using a mapper
+ * configured like the Play Framework object mapper.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+public class SmileRedisCodec implements RedisCodec {
+
+    /**
+     * The codec name.
+     *
+     * @since 26.10.16
+     */
+    public static final String NAME = "smile";
+
+    /**
+     * The codec marker.
+     *
+     * @since 26.10.16
+     */
+    public static final byte MARKER = 0x01;
+
+    /**
+     * The object mapper.
+     *
+     * @since 26.10.16
+     */
+    private final ObjectMapper mapper;
+
+    /**
+     * Build a new instance.
+     *
+     * @since 26.10.16
+     */
+    public SmileRedisCodec() {
+        this.mapper = JsonRedisCodec.newMapper(new SmileFactory());
+    }
+
+    @Override
+    public String getName() {
+        return SmileRedisCodec.NAME;
+    }
+
+    @Override
+    public byte getMarker() {
+        return SmileRedisCodec.MARKER;
+    }
+
+    @Override
+    public ObjectMapper getMapper() {
+        return this.mapper;
+    }
+}
@@ -33,6 +33,7 @@ import play.api.Environment;
 import play.api.inject.Module;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -44,7 +45,7 @@ import static org.mockito.Mockito.mock;
  * AsyncCacheRedisTest.
  *
  * @author Felipe Bonezi
- * @version 20.11
+ * @version 26.10.16
  * @since 20.11.05
  */
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -231,4 +232,48 @@ public class AsyncCacheRedisTest extends AbstractRedisTest {
         Assert.assertEquals("getOrElse", data);
     }
 
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void cacheRedisTest_006_executor() throws InterruptedException, ExecutionException, TimeoutException {
+        final String threadName = CompletableFuture.supplyAsync(
+            () -> Thread.currentThread().getName(),
+            this.playRedis.getExecutor()
+        ).get(1, TimeUnit.MINUTES);
+        Assert.assertTrue(threadName.startsWith("play-redis-executor-"));
+        Assert.assertEquals(0, this.playRedis.getMetrics().get("executor.rejected"));
+        Assert.assertTrue(this.playRedis.getMetrics().snapshot().containsKey("executor.queue-depth"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void cacheRedisTest_007_removeAll_namespace() throws InterruptedException, ExecutionException, TimeoutException {
+        this.asyncCacheApi.set("junit.item", "value", 60).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(Optional.of("value"), this.asyncCacheApi.get("junit.item").toCompletableFuture().get(1, TimeUnit.MINUTES));
+
+        this.asyncCacheApi.removeAll().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(Optional.empty(), this.asyncCacheApi.get("junit.item").toCompletableFuture().get(1, TimeUnit.MINUTES));
+
+        this.asyncCacheApi.set("junit.item", "value2", 60).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(Optional.of("value2"), this.asyncCacheApi.get("junit.item").toCompletableFuture().get(1, TimeUnit.MINUTES));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void cacheRedisTest_008_removeAll_reaper() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedis playRedis = ((AsyncCacheRedisImpl) this.asyncCacheApi).asPlayRedis();
+        this.asyncCacheApi.set("junit.reaped", "value").toCompletableFuture().get(1, TimeUnit.MINUTES);
+        final String previousKey = playRedis.namespacedKey("play.cache.", "junit.reaped");
+        Assert.assertTrue(playRedis.exists(previousKey));
+
+        // The values set without expiration are removed once the other nodes see the new generation
+        this.asyncCacheApi.removeAll().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Thread.sleep(2000);
+        Assert.assertFalse(playRedis.exists(previousKey));
+    }
 }
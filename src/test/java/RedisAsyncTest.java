@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.zero_x_baadf00d.play.module.redis.PlayRedisAsync;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RedisAsyncTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisAsyncTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisAsyncTest() {
+        super(6379);
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_001_set_get() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        playRedisAsync.set("junit.item", String.class, "Hello World!", 60)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES);
+        Assert.assertEquals("Hello World!", playRedisAsync.get("junit.item", String.class)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES));
+        Assert.assertEquals("Hello World!", this.playRedis.get("junit.item", String.class));
+
+        playRedisAsync.remove("junit.item")
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES);
+        Assert.assertNull(playRedisAsync.get("junit.item", String.class)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_002_concurrency() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            futures.add(playRedisAsync.increment("junit.counter", 60).toCompletableFuture());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(Long.valueOf(10001), this.playRedis.increment("junit.counter"));
+        Assert.assertTrue(this.playRedis.getMetrics().get("multiplexer.batches") < 10000);
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_003_getMany_getOrElse() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        final Map<String, Integer> values = new HashMap<>();
+        values.put("junit.item", 1);
+        values.put("junit.item2", 2);
+        Assert.assertTrue(playRedisAsync.setMany(values, Integer.class, 60)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES)
+            .isEmpty());
+        Assert.assertEquals(values, playRedisAsync.getMany(Arrays.asList("junit.item", "junit.item2", "junit.item3"), Integer.class)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES));
+
+        this.playRedis.remove("junit.item");
+        Assert.assertEquals(Integer.valueOf(42), playRedisAsync.getOrElse("junit.item", Integer.class, () -> CompletableFuture.completedFuture(42), 60)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES));
+        Assert.assertEquals(Integer.valueOf(42), this.playRedis.get("junit.item", Integer.class));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_004_list_lock() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        playRedisAsync.addInList("junit.item", Integer.class, 1).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        playRedisAsync.addInList("junit.item", Integer.class, 2, 5).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(
+            Arrays.asList(2, 1),
+            playRedisAsync.getFromList("junit.item", new TypeReference<Integer>() {
+            }, 0, -1).toCompletableFuture().get(1, TimeUnit.MINUTES)
+        );
+
+        Assert.assertTrue(playRedisAsync.tryLock("junit.lock", 60).toCompletableFuture().get(1, TimeUnit.MINUTES));
+        Assert.assertFalse(playRedisAsync.tryLock("junit.lock", 60).toCompletableFuture().get(1, TimeUnit.MINUTES));
+
+        // An invalid expiration fails the stage, it is not thrown
+        try {
+            playRedisAsync.tryLock("junit.lock", -1).toCompletableFuture().get(1, TimeUnit.MINUTES);
+            Assert.fail("The lock expiration can't be negative");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_005_singleFlight() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<Integer> block = new CompletableFuture<>();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; ++i) {
+            futures.add(playRedisAsync.getOrElse("junit.item", Integer.class, () -> {
+                calls.incrementAndGet();
+                return block;
+            }, 60).toCompletableFuture());
+        }
+        Thread.sleep(500);
+        block.complete(42);
+        for (final CompletableFuture<Integer> future : futures) {
+            Assert.assertEquals(Integer.valueOf(42), future.get(1, TimeUnit.MINUTES));
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(Integer.valueOf(42), this.playRedis.get("junit.item", Integer.class));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_006_removeByPrefix() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        for (int i = 0; i < 1200; ++i) {
+            this.playRedis.set("junit.prefix." + i, Integer.class, i);
+        }
+        this.playRedis.set("junit.other", Integer.class, 1);
+        Assert.assertEquals(Long.valueOf(1200), playRedisAsync.removeByPrefix("junit.prefix.").toCompletableFuture().get(1, TimeUnit.MINUTES));
+        Assert.assertFalse(this.playRedis.exists("junit.prefix.0"));
+        Assert.assertTrue(this.playRedis.exists("junit.other"));
+        Assert.assertEquals(Long.valueOf(0), playRedisAsync.removeByPrefix("junit.prefix.").toCompletableFuture().get(1, TimeUnit.MINUTES));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisAsyncTest_007_removeMany() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisAsync playRedisAsync = this.playRedis.async();
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1200; ++i) {
+            keys.add("junit.remove." + i);
+            this.playRedis.set("junit.remove." + i, Integer.class, i);
+        }
+        Assert.assertEquals(Long.valueOf(1200), playRedisAsync.remove(keys).toCompletableFuture().get(1, TimeUnit.MINUTES));
+        Assert.assertFalse(this.playRedis.exists("junit.remove.0"));
+        Assert.assertFalse(this.playRedis.exists("junit.remove.1199"));
+    }
+}
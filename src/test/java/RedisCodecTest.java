@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * RedisCodecTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisCodecTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisCodecTest() {
+        super(6379, new HashMap<String, Object>() {{
+            put("redis.codec.default", "smile");
+            put("redis.codec.prefixes", Collections.singletonList(new HashMap<String, Object>() {{
+                put("prefix", "junit.item2");
+                put("codec", "cbor");
+            }}));
+        }});
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisCodecTest_001_set_get() {
+        final List<String> values = Arrays.asList("Hello", "World");
+        this.playRedis.set("junit.item", new TypeReference<List<String>>() {
+        }, values);
+        this.playRedis.set("junit.item2", new TypeReference<List<String>>() {
+        }, values);
+
+        Assert.assertEquals(values, this.playRedis.get("junit.item", new TypeReference<List<String>>() {
+        }));
+        Assert.assertEquals(values, this.playRedis.get("junit.item2", new TypeReference<List<String>>() {
+        }));
+
+        try (final Jedis conn = this.playRedis.getConnection()) {
+            Assert.assertEquals(0x01, conn.get("junit.item".getBytes())[0]);
+            Assert.assertEquals(0x02, conn.get("junit.item2".getBytes())[0]);
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisCodecTest_002_legacyJson() {
+        try (final Jedis conn = this.playRedis.getConnection()) {
+            conn.set("junit.item", "[\"Hello\",\"World\"]");
+        }
+        Assert.assertEquals(
+            Arrays.asList("Hello", "World"),
+            this.playRedis.get("junit.item", new TypeReference<List<String>>() {
+            })
+        );
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisCodecTest_003_list() {
+        this.playRedis.addInList("junit.item", Integer.class, 1);
+        this.playRedis.addInList("junit.item", Integer.class, 2, 5);
+        Assert.assertArrayEquals(
+            new Integer[]{2, 1},
+            this.playRedis.getFromList("junit.item", Integer.class).toArray()
+        );
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RedisCompressionTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisCompressionTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisCompressionTest() {
+        super(6379, new HashMap<String, Object>() {{
+            put("redis.compression.algorithm", "lz4");
+            put("redis.compression.threshold", 128);
+            put("redis.compression.dictionary.key", "junit.dictionary.");
+        }});
+    }
+
+    /**
+     * Build a value big enough to be compressed.
+     *
+     * @return A list of strings
+     * @since 26.10.16
+     */
+    private static List<String> bigValue() {
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            values.add("Hello World #" + i);
+        }
+        return values;
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisCompressionTest_001_set_get() {
+        final List<String> values = RedisCompressionTest.bigValue();
+        this.playRedis.set("junit.item", new TypeReference<List<String>>() {
+        }, values);
+        this.playRedis.set("junit.item2", new TypeReference<List<String>>() {
+        }, Collections.singletonList("Hello"));
+
+        Assert.assertEquals(values, this.playRedis.get("junit.item", new TypeReference<List<String>>() {
+        }));
+        Assert.assertEquals(Collections.singletonList("Hello"), this.playRedis.get("junit.item2", new TypeReference<List<String>>() {
+        }));
+
+        try (final Jedis conn = this.playRedis.getConnection()) {
+            Assert.assertEquals(0x10, conn.get("junit.item".getBytes())[0]);
+            Assert.assertEquals('[', conn.get("junit.item2".getBytes())[0]);
+        }
+        Assert.assertTrue(this.playRedis.getMetrics().get("compression.count") > 0);
+        Assert.assertTrue(this.playRedis.getMetrics().get("compression.bytes-out")
+            < this.playRedis.getMetrics().get("compression.bytes-in"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisCompressionTest_002_list() {
+        final List<String> values = RedisCompressionTest.bigValue();
+        this.playRedis.addInList("junit.item", new TypeReference<List<String>>() {
+        }, values);
+        Assert.assertEquals(
+            Collections.singletonList(values),
+            this.playRedis.getFromList("junit.item", new TypeReference<List<String>>() {
+            })
+        );
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisCompressionTest_003_dictionary() {
+        final Map<String, Map<String, Object>> values = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            final Map<String, Object> value = new HashMap<>();
+            value.put("identifier", i);
+            value.put("firstName", "John #" + i);
+            value.put("lastName", "Doe #" + (i * 7));
+            value.put("email", "john.doe." + i + "@example.com");
+            values.put("junit.dict." + i, value);
+        }
+        this.playRedis.setMany(values, new TypeReference<Map<String, Object>>() {
+        });
+
+        final Integer dictionaryId = this.playRedis.trainDictionary("junit.dict.", 1000);
+        Assert.assertNotNull(dictionaryId);
+
+        this.playRedis.set("junit.dict.0", new TypeReference<Map<String, Object>>() {
+        }, values.get("junit.dict.0"));
+        try (final Jedis conn = this.playRedis.getConnection()) {
+            Assert.assertEquals(0x12, conn.get("junit.dict.0".getBytes())[0]);
+        }
+        Assert.assertEquals(values.get("junit.dict.0"), this.playRedis.get("junit.dict.0", new TypeReference<Map<String, Object>>() {
+        }));
+        Assert.assertTrue(this.playRedis.getMetrics().get("compression.dictionary-count") > 0);
+    }
+}
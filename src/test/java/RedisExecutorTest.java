@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RedisExecutorTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisExecutorTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisExecutorTest() {
+        super(6379, new HashMap<String, Object>() {{
+            put("redis.executor.mode", "virtual");
+            put("redis.executor.threads", 2);
+        }});
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisExecutorTest_001_concurrency_cap() throws InterruptedException, ExecutionException, TimeoutException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    return this.playRedis.increment("junit.counter");
+                } finally {
+                    running.decrementAndGet();
+                }
+            }, this.playRedis.getExecutor()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(50, futures.stream().mapToLong(CompletableFuture::join).max().orElse(0));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        Assert.assertEquals(0, this.playRedis.getMetrics().get("executor.rejected"));
+        Assert.assertEquals(0, this.playRedis.getMetrics().get("executor.active"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisExecutorTest_002_async_cache() throws InterruptedException, ExecutionException, TimeoutException {
+        this.asyncCacheApi.set("junit.item", "Hello World!").toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(
+            "Hello World!",
+            this.asyncCacheApi.<String>get("junit.item").toCompletableFuture().get(1, TimeUnit.MINUTES).orElse(null)
+        );
+        this.asyncCacheApi.removeAll().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        Assert.assertFalse(this.playRedis.exists("junit.item"));
+    }
+}
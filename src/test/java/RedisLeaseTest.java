@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import com.zero_x_baadf00d.play.module.redis.PlayRedis;
+import com.zero_x_baadf00d.play.module.redis.PlayRedisImpl;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import play.inject.ApplicationLifecycle;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.params.SetParams;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * RedisLeaseTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisLeaseTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisLeaseTest() {
+        super(6379, new HashMap<String, Object>() {{
+            put("redis.single-flight.lease.enabled", true);
+            put("redis.single-flight.lease.key", "junit.lease.");
+            put("redis.single-flight.lease.ttl", 1000);
+            put("redis.single-flight.lease.wait", 5000);
+        }});
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisLeaseTest_001_two_nodes() throws InterruptedException, ExecutionException, TimeoutException {
+        final PlayRedisImpl otherNode = new PlayRedisImpl(mock(ApplicationLifecycle.class), this.application.config());
+        try {
+            final AtomicInteger calls = new AtomicInteger();
+            final CompletableFuture<Integer> first = CompletableFuture.supplyAsync(
+                () -> this.playRedis.getOrElse("junit.item", Integer.class, () -> {
+                    calls.incrementAndGet();
+                    Thread.sleep(500);
+                    return 42;
+                }, 60)
+            );
+            Thread.sleep(100);
+            final Integer second = otherNode.getOrElse("junit.item", Integer.class, () -> {
+                calls.incrementAndGet();
+                return 1337;
+            }, 60);
+            Assert.assertEquals(Integer.valueOf(42), first.get(1, TimeUnit.MINUTES));
+            Assert.assertEquals(Integer.valueOf(42), second);
+            Assert.assertEquals(1, calls.get());
+            Assert.assertEquals(1, this.playRedis.getMetrics().get("lease.acquired"));
+            Assert.assertTrue(otherNode.getMetrics().get("lease.waited") > 0);
+        } finally {
+            otherNode.stopHook().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisLeaseTest_002_expired_lease() throws InterruptedException, ExecutionException, TimeoutException {
+        try (final Jedis jedis = this.playRedis.getConnection()) {
+            jedis.set("junit.lease.junit.item", "dead-node", SetParams.setParams().nx().px(500));
+        }
+        final PlayRedis playRedis = this.playRedis;
+        Assert.assertEquals(Integer.valueOf(42), playRedis.getOrElse("junit.item", Integer.class, () -> 42, 60));
+        Assert.assertEquals(1, this.playRedis.getMetrics().get("lease.acquired"));
+        Assert.assertEquals(Integer.valueOf(1337), playRedis.async().getOrElse("junit.item2", Integer.class,
+            () -> CompletableFuture.completedFuture(1337), 60).toCompletableFuture().get(1, TimeUnit.MINUTES));
+        Assert.assertEquals(2, this.playRedis.getMetrics().get("lease.acquired"));
+    }
+}
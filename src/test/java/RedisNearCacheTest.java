@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import com.zero_x_baadf00d.play.module.redis.RedisMetrics;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * RedisNearCacheTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisNearCacheTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisNearCacheTest() {
+        super(6379, new HashMap<String, Object>() {{
+            put("redis.near-cache.enabled", true);
+            put("redis.near-cache.regions", Collections.singletonList(new HashMap<String, Object>() {{
+                put("prefix", "junit.");
+                put("maxsize", 10);
+                put("ttl", 60000);
+            }}));
+        }});
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisNearCacheTest_001_get() {
+        final RedisMetrics metrics = this.playRedis.getMetrics();
+        this.playRedis.set("junit.item", String.class, "Hello World!");
+
+        Assert.assertEquals("Hello World!", this.playRedis.get("junit.item", String.class));
+        Assert.assertEquals(0, metrics.get("near-cache.hit"));
+        Assert.assertEquals(1, metrics.get("near-cache.miss"));
+
+        Assert.assertEquals("Hello World!", this.playRedis.get("junit.item", String.class));
+        Assert.assertEquals(1, metrics.get("near-cache.hit"));
+        Assert.assertEquals(1, metrics.get("near-cache.miss"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisNearCacheTest_002_invalidate() {
+        this.playRedis.set("junit.item", String.class, "Hello World!");
+        Assert.assertEquals("Hello World!", this.playRedis.get("junit.item", String.class));
+
+        this.playRedis.set("junit.item", String.class, "Hello Redis!");
+        Assert.assertEquals("Hello Redis!", this.playRedis.get("junit.item", String.class));
+
+        this.playRedis.remove("junit.item");
+        Assert.assertNull(this.playRedis.get("junit.item", String.class));
+    }
+}
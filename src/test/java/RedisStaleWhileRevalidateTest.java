@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * RedisStaleWhileRevalidateTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisStaleWhileRevalidateTest extends AbstractRedisTest {
+
+    /**
+     * Default constructor.
+     *
+     * @since 26.10.16
+     */
+    public RedisStaleWhileRevalidateTest() {
+        super(6379, new HashMap<String, Object>() {{
+            put("redis.stale-while-revalidate.enabled", true);
+            put("redis.stale-while-revalidate.grace", 60);
+        }});
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisStaleWhileRevalidateTest_001_sync() throws InterruptedException {
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.getOrElse("junit.item", Integer.class, () -> 1, 1));
+        try (final Jedis jedis = this.playRedis.getConnection()) {
+            Assert.assertTrue(jedis.ttl("junit.item") > 1);
+        }
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.get("junit.item", Integer.class));
+
+        Thread.sleep(1500);
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.getOrElse("junit.item", Integer.class, () -> 2, 1));
+        for (int i = 0; i < 50 && !Integer.valueOf(2).equals(this.playRedis.get("junit.item", Integer.class)); ++i) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(Integer.valueOf(2), this.playRedis.getOrElse("junit.item", Integer.class, () -> 3, 1));
+        Assert.assertEquals(1, this.playRedis.getMetrics().get("swr.refresh"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisStaleWhileRevalidateTest_002_async() throws InterruptedException, ExecutionException, TimeoutException {
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.async().getOrElse("junit.item2", Integer.class,
+            () -> CompletableFuture.completedFuture(1), 1).toCompletableFuture().get(1, TimeUnit.MINUTES));
+
+        Thread.sleep(1500);
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.async().getOrElse("junit.item2", Integer.class,
+            () -> CompletableFuture.completedFuture(2), 1).toCompletableFuture().get(1, TimeUnit.MINUTES));
+        for (int i = 0; i < 50 && !Integer.valueOf(2).equals(this.playRedis.get("junit.item2", Integer.class)); ++i) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(Integer.valueOf(2), this.playRedis.get("junit.item2", Integer.class));
+        Assert.assertEquals(1, this.playRedis.getMetrics().get("swr.refresh"));
+    }
+}
@@ -24,7 +24,9 @@
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
+import com.zero_x_baadf00d.play.module.redis.PlayRedis;
 import com.zero_x_baadf00d.play.module.redis.PlayRedisModule;
+import com.zero_x_baadf00d.play.module.redis.TypedRedis;
 import org.junit.Assert;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -33,8 +35,16 @@ import play.api.Environment;
 import play.api.inject.Module;
 import play.libs.Json;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.JedisClusterCRC16;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Mockito.mock;
 
@@ -43,7 +53,7 @@ import static org.mockito.Mockito.mock;
  *
  * @author Thibault Meyer
  * @author Pierre Adam
- * @version 20.06.09
+ * @version 26.10.16
  * @since 16.11.13
  */
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -64,7 +74,7 @@ public class RedisTest extends AbstractRedisTest {
     @Test
     public void redisTest_000_binding() {
         final Module module = new PlayRedisModule();
-        Assert.assertEquals(1,
+        Assert.assertEquals(2,
             module.bindings(
                 mock(Environment.class),
                 this.application.asScala().configuration()
@@ -280,4 +290,228 @@ public class RedisTest extends AbstractRedisTest {
         this.playRedis.stopHook();
         this.playRedis.resetConnectionsPool();
     }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_010_getMany() {
+        this.playRedis.set("junit.item", String.class, "Hello");
+        this.playRedis.set("junit.item2", String.class, "World");
+
+        final Map<String, String> values = this.playRedis.getMany(
+            Arrays.asList("junit.item", "junit.unknown", "junit.item2"),
+            String.class
+        );
+        Assert.assertEquals(2, values.size());
+        Assert.assertEquals("Hello", values.get("junit.item"));
+        Assert.assertEquals("World", values.get("junit.item2"));
+        Assert.assertFalse(values.containsKey("junit.unknown"));
+
+        Assert.assertTrue(this.playRedis.getMany(Arrays.asList(), String.class).isEmpty());
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_011_setMany() throws InterruptedException {
+        final Map<String, Integer> values = new HashMap<>();
+        values.put("junit.item", 1);
+        values.put("junit.item2", 2);
+
+        Set<String> failedKeys = this.playRedis.setMany(values, Integer.class);
+        Assert.assertTrue(failedKeys.isEmpty());
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.get("junit.item", Integer.class));
+        Assert.assertEquals(Integer.valueOf(2), this.playRedis.get("junit.item2", Integer.class));
+
+        failedKeys = this.playRedis.setMany(values, new TypeReference<Integer>() {
+        }, 2);
+        Assert.assertTrue(failedKeys.isEmpty());
+        Assert.assertTrue(this.playRedis.exists("junit.item2"));
+        Thread.sleep(3000);
+        Assert.assertFalse(this.playRedis.exists("junit.item"));
+        Assert.assertFalse(this.playRedis.exists("junit.item2"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_012_atomicExpiration() {
+        Assert.assertTrue(this.playRedis.tryLock("junit.lock", 900));
+        this.playRedis.set("junit.item", String.class, "Hello World!", 900);
+        this.playRedis.increment("junit.counter", 900);
+        try (final Jedis conn = this.playRedis.getConnection()) {
+            Assert.assertTrue(conn.ttl("junit.lock") > 0);
+            Assert.assertTrue(conn.ttl("junit.item") > 0);
+            Assert.assertTrue(conn.ttl("junit.counter") > 0);
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_013_typed() {
+        final TypedRedis<Integer> typedRedis = this.playRedis.typed(Integer.class, "junit.");
+        Assert.assertEquals("junit.", typedRedis.getKeyPrefix());
+
+        typedRedis.set("item", 42);
+        Assert.assertEquals(Integer.valueOf(42), typedRedis.get("item"));
+        Assert.assertEquals(Integer.valueOf(42), this.playRedis.get("junit.item", Integer.class));
+        Assert.assertEquals(Integer.valueOf(42), typedRedis.getOrElse("item", () -> 1337, 0));
+        Assert.assertEquals(Integer.valueOf(42), typedRedis.getMany(Arrays.asList("item", "item2")).get("item"));
+
+        typedRedis.addInList("item2", 1);
+        typedRedis.addInList("item2", 2, 5);
+        Assert.assertArrayEquals(new Integer[]{2, 1}, typedRedis.getFromList("item2", 0, -1).toArray());
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_014_singleFlight() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        final Map<Integer, Integer> results = new ConcurrentHashMap<>();
+        for (int i = 0; i < 16; ++i) {
+            final int idx = i;
+            final Thread thread = new Thread(() -> results.put(idx, this.playRedis.getOrElse("junit.item", Integer.class, () -> {
+                calls.incrementAndGet();
+                Thread.sleep(500);
+                return 42;
+            }, 60)));
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(16, results.size());
+        Assert.assertTrue(results.values().stream().allMatch(value -> value == 42));
+        Assert.assertTrue(this.playRedis.getMetrics().get("single-flight.shared") > 0);
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_015_removeByPrefix() {
+        for (int i = 0; i < 1200; ++i) {
+            this.playRedis.set("junit.prefix." + i, Integer.class, i);
+        }
+        this.playRedis.set("junit.other", Integer.class, 1);
+        Assert.assertEquals(1200, this.playRedis.removeByPrefix("junit.prefix."));
+        Assert.assertFalse(this.playRedis.exists("junit.prefix.0"));
+        Assert.assertFalse(this.playRedis.exists("junit.prefix.1199"));
+        Assert.assertTrue(this.playRedis.exists("junit.other"));
+        Assert.assertEquals(0, this.playRedis.removeByPrefix("junit.prefix."));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_016_namespace() {
+        final String key = this.playRedis.namespacedKey("junit.ns.", "item");
+        this.playRedis.set(key, Integer.class, 1, 60);
+        Assert.assertEquals(key, this.playRedis.namespacedKey("junit.ns.", "item"));
+        Assert.assertEquals(Integer.valueOf(1), this.playRedis.get(this.playRedis.namespacedKey("junit.ns.", "item"), Integer.class));
+
+        final long generation = this.playRedis.invalidateNamespace("junit.ns.");
+        Assert.assertNotEquals(key, this.playRedis.namespacedKey("junit.ns.", "item"));
+        Assert.assertTrue(this.playRedis.namespacedKey("junit.ns.", "item").contains(String.valueOf(generation)));
+        Assert.assertNull(this.playRedis.get(this.playRedis.namespacedKey("junit.ns.", "item"), Integer.class));
+        Assert.assertEquals(generation + 1, this.playRedis.invalidateNamespace("junit.ns."));
+        Assert.assertEquals(2, this.playRedis.getMetrics().get("namespace.invalidated"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_017_removeMany() {
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1200; ++i) {
+            keys.add("junit.remove." + i);
+            this.playRedis.set("junit.remove." + i, Integer.class, i);
+        }
+        keys.add("junit.remove.missing");
+        Assert.assertEquals(1200, this.playRedis.remove(keys));
+        Assert.assertFalse(this.playRedis.exists("junit.remove.0"));
+        Assert.assertFalse(this.playRedis.exists("junit.remove.1199"));
+
+        this.playRedis.set("junit.remove.0", Integer.class, 0);
+        this.playRedis.set("junit.remove.1", Integer.class, 1);
+        Assert.assertEquals(2, this.playRedis.remove("junit.remove.0", "junit.remove.1", "junit.remove.1"));
+        Assert.assertEquals(0, this.playRedis.remove(new ArrayList<>()));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_018_hashTag() {
+        final String profileKey = PlayRedis.hashTag("user42", "junit.profile");
+        final String settingsKey = PlayRedis.hashTag("user42", "junit.settings");
+        Assert.assertEquals("{user42}junit.profile", profileKey);
+        Assert.assertEquals(JedisClusterCRC16.getSlot(profileKey), JedisClusterCRC16.getSlot(settingsKey));
+
+        final Map<String, Integer> values = new HashMap<>();
+        values.put(profileKey, 1);
+        values.put(settingsKey, 2);
+        Assert.assertTrue(this.playRedis.setMany(values, Integer.class, 60).isEmpty());
+        Assert.assertEquals(values, this.playRedis.getMany(values.keySet(), Integer.class));
+        Assert.assertEquals(2, this.playRedis.remove(values.keySet()));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_019_readYourWrites() {
+        this.playRedis.set("junit.readYourWrites", Integer.class, 42, 60);
+        Assert.assertEquals(Integer.valueOf(42), this.playRedis.readYourWrites(() -> this.playRedis.get("junit.readYourWrites", Integer.class)));
+        Assert.assertEquals(Integer.valueOf(42), this.playRedis.get("junit.readYourWrites", Integer.class));
+        this.playRedis.remove("junit.readYourWrites");
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_020_tryLockWithoutExpiration() {
+        Assert.assertTrue(this.playRedis.tryLock("junit.lock.immortal", 0));
+        Assert.assertFalse(this.playRedis.tryLock("junit.lock.immortal", 0));
+        this.playRedis.remove("junit.lock.immortal");
+        try {
+            this.playRedis.tryLock("junit.lock.immortal", -1);
+            Assert.fail("The lock expiration can't be negative");
+        } catch (final IllegalArgumentException ignore) {
+            // Expected
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisTest_021_databases() {
+        try (final Jedis jedis = this.playRedis.getConnection(2)) {
+            Assert.assertEquals(2, jedis.getDB());
+            jedis.set("junit.database", "2");
+        }
+        try (final Jedis jedis = this.playRedis.getConnection()) {
+            Assert.assertEquals(1, jedis.getDB());
+            Assert.assertNull(jedis.get("junit.database"));
+        }
+        try (final Jedis jedis = this.playRedis.getConnection(2)) {
+            Assert.assertEquals(2, jedis.getDB());
+            Assert.assertEquals("2", jedis.get("junit.database"));
+            jedis.del("junit.database");
+        }
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import redis.clients.jedis.HostAndPort;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal server speaking the Redis protocol, answering "OK" to
+ * every command. Used to test the connections handling without a
+ * Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+final class FakeRedisServer implements Closeable {
+
+    /**
+     * The listening socket.
+     *
+     * @since 26.10.16
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Number of connections currently opened.
+     *
+     * @since 26.10.16
+     */
+    private final AtomicInteger openConnections;
+
+    /**
+     * Start a new server on a free port.
+     *
+     * @throws IOException If the server can't listen
+     * @since 26.10.16
+     */
+    FakeRedisServer() throws IOException {
+        this.serverSocket = new ServerSocket(0);
+        this.openConnections = new AtomicInteger();
+        final Thread acceptThread = new Thread(() -> {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    final Socket socket = this.serverSocket.accept();
+                    this.openConnections.incrementAndGet();
+                    final Thread connectionThread = new Thread(() -> this.serve(socket));
+                    connectionThread.setDaemon(true);
+                    connectionThread.start();
+                } catch (final IOException ignore) {
+                    // The server is closed
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Answer "OK" to each command received on a connection.
+     *
+     * @param socket The connection
+     * @since 26.10.16
+     */
+    private void serve(final Socket socket) {
+        try (final Socket client = socket) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1));
+            final OutputStream output = client.getOutputStream();
+            String line = reader.readLine();
+            while (line != null) {
+                // A command is an array of bulk strings: "*<count>", then "$<length>" and the value of each argument
+                final int argumentCount = Integer.parseInt(line.substring(1));
+                for (int idx = 0; idx < argumentCount * 2; ++idx) {
+                    reader.readLine();
+                }
+                output.write("+OK\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                output.flush();
+                line = reader.readLine();
+            }
+        } catch (final IOException ignore) {
+            // The connection is closed
+        } finally {
+            this.openConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the address of the server.
+     *
+     * @return The server address
+     * @since 26.10.16
+     */
+    HostAndPort getAddress() {
+        return new HostAndPort("127.0.0.1", this.serverSocket.getLocalPort());
+    }
+
+    /**
+     * Wait until the number of opened connections reaches the
+     * expected value, or one second has elapsed.
+     *
+     * @param expected The expected number of opened connections
+     * @return The number of opened connections
+     * @throws InterruptedException If the current thread is interrupted
+     * @since 26.10.16
+     */
+    int awaitOpenConnections(final int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (this.openConnections.get() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return this.openConnections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+}
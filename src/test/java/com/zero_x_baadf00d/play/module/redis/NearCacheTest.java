@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import play.libs.Json;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * NearCacheTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class NearCacheTest {
+
+    /**
+     * The type of the cached objects.
+     *
+     * @since 26.10.16
+     */
+    private static final JavaType STRING_TYPE = Json.mapper().getTypeFactory().constructType(String.class);
+
+    /**
+     * Build a near cache with a single region.
+     *
+     * @return The near cache
+     * @since 26.10.16
+     */
+    private static NearCache createNearCache() {
+        final Map<String, Object> region = new HashMap<>();
+        region.put("prefix", "junit.");
+        region.put("maxsize", 100);
+        region.put("ttl", 60000);
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("redis.near-cache.enabled", true);
+        settings.put("redis.near-cache.regions", Collections.singletonList(region));
+        final Config configuration = ConfigFactory.parseMap(settings).withFallback(ConfigFactory.defaultReference());
+        return new NearCache(configuration, new RedisMetrics());
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void nearCacheTest_001_invalidatedKey() {
+        final NearCache nearCache = NearCacheTest.createNearCache();
+        final long generation = nearCache.getGeneration("junit.key");
+        nearCache.evict(Collections.singletonList("junit.key"));
+        nearCache.put("junit.key", NearCacheTest.STRING_TYPE, "value", generation);
+        Assert.assertNull(nearCache.get("junit.key", NearCacheTest.STRING_TYPE));
+
+        nearCache.put("junit.key", NearCacheTest.STRING_TYPE, "value", nearCache.getGeneration("junit.key"));
+        Assert.assertEquals("value", nearCache.get("junit.key", NearCacheTest.STRING_TYPE));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void nearCacheTest_002_otherKeys() {
+        final NearCache nearCache = NearCacheTest.createNearCache();
+        final Map<String, Long> generations = new HashMap<>();
+        for (int idx = 0; idx < 100; ++idx) {
+            generations.put("junit.key" + idx, nearCache.getGeneration("junit.key" + idx));
+        }
+        nearCache.evict(Collections.singletonList("junit.evicted"));
+        int cached = 0;
+        for (final Map.Entry<String, Long> entry : generations.entrySet()) {
+            nearCache.put(entry.getKey(), NearCacheTest.STRING_TYPE, "value", entry.getValue());
+            if (nearCache.get(entry.getKey(), NearCacheTest.STRING_TYPE) != null) {
+                ++cached;
+            }
+        }
+        // Only the keys sharing the generation of the evicted key are refused
+        Assert.assertTrue(cached >= 95);
+    }
+}
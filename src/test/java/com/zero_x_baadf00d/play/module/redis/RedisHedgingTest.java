@@ -0,0 +1,191 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.HostAndPort;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisHedgingTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisHedgingTest {
+
+    /**
+     * The module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics = new RedisMetrics();
+
+    /**
+     * Build the hedging.
+     *
+     * @param percentile The latency percentile after which a read is duplicated
+     * @param budget     The maximum share of the reads that can be duplicated
+     * @param executor   Executor running the reads
+     * @return The hedging
+     * @since 26.10.16
+     */
+    private RedisHedging newHedging(final double percentile, final double budget, final Executor executor) {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("redis.replicas.hedging.enabled", true);
+        settings.put("redis.replicas.hedging.percentile", percentile);
+        settings.put("redis.replicas.hedging.budget", budget);
+        final Config configuration = ConfigFactory.parseMap(settings).withFallback(ConfigFactory.defaultReference());
+        return new RedisHedging(configuration, executor, this.metrics);
+    }
+
+    /**
+     * Build the hedging, running each read on a new thread.
+     *
+     * @param percentile The latency percentile after which a read is duplicated
+     * @param budget     The maximum share of the reads that can be duplicated
+     * @return The hedging
+     * @since 26.10.16
+     */
+    private RedisHedging newHedging(final double percentile, final double budget) {
+        return this.newHedging(percentile, budget, command -> new Thread(command).start());
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisHedgingTest_001_percentile() {
+        final RedisHedging hedging = this.newHedging(90, 0.05);
+        for (int idx = 1; idx < 64; ++idx) {
+            hedging.record(idx * 1000L);
+        }
+        Assert.assertEquals(-1, hedging.getDelay());
+        hedging.record(64 * 1000L);
+        Assert.assertEquals(58 * 1000L, hedging.getDelay());
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisHedgingTest_002_window() {
+        final RedisHedging hedging = this.newHedging(50, 0.05);
+        for (int idx = 0; idx < 1024; ++idx) {
+            hedging.record(1_000_000L);
+        }
+        Assert.assertEquals(1_000_000L, hedging.getDelay());
+        for (int idx = 0; idx < 1024; ++idx) {
+            hedging.record(1_000L);
+        }
+        Assert.assertEquals(1_000L, hedging.getDelay());
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisHedgingTest_003_budget() {
+        final RedisHedging hedging = this.newHedging(95, 0.1);
+        for (int idx = 0; idx < 9; ++idx) {
+            hedging.record(1_000L);
+        }
+        Assert.assertFalse(hedging.tryHedge());
+        hedging.record(1_000L);
+        Assert.assertTrue(hedging.tryHedge());
+        Assert.assertFalse(hedging.tryHedge());
+
+        // The unused budget is capped to a burst of 10 hedges
+        for (int idx = 0; idx < 1000; ++idx) {
+            hedging.record(1_000L);
+        }
+        for (int idx = 0; idx < 10; ++idx) {
+            Assert.assertTrue(hedging.tryHedge());
+        }
+        Assert.assertFalse(hedging.tryHedge());
+        Assert.assertEquals(11, this.metrics.get(RedisHedging.METRIC_HEDGES));
+        Assert.assertEquals(3, this.metrics.get(RedisHedging.METRIC_THROTTLED));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test(timeout = 5000)
+    public void redisHedgingTest_004_duplicateWins() throws InterruptedException {
+        // The delay leaves time to start the thread of the first read, otherwise the caller runs it and can't hedge
+        final RedisHedging hedging = this.newHedging(50, 1);
+        for (int idx = 0; idx < 64; ++idx) {
+            hedging.record(100_000_000L);
+        }
+        final HostAndPort slowReplica = new HostAndPort("10.0.0.1", 6379);
+        final CountDownLatch slowReplicaAnswers = new CountDownLatch(1);
+        final CountDownLatch slowReadCompleted = new CountDownLatch(1);
+        final String value = hedging.read(slowReplica, node -> {
+            if (node == null) {
+                return "from-master";
+            }
+            try {
+                slowReplicaAnswers.await();
+            } catch (final InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            slowReadCompleted.countDown();
+            return "from-replica";
+        }, node -> null);
+        Assert.assertEquals("from-master", value);
+        Assert.assertEquals(1, this.metrics.get(RedisHedging.METRIC_WINS));
+
+        // The slow read is not interrupted, it completes in the background
+        slowReplicaAnswers.countDown();
+        Assert.assertTrue(slowReadCompleted.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test(timeout = 5000)
+    public void redisHedgingTest_005_busyExecutor() {
+        // An executor never starting its tasks
+        final RedisHedging hedging = this.newHedging(50, 1, command -> {
+        });
+        for (int idx = 0; idx < 64; ++idx) {
+            hedging.record(1_000_000L);
+        }
+        final String value = hedging.read(new HostAndPort("10.0.0.1", 6379), node -> node == null ? "from-master" : "from-replica", node -> null);
+        Assert.assertEquals("from-replica", value);
+        Assert.assertEquals(0, this.metrics.get(RedisHedging.METRIC_HEDGES));
+    }
+}
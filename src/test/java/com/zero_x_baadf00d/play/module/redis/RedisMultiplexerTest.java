@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.HostAndPort;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * RedisMultiplexerTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisMultiplexerTest {
+
+    /**
+     * The module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics = new RedisMetrics();
+
+    /**
+     * Build a multiplexer using a single connection to the given
+     * server.
+     *
+     * @param server       The Redis server
+     * @param maxBatchSize Maximum number of commands sent in a single batch
+     * @return The multiplexer
+     * @since 26.10.16
+     */
+    private RedisMultiplexer newMultiplexer(final HostAndPort server, final int maxBatchSize) {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("redis.async.connections", 1);
+        settings.put("redis.async.max-batch-size", maxBatchSize);
+        final Config configuration = ConfigFactory.parseMap(settings).withFallback(ConfigFactory.defaultReference());
+        return new RedisMultiplexer(
+            configuration,
+            () -> new MultiplexedConnection(server, 1000, null, 0),
+            node -> new MultiplexedConnection(node, 1000, null, 0),
+            new RedisCluster(configuration, this.metrics),
+            this.metrics
+        );
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisMultiplexerTest_001_replies() throws IOException, InterruptedException, ExecutionException {
+        try (final FakeRedisServer server = new FakeRedisServer()) {
+            final RedisMultiplexer multiplexer = this.newMultiplexer(server.getAddress(), 10);
+            final List<CompletableFuture<String>> replies = new ArrayList<>();
+            for (int idx = 0; idx < 1000; ++idx) {
+                final String key = "key" + idx;
+                replies.add(multiplexer.submit(key, pipeline -> pipeline.set(key, "value")));
+            }
+            for (final CompletableFuture<String> reply : replies) {
+                Assert.assertEquals("OK", reply.get());
+            }
+            Assert.assertEquals(1000, this.metrics.get(RedisMultiplexer.METRIC_COMMANDS));
+            Assert.assertEquals(1, server.awaitOpenConnections(1));
+
+            // The previous connection is closed once its replies have been read
+            multiplexer.reconnect();
+            Assert.assertEquals("OK", multiplexer.submit("key", pipeline -> pipeline.set("key", "value")).get());
+            Assert.assertEquals(1, server.awaitOpenConnections(1));
+
+            multiplexer.stop();
+            Assert.assertEquals(0, server.awaitOpenConnections(0));
+            try {
+                multiplexer.submit("key", pipeline -> pipeline.set("key", "value")).get();
+                Assert.fail("The multiplexer is stopped");
+            } catch (final ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisMultiplexerTest_002_batchesInFlight() throws IOException, InterruptedException, ExecutionException,
+                                                                  TimeoutException {
+        try (final ServerSocket serverSocket = new ServerSocket(0)) {
+            final RedisMultiplexer multiplexer = this.newMultiplexer(new HostAndPort("127.0.0.1", serverSocket.getLocalPort()), 1);
+            final CompletableFuture<String> first = multiplexer.submit("first", pipeline -> pipeline.set("first", "value"));
+            try (final Socket socket = serverSocket.accept()) {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                Assert.assertEquals("*3", reader.readLine());
+                for (int idx = 0; idx < 6; ++idx) {
+                    reader.readLine();
+                }
+
+                // The second batch is sent while the first one is still waiting for its reply
+                final CompletableFuture<String> second = multiplexer.submit("second", pipeline -> pipeline.set("second", "value"));
+                Assert.assertEquals("*3", reader.readLine());
+                Assert.assertFalse(first.isDone());
+                socket.getOutputStream().write("+OK\r\n-ERR second\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                socket.getOutputStream().flush();
+                Assert.assertEquals("OK", first.get(1, TimeUnit.SECONDS));
+                try {
+                    second.get(1, TimeUnit.SECONDS);
+                    Assert.fail("The second command is failed by Redis");
+                } catch (final ExecutionException ex) {
+                    Assert.assertEquals("ERR second", ex.getCause().getMessage());
+                }
+            } finally {
+                multiplexer.stop();
+            }
+        }
+    }
+}
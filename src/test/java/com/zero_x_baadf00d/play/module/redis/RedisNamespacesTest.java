@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * RedisNamespacesTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisNamespacesTest {
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisNamespacesTest_001_staleGenerations() {
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v0.key"));
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v2.key"));
+        Assert.assertFalse(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v3.key"));
+
+        // Another node may already have moved to the next generation
+        Assert.assertFalse(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v4.key"));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisNamespacesTest_002_legacyKeys() {
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.key"));
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v.key"));
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v3"));
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.v-3.key"));
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache.vx3.key"));
+        Assert.assertTrue(RedisNamespaces.isStale("play.cache.", 3, "play.cache."));
+    }
+}
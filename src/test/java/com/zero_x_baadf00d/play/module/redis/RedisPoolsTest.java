@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+
+/**
+ * RedisPoolsTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisPoolsTest {
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisPoolsTest_001_switchMaster() throws IOException, InterruptedException {
+        try (final FakeRedisServer previousMaster = new FakeRedisServer();
+             final FakeRedisServer newMaster = new FakeRedisServer()) {
+            final RedisPools pools = new RedisPools(0, 1000, null, 8, 8, 0, 1);
+            pools.connect(previousMaster.getAddress());
+            final Jedis borrowed = pools.getResource(0);
+            Assert.assertEquals(previousMaster.getAddress().getPort(), borrowed.getClient().getPort());
+            try (final Jedis idle = pools.getResource(0)) {
+                idle.ping();
+            }
+            Assert.assertEquals(2, previousMaster.awaitOpenConnections(2));
+
+            pools.connect(newMaster.getAddress());
+            try (final Jedis jedis = pools.getResource(0)) {
+                Assert.assertEquals(newMaster.getAddress().getPort(), jedis.getClient().getPort());
+            }
+
+            // The idle connection is closed at once, the borrowed one once given back
+            Assert.assertEquals(1, previousMaster.awaitOpenConnections(1));
+            borrowed.ping();
+            borrowed.close();
+            Assert.assertEquals(0, previousMaster.awaitOpenConnections(0));
+            pools.close();
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisPoolsTest_002_databases() throws IOException, InterruptedException {
+        try (final FakeRedisServer server = new FakeRedisServer()) {
+            final RedisPools pools = new RedisPools(1, 1000, null, 8, 8, 0, 1);
+            pools.connect(server.getAddress());
+            try (final Jedis jedis = pools.getResource(2)) {
+                Assert.assertEquals(2, jedis.getDB());
+            }
+            Assert.assertEquals(1, pools.getPool(2).getNumIdle());
+            Assert.assertEquals(0, pools.getPool(1).getNumIdle());
+            try (final Jedis jedis = pools.getResource(1)) {
+                Assert.assertEquals(1, jedis.getDB());
+            }
+            Assert.assertEquals(1, pools.getPool(1).getNumIdle());
+
+            // The connection of the database 2 is given back to its pool, and borrowed again
+            try (final Jedis jedis = pools.getResource(2)) {
+                Assert.assertEquals(2, jedis.getDB());
+                Assert.assertEquals(0, pools.getPool(2).getNumIdle());
+            }
+            Assert.assertEquals(2, server.awaitOpenConnections(2));
+            pools.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RedisSentinelTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisSentinelTest {
+
+    /**
+     * The module metrics.
+     *
+     * @since 26.10.16
+     */
+    private final RedisMetrics metrics = new RedisMetrics();
+
+    /**
+     * Build a sentinel client following the master "mymaster". It
+     * is not started, no sentinel is contacted.
+     *
+     * @return The sentinel client
+     * @since 26.10.16
+     */
+    private RedisSentinel newSentinel() {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("redis.sentinel.master", "mymaster");
+        settings.put("redis.sentinel.nodes", "127.0.0.1:26379,127.0.0.1:26380");
+        final Config configuration = ConfigFactory.parseMap(settings).withFallback(ConfigFactory.defaultReference());
+        return new RedisSentinel(configuration, 1000, this.metrics);
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisSentinelTest_001_switchMaster() {
+        final RedisSentinel sentinel = this.newSentinel();
+        Assert.assertTrue(sentinel.isEnabled());
+        Assert.assertNull(sentinel.getMaster());
+
+        sentinel.onSwitchMessage("mymaster 10.0.0.1 6379 10.0.0.2 6380");
+        Assert.assertEquals(new HostAndPort("10.0.0.2", 6380), sentinel.getMaster());
+        Assert.assertEquals(1, this.metrics.get(RedisSentinel.METRIC_SWITCHES));
+
+        // The same master announced by another sentinel is not a new switch
+        sentinel.onSwitchMessage("mymaster 10.0.0.1 6379 10.0.0.2 6380");
+        Assert.assertEquals(1, this.metrics.get(RedisSentinel.METRIC_SWITCHES));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisSentinelTest_002_ignoredMessages() {
+        final RedisSentinel sentinel = this.newSentinel();
+        sentinel.onSwitchMessage("othermaster 10.0.0.1 6379 10.0.0.3 6379");
+        sentinel.onSwitchMessage("mymaster 10.0.0.1 6379 10.0.0.3");
+        sentinel.onSwitchMessage("mymaster 10.0.0.1 6379 10.0.0.3 port");
+        sentinel.onSwitchMessage("");
+        Assert.assertNull(sentinel.getMaster());
+        Assert.assertEquals(0, this.metrics.get(RedisSentinel.METRIC_SWITCHES));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisSentinelTest_003_majority() {
+        final RedisSentinel sentinel = this.newSentinel();
+        final HostAndPort previousMaster = new HostAndPort("10.0.0.1", 6379);
+        final HostAndPort newMaster = new HostAndPort("10.0.0.2", 6379);
+        final Map<HostAndPort, Integer> votes = new HashMap<>();
+
+        // While no master is known, a single sentinel is trusted
+        votes.put(previousMaster, 1);
+        Assert.assertEquals(previousMaster, sentinel.elect(votes));
+
+        // A lagging sentinel can't move back to the demoted master
+        sentinel.onSwitchMessage("mymaster 10.0.0.1 6379 10.0.0.2 6379");
+        votes.put(newMaster, 1);
+        Assert.assertEquals(newMaster, sentinel.elect(votes));
+        votes.remove(newMaster);
+        Assert.assertEquals(newMaster, sentinel.elect(votes));
+
+        // A master reported by a majority of the sentinels is accepted
+        votes.put(previousMaster, 2);
+        Assert.assertEquals(previousMaster, sentinel.elect(votes));
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test(expected = JedisConnectionException.class)
+    public void redisSentinelTest_004_unknownMaster() {
+        this.newSentinel().elect(new HashMap<>());
+    }
+}
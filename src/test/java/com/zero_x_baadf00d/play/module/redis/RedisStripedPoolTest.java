@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2017 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.redis;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RedisStripedPoolTest. These tests don't need a Redis server.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.16
+ * @since 26.10.16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RedisStripedPoolTest {
+
+    /**
+     * Build a pool of two stripes.
+     *
+     * @param server  The server to connect to
+     * @param stripes Receives the created stripes
+     * @return The striped pool
+     * @since 26.10.16
+     */
+    private static RedisStripedPool createPool(final FakeRedisServer server, final List<JedisPool> stripes) {
+        return new RedisStripedPool(2, () -> {
+            final JedisPool stripe = new JedisPool(
+                new JedisPoolConfig(),
+                server.getAddress().getHost(),
+                server.getAddress().getPort(),
+                1000
+            );
+            stripes.add(stripe);
+            return stripe;
+        });
+    }
+
+    /**
+     * Get the stripe of the current thread.
+     *
+     * @return The stripe index
+     * @since 26.10.16
+     */
+    private static int ownStripe() {
+        return (int) Math.floorMod(Thread.currentThread().getId(), 2L);
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisStripedPoolTest_001_ownStripe() throws IOException {
+        try (final FakeRedisServer server = new FakeRedisServer()) {
+            final List<JedisPool> stripes = new ArrayList<>();
+            final RedisStripedPool pool = RedisStripedPoolTest.createPool(server, stripes);
+            final JedisPool own = stripes.get(RedisStripedPoolTest.ownStripe());
+            final JedisPool other = stripes.get(1 - RedisStripedPoolTest.ownStripe());
+
+            // No idle connection anywhere, the connection is opened on the thread stripe
+            try (final Jedis ignored = pool.getResource()) {
+                Assert.assertEquals(1, own.getNumActive());
+                Assert.assertEquals(0, other.getNumActive());
+            }
+            Assert.assertEquals(1, own.getNumIdle());
+            Assert.assertEquals(0, other.getNumIdle());
+
+            // The idle connection of the thread stripe is reused
+            try (final Jedis ignored = pool.getResource()) {
+                Assert.assertEquals(1, own.getNumActive());
+                Assert.assertEquals(0, own.getNumIdle());
+            }
+            Assert.assertEquals(1, pool.getNumIdle());
+            Assert.assertEquals(0, pool.getNumActive());
+            pool.close();
+            Assert.assertTrue(pool.isClosed());
+        }
+    }
+
+    /**
+     * @since 26.10.16
+     */
+    @Test
+    public void redisStripedPoolTest_002_steal() throws IOException {
+        try (final FakeRedisServer server = new FakeRedisServer()) {
+            final List<JedisPool> stripes = new ArrayList<>();
+            final RedisStripedPool pool = RedisStripedPoolTest.createPool(server, stripes);
+            final JedisPool own = stripes.get(RedisStripedPoolTest.ownStripe());
+            final JedisPool other = stripes.get(1 - RedisStripedPoolTest.ownStripe());
+            other.getResource().close();
+            Assert.assertEquals(1, other.getNumIdle());
+
+            // The thread stripe has no idle connection, the one of the other stripe is stolen
+            try (final Jedis ignored = pool.getResource()) {
+                Assert.assertEquals(0, own.getNumActive());
+                Assert.assertEquals(1, other.getNumActive());
+            }
+            Assert.assertEquals(0, own.getNumIdle());
+            Assert.assertEquals(1, other.getNumIdle());
+
+            // The thread sticks to the stripe it stole from
+            own.getResource().close();
+            try (final Jedis ignored = pool.getResource()) {
+                Assert.assertEquals(1, own.getNumIdle());
+                Assert.assertEquals(1, other.getNumActive());
+            }
+            Assert.assertEquals(1, own.getNumIdle());
+            Assert.assertEquals(1, other.getNumIdle());
+            pool.close();
+        }
+    }
+}